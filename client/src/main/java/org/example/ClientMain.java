@@ -4,8 +4,10 @@ import org.example.comands.Command;
 import org.example.comands.*;
 import org.example.exceptions.CommandExecutionError;
 import org.example.exceptions.CommandNotFoundException;
+import org.example.interfaces.RequestPipeline;
 import org.example.network.Request;
 import org.example.network.Response;
+import org.example.network.WireCodec;
 import org.example.consol.Console;
 import org.example.consol.StandartConsole;
 
@@ -20,22 +22,32 @@ import java.nio.channels.SocketChannel;
 import java.util.InputMismatchException;
 import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
-public class ClientMain {
+public class ClientMain implements RequestPipeline {
     private static String SERVER_HOST = "localhost";
     private static int SERVER_PORT = 12345;
 
     private static final long RECONNECTION_DELAY_MS = 300;
     private static final int MAX_RECONNECTION_ATTEMPTS = 5;
+    // Сколько запросов скрипта может ждать ответа; не больше лимита сервера на соединение
+    private static final int PIPELINE_WINDOW = 64;
 
     private final Console console;
     private final CommandManager commandManager;
     private SocketChannel socketChannel;
+    private byte protocolVersion = WireCodec.LEGACY_VERSION;
+    private long nextRequestId = 1;
+    private boolean pipelining = false;
+    private final Deque<Long> inFlightRequestIds = new ArrayDeque<>();
 
     private String currentUsername = null;
     private String currentPassword = null;
+    // Выдаётся сервером при входе (протокол 3+); пока он есть, пароль серверу не отправляется
+    private String currentSessionToken = null;
 
     public ClientMain() {
         this.console = new StandartConsole();
@@ -63,7 +75,7 @@ public class ClientMain {
     private void initializeCommands() {
         commandManager.registerCommand(new Help(console, commandManager));
         commandManager.registerCommand(new Exit(console));
-        commandManager.registerCommand(new ExecuteScript(console, commandManager));
+        commandManager.registerCommand(new ExecuteScript(console, commandManager, this));
 
         commandManager.registerCommand(new ClientAuthCommand("register", "регистрирует нового пользователя"));
         commandManager.registerCommand(new ClientAuthCommand("login", "выполняет вход в систему"));
@@ -71,6 +83,7 @@ public class ClientMain {
         commandManager.registerCommand(new ServerCommand("info", "показывает инфо о коллекциях"));
         commandManager.registerCommand(new ServerCommand("show", "показывает все элементы коллекции"));
         commandManager.registerCommand(new ServerCommand("insert", "добавляет новый элемент"));
+        commandManager.registerCommand(new ServerCommand("insert_many", "добавляет несколько элементов одной транзакцией (execute_script собирает их из подряд идущих insert)"));
         commandManager.registerCommand(new ServerCommand("update", "обновляет элемент по айди"));
         commandManager.registerCommand(new ServerCommand("remove_key", "удаляет элемент по айди"));
         commandManager.registerCommand(new ServerCommand("clear", "очищает коллекцию (удаляет только ваши города)"));
@@ -80,6 +93,8 @@ public class ClientMain {
         commandManager.registerCommand(new ServerCommand("remove_all_by_standard_of_living", "удаляет все города с этими стандартами проживания (удаляет только ваши города)"));
         commandManager.registerCommand(new ServerCommand("average_of_meters_above_sea_level", "считает среднее значение высоты над уровнем моря"));
         commandManager.registerCommand(new ServerCommand("filter_starts_with_name", "фильтрует элементы по названию"));
+        commandManager.registerCommand(new ServerCommand("count_by_standard_of_living", "считает города с заданным уровнем жизни"));
+        commandManager.registerCommand(new ServerCommand("filter_by_standard_of_living", "выводит города с заданным уровнем жизни"));
     }
 
     private class ServerCommand extends Command {
@@ -89,20 +104,27 @@ public class ClientMain {
 
         @Override
         public void execute(String[] args) throws CommandExecutionError {
-            if (!"register".equalsIgnoreCase(getName()) && !"login".equalsIgnoreCase(getName())) {
-                if (currentUsername == null || currentPassword == null) {
+            boolean authCommand = "register".equalsIgnoreCase(getName()) || "login".equalsIgnoreCase(getName());
+            if (!authCommand) {
+                if (currentUsername == null || (currentPassword == null && currentSessionToken == null)) {
                     console.writeln("Ошибка: Для выполнения этой команды необходима аутентификация. Пожалуйста, используйте 'register' или 'login'.");
                     return;
                 }
             }
 
             try {
-                Request request = new Request(this.getName(), args, currentUsername, currentPassword);
+                Request request = currentSessionToken != null
+                        ? new Request(this.getName(), args, currentUsername, null, nextRequestId++, currentSessionToken)
+                        : new Request(this.getName(), args, currentUsername, currentPassword, nextRequestId++);
+                if (canPipeline() && !authCommand) {
+                    sendPipelined(request);
+                    return;
+                }
                 Response response = sendRequest(request);
-                console.writeln(response.getMessage());
-                if (response.getData() != null) {
-                    console.writeln(response.getData().toString());
+                if (authCommand) {
+                    acceptSession(response);
                 }
+                printResponse(response);
             } catch (IOException | ClassNotFoundException e) {
                 throw new CommandExecutionError("Ошибка при отправке запроса на сервер: " + e.getMessage());
             }
@@ -139,6 +161,7 @@ public class ClientMain {
 
             currentUsername = usernameInput;
             currentPassword = passwordInput;
+            currentSessionToken = null;
 
             try {
                 new ServerCommand(this.getName(), "").execute(null);
@@ -150,19 +173,109 @@ public class ClientMain {
         }
     }
 
+    /**
+     * Запоминает токен сессии из ответа на login/register. Пароль после этого больше не нужен.
+     * Серверы со старым протоколом токен не выдают, тогда продолжаем отправлять пароль.
+     */
+    private void acceptSession(Response response) {
+        if (protocolVersion < WireCodec.VERSION_SESSIONS) {
+            return;
+        }
+        if (response.getSessionToken() != null) {
+            currentSessionToken = response.getSessionToken();
+        } else {
+            currentUsername = null;
+            currentSessionToken = null;
+        }
+        currentPassword = null;
+    }
+
+    private void printResponse(Response response) {
+        console.writeln(response.getMessage());
+        if (response.getData() != null) {
+            console.writeln(response.getData().toString());
+        }
+    }
+
+    private boolean canPipeline() {
+        return pipelining && protocolVersion >= WireCodec.VERSION_REQUEST_IDS;
+    }
+
+    @Override
+    public void beginPipeline() {
+        pipelining = true;
+    }
+
+    @Override
+    public void endPipeline() throws CommandExecutionError {
+        pipelining = false;
+        try {
+            drainPipeline();
+        } catch (IOException e) {
+            inFlightRequestIds.clear();
+            throw new CommandExecutionError("Ошибка при получении ответов сервера: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Отправляет запрос, не дожидаясь ответа. Когда окно заполнено, читает самый старый ответ.
+     */
+    private void sendPipelined(Request request) throws IOException {
+        if (socketChannel == null || !socketChannel.isConnected()) {
+            throw new IOException("Не подключено к серверу. Попытка переподключения...");
+        }
+        writeFully(WireCodec.encodeRequest(request, protocolVersion));
+        inFlightRequestIds.addLast(request.getRequestId());
+        while (inFlightRequestIds.size() >= PIPELINE_WINDOW) {
+            receivePipelined();
+        }
+    }
+
+    private void drainPipeline() throws IOException {
+        while (!inFlightRequestIds.isEmpty()) {
+            receivePipelined();
+        }
+    }
+
+    // Сервер выполняет запросы соединения по порядку, так что ответ должен прийти на самый старый
+    private void receivePipelined() throws IOException {
+        long expectedId = inFlightRequestIds.pollFirst();
+        Response response = WireCodec.decodeResponse(readFrame(), protocolVersion);
+        if (response.getRequestId() != expectedId) {
+            console.writeln("Предупреждение: ожидался ответ на запрос " + expectedId + ", получен на " + response.getRequestId());
+        }
+        printResponse(response);
+    }
+
     public Response sendRequest(Request request) throws IOException, ClassNotFoundException {
         if (socketChannel == null || !socketChannel.isConnected()) {
             throw new IOException("Не подключено к серверу. Попытка переподключения...");
         }
+        drainPipeline();
 
-        byte[] requestBytes = serialize(request);
-        ByteBuffer sendBuffer = ByteBuffer.wrap(requestBytes);
+        ByteBuffer sendBuffer = protocolVersion >= WireCodec.VERSION_BINARY
+                ? WireCodec.encodeRequest(request, protocolVersion)
+                : ByteBuffer.wrap(serialize(request));
+        writeFully(sendBuffer);
 
-        while (sendBuffer.hasRemaining()) {
-            socketChannel.write(sendBuffer);
+        ByteBuffer responseBuffer = readFrame();
+        if (protocolVersion >= WireCodec.VERSION_BINARY) {
+            return WireCodec.decodeResponse(responseBuffer, protocolVersion);
         }
-        sendBuffer.clear();
 
+        byte[] responseBytes = new byte[responseBuffer.remaining()];
+        responseBuffer.get(responseBytes);
+
+        return deserialize(responseBytes);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            socketChannel.write(buffer);
+        }
+    }
+
+    private ByteBuffer readFrame() throws IOException {
         ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
         int totalBytesReadLength = 0;
         while (totalBytesReadLength < 4) {
@@ -178,7 +291,7 @@ public class ClientMain {
         lengthBuffer.flip();
         int responseLength = lengthBuffer.getInt();
 
-        if (responseLength <= 0 || responseLength > 10 * 1024 * 1024) {
+        if (responseLength <= 0 || responseLength > WireCodec.MAX_FRAME_LENGTH) {
             throw new IOException("Получена неверная или чрезмерная длина ответа: " + responseLength);
         }
 
@@ -196,11 +309,23 @@ public class ClientMain {
         }
 
         responseBuffer.flip();
+        return responseBuffer;
+    }
 
-        byte[] responseBytes = new byte[responseBuffer.remaining()];
-        responseBuffer.get(responseBytes);
-
-        return deserialize(responseBytes);
+    /**
+     * Предлагает серверу бинарный протокол. Если сервер ответил не рукопожатием,
+     * остаёмся на Java-сериализации.
+     */
+    private void negotiateProtocol() throws IOException {
+        writeFully(WireCodec.encodeHandshake(WireCodec.PROTOCOL_VERSION));
+        ByteBuffer reply = readFrame();
+        protocolVersion = WireCodec.isHandshake(reply)
+                ? WireCodec.negotiate(WireCodec.decodeHandshake(reply))
+                : WireCodec.LEGACY_VERSION;
+        if (protocolVersion < WireCodec.VERSION_SESSIONS) {
+            // Сервер без сессий токен не примет, придётся войти заново
+            currentSessionToken = null;
+        }
     }
 
     private void connect() throws IOException {
@@ -209,6 +334,7 @@ public class ClientMain {
             try {
                 socketChannel = SocketChannel.open();
                 socketChannel.connect(new InetSocketAddress(SERVER_HOST, SERVER_PORT));
+                negotiateProtocol();
                 console.writeln("Подключено к серверу на " + SERVER_HOST + ":" + SERVER_PORT);
                 return;
             } catch (IOException e) {
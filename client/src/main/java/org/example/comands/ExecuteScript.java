@@ -4,20 +4,28 @@ import org.example.comands.Command;
 import org.example.CommandManager;
 import org.example.consol.Console;
 import org.example.exceptions.CommandExecutionError;
+import org.example.interfaces.RequestPipeline;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class ExecuteScript extends Command {
+    // Сколько подряд идущих insert уходит на сервер одним insert_many
+    private static final int INSERT_BATCH_LIMIT = 1000;
+
     private final Console console;
     private final CommandManager commandManager;
+    private final RequestPipeline pipeline;
 
-    public ExecuteScript(Console console, CommandManager commandManager) {
+    public ExecuteScript(Console console, CommandManager commandManager, RequestPipeline pipeline) {
         super("execute_script", "считать и выполнить скрипт из указанного файла");
         this.console = console;
         this.commandManager = commandManager;
+        this.pipeline = pipeline;
     }
 
     @Override
@@ -31,6 +39,8 @@ public class ExecuteScript extends Command {
             throw new CommandExecutionError("файл не найден или не является файлом: " + args[0]);
         }
 
+        pipeline.beginPipeline();
+        List<String[]> pendingInserts = new ArrayList<>();
         try (Scanner scanner = new Scanner(scriptFile)) {
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine().trim();
@@ -39,6 +49,17 @@ public class ExecuteScript extends Command {
                     String commandName = parts[0];
                     String[] commandArgs = parts.length > 1 ? parts[1].split("\\s+") : new String[0];
 
+                    // Подряд идущие insert копятся и уходят одним запросом; любая другая команда
+                    // сначала отправляет накопленное, чтобы порядок выполнения не менялся
+                    if (commandName.equalsIgnoreCase("insert")) {
+                        pendingInserts.add(commandArgs);
+                        if (pendingInserts.size() == INSERT_BATCH_LIMIT) {
+                            flushInserts(pendingInserts);
+                        }
+                        continue;
+                    }
+                    flushInserts(pendingInserts);
+
                     if (commandName.equalsIgnoreCase("execute_script")) {
                         console.writeln("обнаружена рекурсивная попытка вызова execute_script иди отсюда, тебя тут не любят!");
                         continue;
@@ -56,9 +77,49 @@ public class ExecuteScript extends Command {
                     }
                 }
             }
+            flushInserts(pendingInserts);
+            pipeline.endPipeline();
             console.writeln("выполнение скрипта '" + args[0] + "' завершено твои миллион городов загрузились в коллекцию!");
         } catch (Exception e) {
             throw new CommandExecutionError("произошла ошибка при чтении или выполнении скрипта: " + e.getMessage());
+        } finally {
+            try {
+                pipeline.endPipeline();
+            } catch (CommandExecutionError e) {
+                console.writeln("не удалось дочитать ответы сервера: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Отправляет накопленные insert: один - как обычный insert, несколько - одним insert_many,
+     * где перед полями каждого города идёт их число. Сервер добавляет такую пачку одной транзакцией;
+     * город с неверными полями отвергается отдельно, как его собственный insert, остальные добавляются.
+     */
+    private void flushInserts(List<String[]> pendingInserts) throws Exception {
+        if (pendingInserts.isEmpty()) {
+            return;
+        }
+        String commandName;
+        String[] commandArgs;
+        if (pendingInserts.size() == 1) {
+            commandName = "insert";
+            commandArgs = pendingInserts.get(0);
+        } else {
+            commandName = "insert_many";
+            List<String> flattened = new ArrayList<>();
+            for (String[] cityArgs : pendingInserts) {
+                flattened.add(String.valueOf(cityArgs.length));
+                flattened.addAll(Arrays.asList(cityArgs));
+            }
+            commandArgs = flattened.toArray(new String[0]);
+        }
+        pendingInserts.clear();
+
+        try {
+            commandManager.getCommand(commandName).execute(commandArgs);
+        } catch (CommandExecutionError e) {
+            console.writeln("ошибка при выполнении команды '" + commandName + "' из скрипта: " + e.getMessage());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package org.example.interfaces;
+
+import org.example.exceptions.CommandExecutionError;
+
+/**
+ * Конвейерная отправка запросов: между begin и end серверные команды не ждут ответа
+ * на каждый запрос, ответы читаются по мере заполнения окна и в конце.
+ */
+public interface RequestPipeline {
+    void beginPipeline();
+
+    void endPipeline() throws CommandExecutionError;
+}
@@ -0,0 +1,11 @@
+package org.example.models;
+
+import java.io.Serializable;
+
+public enum Climate implements Serializable {
+    RAIN_FOREST,
+    HUMIDSUBTROPICAL,
+    HUMIDCONTINENTAL,
+    TUNDRA,
+    POLAR_ICECAP;
+}
\ No newline at end of file
@@ -0,0 +1,10 @@
+package org.example.models;
+
+import java.io.Serializable;
+
+public enum Government implements Serializable {
+    DESPOTISM,
+    NOOCRACY,
+    TECHNOCRACY,
+    TIMOCRACY;
+}
\ No newline at end of file
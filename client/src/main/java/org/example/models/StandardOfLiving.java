@@ -0,0 +1,11 @@
+package org.example.models;
+
+import java.io.Serializable;
+
+public enum StandardOfLiving implements Serializable {
+    ULTRA_HIGH,
+    VERY_HIGH,
+    LOW,
+    VERY_LOW,
+    ULTRA_LOW;
+}
@@ -9,12 +9,26 @@ public class Request implements Serializable {
     private final Object arguments;
     private final String username;
     private final String password;
+    // Идентификатор для сопоставления ответов при конвейерной отправке; 0 - не задан
+    private final long requestId;
+    // Токен сессии, выданный при входе; если задан, пароль не передаётся
+    private final String sessionToken;
 
     public Request(String commandName, Object arguments, String username, String password) {
+        this(commandName, arguments, username, password, 0);
+    }
+
+    public Request(String commandName, Object arguments, String username, String password, long requestId) {
+        this(commandName, arguments, username, password, requestId, null);
+    }
+
+    public Request(String commandName, Object arguments, String username, String password, long requestId, String sessionToken) {
         this.commandName = commandName;
         this.arguments = arguments;
         this.username = username;
         this.password = password;
+        this.requestId = requestId;
+        this.sessionToken = sessionToken;
     }
 
     public String getCommandName() {
@@ -33,6 +47,14 @@ public class Request implements Serializable {
         return password;
     }
 
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
     @Override
     public String toString() {
         String argsString;
@@ -46,7 +68,8 @@ public class Request implements Serializable {
             argsString = arguments.toString();
         }
         return "Request{" +
-                "commandName='" + commandName + '\'' +
+                "requestId=" + requestId +
+                ", commandName='" + commandName + '\'' +
                 ", arguments=" + argsString +
                 ", username='" + username + '\'' +
                 '}';
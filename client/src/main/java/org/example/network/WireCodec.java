@@ -0,0 +1,594 @@
+package org.example.network;
+
+import org.example.models.City;
+import org.example.models.Climate;
+import org.example.models.Coordinates;
+import org.example.models.Government;
+import org.example.models.Human;
+import org.example.models.StandardOfLiving;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Компактный бинарный кодек для {@link Request} и {@link Response}.
+ * Кадр остаётся прежним: 4 байта длины + тело. Имена команд передаются
+ * маленькими числовыми ID, аргументы - типизированными полями, города -
+ * varint-ами и порядковыми номерами enum-ов.
+ * Версия протокола согласуется рукопожатием при подключении; версия 0 означает
+ * старую Java-сериализацию, которую сервер продолжает понимать. С версии 2 запрос и ответ
+ * несут requestId, что позволяет отправлять запросы конвейером. С версии 3 запрос несёт токен
+ * сессии вместо пароля, а ответы на login и register - выданный токен.
+ * Файл одинаков на клиенте и сервере, отличаются только импорты моделей.
+ */
+public final class WireCodec {
+    public static final int HANDSHAKE_MAGIC = 0x43495459; // "CITY"
+    public static final int HANDSHAKE_LENGTH = 5;
+    public static final byte LEGACY_VERSION = 0;
+    public static final byte VERSION_BINARY = 1;
+    public static final byte VERSION_REQUEST_IDS = 2;
+    public static final byte VERSION_SESSIONS = 3;
+    public static final byte PROTOCOL_VERSION = VERSION_SESSIONS;
+    public static final int MAX_FRAME_LENGTH = 10 * 1024 * 1024;
+
+    // Порядок менять нельзя: индекс + 1 и есть ID команды на проводе. Новые команды - только в конец.
+    private static final String[] COMMANDS = {
+            "register", "login", "info", "show", "insert", "update", "remove_key", "clear",
+            "replace_if_greater", "remove_greater_key", "remove_lower_key",
+            "remove_all_by_standard_of_living", "average_of_meters_above_sea_level",
+            "filter_starts_with_name", "count_by_standard_of_living", "filter_by_standard_of_living",
+            "insert_many"
+    };
+    private static final Map<String, Integer> COMMAND_IDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            COMMAND_IDS.put(COMMANDS[i], i + 1);
+        }
+    }
+
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_STRING_ARRAY = 2;
+    private static final byte T_OBJECT_ARRAY = 3;
+    private static final byte T_INT = 4;
+    private static final byte T_LONG = 5;
+    private static final byte T_FLOAT = 6;
+    private static final byte T_DOUBLE = 7;
+    private static final byte T_BOOLEAN = 8;
+    private static final byte T_CITY = 9;
+    private static final byte T_LIST = 10;
+
+    // Рабочий буфер кодирования переиспользуется потоком, если не разросся сверх этого
+    private static final int MAX_RETAINED_SCRATCH = 1024 * 1024;
+    private static final ThreadLocal<Writer> SCRATCH = ThreadLocal.withInitial(Writer::new);
+
+    private static final int F_COORDINATES = 1;
+    private static final int F_X = 1 << 1;
+    private static final int F_Y = 1 << 2;
+    private static final int F_CREATION_DATE = 1 << 3;
+    private static final int F_AREA = 1 << 4;
+    private static final int F_POPULATION = 1 << 5;
+    private static final int F_METERS = 1 << 6;
+    private static final int F_CLIMATE = 1 << 7;
+    private static final int F_GOVERNMENT = 1 << 8;
+    private static final int F_STANDARD = 1 << 9;
+    private static final int F_GOVERNOR = 1 << 10;
+
+    private WireCodec() {
+    }
+
+    /**
+     * Кадр рукопожатия: магическое число и предлагаемая (или выбранная) версия протокола.
+     */
+    public static ByteBuffer encodeHandshake(byte version) {
+        ByteBuffer frame = ByteBuffer.allocate(4 + HANDSHAKE_LENGTH);
+        frame.putInt(HANDSHAKE_LENGTH);
+        frame.putInt(HANDSHAKE_MAGIC);
+        frame.put(version);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Проверяет, является ли тело кадра рукопожатием. Позиция буфера не меняется.
+     */
+    public static boolean isHandshake(ByteBuffer payload) {
+        return payload.remaining() == HANDSHAKE_LENGTH && payload.getInt(payload.position()) == HANDSHAKE_MAGIC;
+    }
+
+    /**
+     * Читает версию из тела кадра рукопожатия.
+     * @throws IOException если тело не является рукопожатием.
+     */
+    public static byte decodeHandshake(ByteBuffer payload) throws IOException {
+        if (!isHandshake(payload)) {
+            throw new IOException("Ожидалось рукопожатие протокола.");
+        }
+        payload.getInt();
+        return payload.get();
+    }
+
+    /**
+     * Выбирает версию, которую поддерживают обе стороны.
+     */
+    public static byte negotiate(byte offeredVersion) {
+        return (byte) Math.max(LEGACY_VERSION, Math.min(offeredVersion, PROTOCOL_VERSION));
+    }
+
+    /**
+     * Кодирует запрос в готовый к отправке кадр (с 4-байтовым префиксом длины).
+     */
+    public static ByteBuffer encodeRequest(Request request) throws IOException {
+        return encodeRequest(request, PROTOCOL_VERSION);
+    }
+
+    public static ByteBuffer encodeRequest(Request request, byte version) throws IOException {
+        Writer out = new Writer();
+        if (version >= VERSION_REQUEST_IDS) {
+            out.writeVarLong(request.getRequestId());
+        }
+        Integer commandId = request.getCommandName() == null ? null : COMMAND_IDS.get(request.getCommandName().toLowerCase());
+        if (commandId != null) {
+            out.writeVarInt(commandId);
+        } else {
+            out.writeVarInt(0);
+            out.writeString(request.getCommandName());
+        }
+        writeValue(out, request.getArguments());
+        out.writeString(request.getUsername());
+        out.writeString(request.getPassword());
+        if (version >= VERSION_SESSIONS) {
+            out.writeString(request.getSessionToken());
+        }
+        return out.toFrame();
+    }
+
+    /**
+     * Декодирует тело кадра (без префикса длины) в запрос.
+     */
+    public static Request decodeRequest(ByteBuffer payload) throws IOException {
+        return decodeRequest(payload, PROTOCOL_VERSION);
+    }
+
+    public static Request decodeRequest(ByteBuffer payload, byte version) throws IOException {
+        Reader in = new Reader(payload);
+        long requestId = version >= VERSION_REQUEST_IDS ? in.readVarLong() : 0;
+        int commandId = in.readVarInt();
+        String commandName;
+        if (commandId == 0) {
+            commandName = in.readString();
+        } else if (commandId <= COMMANDS.length) {
+            commandName = COMMANDS[commandId - 1];
+        } else {
+            throw new IOException("Неизвестный ID команды: " + commandId);
+        }
+        Object arguments = readValue(in);
+        String username = in.readString();
+        String password = in.readString();
+        String sessionToken = version >= VERSION_SESSIONS ? in.readString() : null;
+        in.expectEnd();
+        return new Request(commandName, arguments, username, password, requestId, sessionToken);
+    }
+
+    /**
+     * Кодирует ответ в готовый к отправке кадр (с 4-байтовым префиксом длины).
+     */
+    public static ByteBuffer encodeResponse(Response response) throws IOException {
+        Writer out = new Writer();
+        out.writeVarLong(response.getRequestId());
+        out.writeString(response.getMessage());
+        writeValue(out, response.getData());
+        out.writeString(response.getSessionToken());
+        return out.toFrame();
+    }
+
+    /**
+     * Кодирует ответ в кадр, размещённый в буфере от allocator-а (например, из пула direct-буферов).
+     * Промежуточный массив переиспользуется потоком, поэтому на ответ не выделяется новый byte[].
+     * @param version согласованная с клиентом версия протокола.
+     * @param allocator получает точный размер кадра и возвращает буфер с достаточным limit.
+     * @return буфер, готовый к записи в канал.
+     */
+    public static ByteBuffer encodeResponse(Response response, byte version, IntFunction<ByteBuffer> allocator) throws IOException {
+        Writer out = SCRATCH.get();
+        try {
+            if (version >= VERSION_REQUEST_IDS) {
+                out.writeVarLong(response.getRequestId());
+            }
+            out.writeString(response.getMessage());
+            writeValue(out, response.getData());
+            if (version >= VERSION_SESSIONS) {
+                out.writeString(response.getSessionToken());
+            }
+            return out.copyFrame(allocator);
+        } finally {
+            out.recycle();
+        }
+    }
+
+    /**
+     * Декодирует тело кадра (без префикса длины) в ответ.
+     */
+    public static Response decodeResponse(ByteBuffer payload) throws IOException {
+        return decodeResponse(payload, PROTOCOL_VERSION);
+    }
+
+    public static Response decodeResponse(ByteBuffer payload, byte version) throws IOException {
+        Reader in = new Reader(payload);
+        long requestId = version >= VERSION_REQUEST_IDS ? in.readVarLong() : 0;
+        String message = in.readString();
+        Object data = readValue(in);
+        String sessionToken = version >= VERSION_SESSIONS ? in.readString() : null;
+        in.expectEnd();
+        return new Response(message, data, requestId, sessionToken);
+    }
+
+    private static void writeValue(Writer out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof String[]) {
+            String[] array = (String[]) value;
+            out.writeByte(T_STRING_ARRAY);
+            out.writeVarInt(array.length);
+            for (String s : array) {
+                out.writeString(s);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(T_OBJECT_ARRAY);
+            out.writeVarInt(array.length);
+            for (Object o : array) {
+                writeValue(out, o);
+            }
+        } else if (value instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeVarInt(zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeVarLong(zigZag((Long) value));
+        } else if (value instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof City) {
+            out.writeByte(T_CITY);
+            writeCity(out, (City) value);
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            out.writeByte(T_LIST);
+            out.writeVarInt(collection.size());
+            for (Object o : collection) {
+                writeValue(out, o);
+            }
+        } else {
+            throw new IOException("Тип не поддерживается бинарным протоколом: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(Reader in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_STRING:
+                return in.readString();
+            case T_STRING_ARRAY: {
+                String[] array = new String[in.readCount()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readString();
+                }
+                return array;
+            }
+            case T_OBJECT_ARRAY: {
+                Object[] array = new Object[in.readCount()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            }
+            case T_INT:
+                return unZigZag(in.readVarInt());
+            case T_LONG:
+                return unZigZag(in.readVarLong());
+            case T_FLOAT:
+                return Float.intBitsToFloat(in.readInt());
+            case T_DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case T_BOOLEAN:
+                return in.readByte() != 0;
+            case T_CITY:
+                return readCity(in);
+            case T_LIST: {
+                int size = in.readCount();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("Неизвестный тег значения: " + tag);
+        }
+    }
+
+    private static void writeCity(Writer out, City city) {
+        Coordinates coordinates = city.getCoordinates();
+        int flags = 0;
+        if (coordinates != null) {
+            flags |= F_COORDINATES;
+            if (coordinates.getX() != null) flags |= F_X;
+            if (coordinates.getY() != null) flags |= F_Y;
+        }
+        if (city.getCreationDate() != null) flags |= F_CREATION_DATE;
+        if (city.getArea() != null) flags |= F_AREA;
+        if (city.getPopulation() != null) flags |= F_POPULATION;
+        if (city.getMetersAboveSeaLevel() != null) flags |= F_METERS;
+        if (city.getClimate() != null) flags |= F_CLIMATE;
+        if (city.getGovernment() != null) flags |= F_GOVERNMENT;
+        if (city.getStandardOfLiving() != null) flags |= F_STANDARD;
+        if (city.getGovernor() != null) flags |= F_GOVERNOR;
+
+        out.writeVarInt(flags);
+        out.writeVarInt(zigZag(city.getId()));
+        out.writeString(city.getName());
+        if ((flags & F_X) != 0) out.writeVarInt(zigZag(coordinates.getX()));
+        if ((flags & F_Y) != 0) out.writeVarLong(zigZag(coordinates.getY()));
+        if ((flags & F_CREATION_DATE) != 0) out.writeVarLong(zigZag(city.getCreationDate().getTime()));
+        if ((flags & F_AREA) != 0) out.writeVarInt(zigZag(city.getArea()));
+        if ((flags & F_POPULATION) != 0) out.writeVarLong(zigZag(city.getPopulation()));
+        if ((flags & F_METERS) != 0) out.writeInt(Float.floatToIntBits(city.getMetersAboveSeaLevel()));
+        if ((flags & F_CLIMATE) != 0) out.writeByte(city.getClimate().ordinal());
+        if ((flags & F_GOVERNMENT) != 0) out.writeByte(city.getGovernment().ordinal());
+        if ((flags & F_STANDARD) != 0) out.writeByte(city.getStandardOfLiving().ordinal());
+        if ((flags & F_GOVERNOR) != 0) out.writeString(city.getGovernor().getName());
+        out.writeString(city.getOwnerId());
+    }
+
+    private static City readCity(Reader in) throws IOException {
+        int flags = in.readVarInt();
+        int id = unZigZag(in.readVarInt());
+        String name = in.readString();
+        Coordinates coordinates = null;
+        if ((flags & F_COORDINATES) != 0) {
+            Integer x = (flags & F_X) != 0 ? unZigZag(in.readVarInt()) : null;
+            Long y = (flags & F_Y) != 0 ? unZigZag(in.readVarLong()) : null;
+            coordinates = new Coordinates(x, y);
+        }
+        Date creationDate = (flags & F_CREATION_DATE) != 0 ? new Date(unZigZag(in.readVarLong())) : null;
+        Integer area = (flags & F_AREA) != 0 ? unZigZag(in.readVarInt()) : null;
+        Long population = (flags & F_POPULATION) != 0 ? unZigZag(in.readVarLong()) : null;
+        Float meters = (flags & F_METERS) != 0 ? Float.intBitsToFloat(in.readInt()) : null;
+        Climate climate = (flags & F_CLIMATE) != 0 ? in.readEnum(Climate.values()) : null;
+        Government government = (flags & F_GOVERNMENT) != 0 ? in.readEnum(Government.values()) : null;
+        StandardOfLiving standard = (flags & F_STANDARD) != 0 ? in.readEnum(StandardOfLiving.values()) : null;
+        Human governor = (flags & F_GOVERNOR) != 0 ? new Human(in.readString()) : null;
+        String ownerId = in.readString();
+        return new City(id, name, coordinates, creationDate, area, population, meters,
+                climate, government, standard, governor, ownerId);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Растущий байтовый буфер; первые 4 байта зарезервированы под длину кадра.
+     */
+    private static final class Writer {
+        private byte[] buf = new byte[256];
+        private int pos = 4;
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                byte[] bigger = new byte[Math.max(buf.length * 2, pos + extra)];
+                System.arraycopy(buf, 0, bigger, 0, pos);
+                buf = bigger;
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        void writeVarInt(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        // null кодируется нулём, иначе длина + 1
+        void writeString(String s) {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        ByteBuffer copyFrame(IntFunction<ByteBuffer> allocator) throws IOException {
+            int length = pos - 4;
+            if (length > MAX_FRAME_LENGTH) {
+                throw new IOException("Сообщение превышает максимальный размер кадра: " + length);
+            }
+            ByteBuffer frame = allocator.apply(pos);
+            frame.putInt(length);
+            frame.put(buf, 4, length);
+            frame.flip();
+            return frame;
+        }
+
+        void recycle() {
+            pos = 4;
+            if (buf.length > MAX_RETAINED_SCRATCH) {
+                buf = new byte[256];
+            }
+        }
+
+        ByteBuffer toFrame() throws IOException {
+            int length = pos - 4;
+            if (length > MAX_FRAME_LENGTH) {
+                throw new IOException("Сообщение превышает максимальный размер кадра: " + length);
+            }
+            ByteBuffer frame = ByteBuffer.wrap(buf, 0, pos);
+            frame.putInt(0, length);
+            return frame;
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer in;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        private void need(int n) throws IOException {
+            if (in.remaining() < n) {
+                throw new IOException("Неожиданный конец сообщения.");
+            }
+        }
+
+        byte readByte() throws IOException {
+            need(1);
+            return in.get();
+        }
+
+        int readInt() throws IOException {
+            need(4);
+            return in.getInt();
+        }
+
+        long readLong() throws IOException {
+            need(8);
+            return in.getLong();
+        }
+
+        int readVarInt() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Некорректный varint.");
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Некорректный varlong.");
+        }
+
+        // Каждый элемент занимает хотя бы байт, так что счётчик больше остатка - мусор.
+        int readCount() throws IOException {
+            int count = readVarInt();
+            if (count < 0 || count > in.remaining()) {
+                throw new IOException("Некорректное количество элементов: " + count);
+            }
+            return count;
+        }
+
+        String readString() throws IOException {
+            int encoded = readVarInt();
+            if (encoded == 0) {
+                return null;
+            }
+            int length = encoded - 1;
+            if (length < 0) {
+                throw new IOException("Некорректная длина строки.");
+            }
+            need(length);
+            String s;
+            if (in.hasArray()) {
+                s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+                in.position(in.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return s;
+        }
+
+        <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+            int ordinal = readByte() & 0xFF;
+            if (ordinal >= values.length) {
+                throw new IOException("Некорректный порядковый номер enum: " + ordinal);
+            }
+            return values[ordinal];
+        }
+
+        void expectEnd() throws IOException {
+            if (in.hasRemaining()) {
+                throw new IOException("Лишние байты в конце сообщения: " + in.remaining());
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 // build.gradle.kts (Kotlin DSL)
 plugins {
     id("java")
+    // Бенчмарки лежат в src/jmh/java
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.example.server"
@@ -28,6 +30,47 @@ tasks.test {
     useJUnitPlatform()
 }
 
+// Запуск отдельного бенчмарка: ./gradlew :server:jmh -PjmhIncludes=CollectionLockBenchmark
+jmh {
+    findProperty("jmhIncludes")?.let { includes.add(it.toString()) }
+}
+
+// Нагрузочное сравнение режимов выполнения команд (fjp / virtual).
+// Виртуальным потокам нужна Java 21, поэтому запускаем на ней, хотя сборка - под 17.
+tasks.register<JavaExec>("benchExecutionModes") {
+    group = "benchmark"
+    description = "Сравнивает ForkJoinPool и виртуальные потоки при 1000+ одновременных клиентах"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.example.bench.ExecutionModeBenchmark")
+    javaLauncher.set(javaToolchains.launcherFor { languageVersion.set(JavaLanguageVersion.of(21)) })
+}
+
+// Расход памяти и скорость проходов движков хранения коллекции (objects / columnar)
+tasks.register<JavaExec>("storageFootprint") {
+    group = "benchmark"
+    description = "Сравнивает объём кучи на город и время проходов у объектного и колоночного хранения"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.example.bench.StorageFootprintReport")
+    maxHeapSize = "3g"
+}
+
+// Паузы сборщика мусора: прежний Hashtable, объектный снимок и хранение вне кучи
+tasks.register<JavaExec>("gcPauses") {
+    group = "benchmark"
+    description = "Сравнивает паузы GC при хранении коллекции в Hashtable, в объектах и вне кучи"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.example.bench.GcPauseReport")
+    systemProperty("gcPauses.heap", findProperty("gcPausesHeap") ?: "3g")
+}
+
+// Задержка записи города: прежние отдельные запросы против одного оператора с CTE (нужна живая БД)
+tasks.register<JavaExec>("cityWriteLatency") {
+    group = "benchmark"
+    description = "Сравнивает задержку insertCity/updateCity до и после перехода на один оператор с CTE"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.example.bench.CityWriteLatencyReport")
+}
+
 // Задача для сборки JAR-файла серверного приложения
 tasks.jar {
     archiveFileName.set("server-app.jar")
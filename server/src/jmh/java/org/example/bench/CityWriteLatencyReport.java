@@ -0,0 +1,248 @@
+package org.example.bench;
+
+import org.example.database.DatabaseManager;
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Задержка записи одного города: прежний путь (отдельные запросы для губернатора, города
+ * и координат, SELECT governor_id перед обновлением, затем COMMIT) против одного оператора
+ * с CTE из {@link DatabaseManager#insertCity} и {@link DatabaseManager#updateCity}.
+ * Оба пути выполняются последовательно на одном соединении; обновления чередуют наличие
+ * губернатора, чтобы пройти ветки «создать», «переименовать» и «удалить».
+ * Выигрыш растёт с задержкой сети, поэтому мерить стоит на удалённой БД, а не на localhost.
+ * <p>
+ * Запуск: {@code ./gradlew :server:cityWriteLatency --args="jdbc:postgresql://host:5432/db user password 2000"}
+ * (последний аргумент - число городов). Города пишутся от пользователя bench_latency и удаляются в конце.
+ */
+public class CityWriteLatencyReport {
+    private static final String OWNER = "bench_latency";
+    private static final int WARMUP = 200;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Использование: CityWriteLatencyReport <jdbc-url> <пользователь> <пароль> [городов]");
+            return;
+        }
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        Logger.getLogger("org.example.database").setLevel(Level.WARNING);
+
+        DatabaseManager databaseManager = new DatabaseManager(args[0], args[1], args[2]);
+        databaseManager.registerUser(OWNER, "bench");
+        try (Connection connection = DriverManager.getConnection(args[0], args[1], args[2])) {
+            connection.setAutoCommit(false);
+            LegacyWriter legacy = new LegacyWriter(connection);
+            measure("legacy", count, legacy::insertCity, legacy::updateCity, databaseManager);
+            measure("cte", count, databaseManager::insertCity, databaseManager::updateCity, databaseManager);
+        } finally {
+            databaseManager.closeConnection();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Insert {
+        int insert(City city, String ownerId) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface Update {
+        boolean update(City city, String ownerId) throws SQLException;
+    }
+
+    private static void measure(String mode, int count, Insert insert, Update update, DatabaseManager databaseManager)
+            throws SQLException {
+        Random random = new Random(42);
+        for (int i = 0; i < WARMUP; i++) {
+            City city = city(random, true);
+            city.setId(insert.insert(city, OWNER));
+            update.update(city, OWNER);
+        }
+        databaseManager.clearCities(OWNER);
+
+        int[] ids = new int[count];
+        long[] inserts = new long[count];
+        for (int i = 0; i < count; i++) {
+            City city = city(random, i % 2 == 0);
+            long start = System.nanoTime();
+            ids[i] = insert.insert(city, OWNER);
+            inserts[i] = System.nanoTime() - start;
+        }
+        long[] updates = new long[count];
+        for (int i = 0; i < count; i++) {
+            // Чётные вставлены с губернатором: переименование или удаление; нечётные - создание
+            City city = city(random, i % 4 != 2);
+            city.setId(ids[i]);
+            long start = System.nanoTime();
+            if (!update.update(city, OWNER)) {
+                throw new IllegalStateException("Город " + ids[i] + " не обновился");
+            }
+            updates[i] = System.nanoTime() - start;
+        }
+        databaseManager.clearCities(OWNER);
+
+        print(mode, "insertCity", inserts);
+        print(mode, "updateCity", updates);
+    }
+
+    private static void print(String mode, String operation, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        System.out.printf("%-6s %-10s: n=%d, среднее %.3f мс, p50 %.3f мс, p99 %.3f мс, max %.3f мс%n",
+                mode, operation, sorted.length, mean / 1e6, sorted[sorted.length / 2] / 1e6,
+                sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static City city(Random random, boolean withGovernor) {
+        return new City(0, "Город-" + random.nextInt(1_000_000), new Coordinates(random.nextInt(1000), random.nextLong()),
+                new Date(), 1 + random.nextInt(10_000), 1L + random.nextInt(1_000_000), random.nextFloat() * 3000,
+                Climate.values()[random.nextInt(Climate.values().length)],
+                Government.values()[random.nextInt(Government.values().length)],
+                StandardOfLiving.values()[random.nextInt(StandardOfLiving.values().length)],
+                withGovernor ? new Human("Губернатор-" + random.nextInt(1_000_000)) : null, OWNER);
+    }
+
+    /**
+     * Прежняя запись города: по запросу на таблицу и явный COMMIT (вставка - 4-5 обменов с БД,
+     * обновление - 5).
+     */
+    private static final class LegacyWriter {
+        private final Connection connection;
+        private final PreparedStatement insertGovernor;
+        private final PreparedStatement insertCity;
+        private final PreparedStatement insertCoordinates;
+        private final PreparedStatement selectGovernorId;
+        private final PreparedStatement updateGovernor;
+        private final PreparedStatement deleteGovernor;
+        private final PreparedStatement updateCity;
+        private final PreparedStatement updateCoordinates;
+
+        LegacyWriter(Connection connection) throws SQLException {
+            this.connection = connection;
+            insertGovernor = connection.prepareStatement("INSERT INTO governors (name) VALUES (?) RETURNING id;");
+            insertCity = connection.prepareStatement("""
+                    INSERT INTO cities (name, area, population, meters_above_sea_level, climate, government, standard_of_living, owner_id, governor_id)
+                    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id;
+                    """);
+            insertCoordinates = connection.prepareStatement("INSERT INTO coordinates (city_id, x, y) VALUES (?, ?, ?);");
+            selectGovernorId = connection.prepareStatement("SELECT governor_id FROM cities WHERE id = ?");
+            updateGovernor = connection.prepareStatement("UPDATE governors SET name = ? WHERE id = ?;");
+            deleteGovernor = connection.prepareStatement("DELETE FROM governors WHERE id = ?");
+            updateCity = connection.prepareStatement("""
+                    UPDATE cities SET
+                        name = ?, area = ?, population = ?, meters_above_sea_level = ?,
+                        climate = ?, government = ?, standard_of_living = ?, governor_id = ?
+                    WHERE id = ? AND owner_id = ?;
+                    """);
+            updateCoordinates = connection.prepareStatement("UPDATE coordinates SET x = ?, y = ? WHERE city_id = ?;");
+        }
+
+        int insertCity(City city, String ownerId) throws SQLException {
+            try {
+                Integer governorId = null;
+                if (city.getGovernor() != null) {
+                    insertGovernor.setString(1, city.getGovernor().getName());
+                    governorId = queryId(insertGovernor);
+                }
+                setFields(insertCity, city);
+                insertCity.setString(8, ownerId);
+                setNullableInt(insertCity, 9, governorId);
+                int cityId = queryId(insertCity);
+
+                insertCoordinates.setInt(1, cityId);
+                insertCoordinates.setInt(2, city.getCoordinates().getX());
+                insertCoordinates.setLong(3, city.getCoordinates().getY());
+                insertCoordinates.executeUpdate();
+                connection.commit();
+                return cityId;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+
+        boolean updateCity(City city, String ownerId) throws SQLException {
+            try {
+                selectGovernorId.setInt(1, city.getId());
+                Integer existingGovernorId = null;
+                try (ResultSet rs = selectGovernorId.executeQuery()) {
+                    if (rs.next()) {
+                        existingGovernorId = rs.getObject(1, Integer.class);
+                    }
+                }
+                Integer governorId = null;
+                if (city.getGovernor() != null && existingGovernorId != null) {
+                    updateGovernor.setString(1, city.getGovernor().getName());
+                    updateGovernor.setInt(2, existingGovernorId);
+                    updateGovernor.executeUpdate();
+                    governorId = existingGovernorId;
+                } else if (city.getGovernor() != null) {
+                    insertGovernor.setString(1, city.getGovernor().getName());
+                    governorId = queryId(insertGovernor);
+                } else if (existingGovernorId != null) {
+                    deleteGovernor.setInt(1, existingGovernorId);
+                    deleteGovernor.executeUpdate();
+                }
+
+                setFields(updateCity, city);
+                setNullableInt(updateCity, 8, governorId);
+                updateCity.setInt(9, city.getId());
+                updateCity.setString(10, ownerId);
+                if (updateCity.executeUpdate() == 0) {
+                    connection.rollback();
+                    return false;
+                }
+                updateCoordinates.setInt(1, city.getCoordinates().getX());
+                updateCoordinates.setLong(2, city.getCoordinates().getY());
+                updateCoordinates.setInt(3, city.getId());
+                updateCoordinates.executeUpdate();
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+
+        private static int queryId(PreparedStatement statement) throws SQLException {
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+
+        private static void setFields(PreparedStatement statement, City city) throws SQLException {
+            statement.setString(1, city.getName());
+            statement.setInt(2, city.getArea());
+            statement.setLong(3, city.getPopulation());
+            statement.setFloat(4, city.getMetersAboveSeaLevel());
+            statement.setString(5, city.getClimate().name());
+            statement.setString(6, city.getGovernment().name());
+            statement.setString(7, city.getStandardOfLiving().name());
+        }
+
+        private static void setNullableInt(PreparedStatement statement, int index, Integer value) throws SQLException {
+            if (value != null) {
+                statement.setInt(index, value);
+            } else {
+                statement.setNull(index, Types.INTEGER);
+            }
+        }
+    }
+}
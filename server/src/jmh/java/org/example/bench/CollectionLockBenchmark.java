@@ -0,0 +1,153 @@
+package org.example.bench;
+
+import org.example.database.PersistentIntMap;
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Конкуренция за коллекцию: единый ReentrantLock, ReentrantReadWriteLock и неизменяемые снимки
+ * ({@link PersistentIntMap}), которые теперь использует CollectionManager - читатели снимка
+ * не берут блокировок вовсе. Читатели повторяют filter_starts_with_name и
+ * average_of_meters_above_sea_level, писатель - insert/update.
+ * <p>
+ * Группа {@code reads} - только чтение в 8 потоков, {@code mixed} - 7 читателей и 1 писатель.
+ * Запуск: {@code ./gradlew :server:jmh -PjmhIncludes=CollectionLockBenchmark}
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectionLockBenchmark {
+
+    @Param({"exclusive", "readWrite", "snapshot"})
+    public String lockMode;
+
+    @Param({"10000"})
+    public int size;
+
+    private final Map<Integer, City> collection = new Hashtable<>();
+    private volatile PersistentIntMap<City> snapshot = PersistentIntMap.empty();
+    private Lock readLock;
+    private Lock writeLock;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("exclusive".equals(lockMode)) {
+            ReentrantLock lock = new ReentrantLock();
+            readLock = lock;
+            writeLock = lock;
+        } else {
+            ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+            readLock = lock.readLock();
+            writeLock = lock.writeLock();
+        }
+        collection.clear();
+        PersistentIntMap<City> cities = PersistentIntMap.empty();
+        for (int id = 1; id <= size; id++) {
+            City city = city(id);
+            collection.put(id, city);
+            cities = cities.put(id, city);
+        }
+        snapshot = cities;
+    }
+
+    private static City city(int id) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new City(id, "Город-" + random.nextInt(1000), new Coordinates(random.nextInt(1000), random.nextLong(1000)),
+                new Date(), 1 + random.nextInt(10_000), 1L + random.nextInt(1_000_000), random.nextFloat() * 3000,
+                Climate.values()[random.nextInt(Climate.values().length)],
+                Government.values()[random.nextInt(Government.values().length)],
+                StandardOfLiving.values()[random.nextInt(StandardOfLiving.values().length)],
+                new Human("Губернатор"), "bench");
+    }
+
+    private long filterAndAverage() {
+        if ("snapshot".equals(lockMode)) {
+            return filterAndAverage(snapshot.values());
+        }
+        readLock.lock();
+        try {
+            return filterAndAverage(collection.values());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private static long filterAndAverage(Collection<City> cities) {
+        long matches = cities.stream()
+                .filter(city -> city.getName().startsWith("Город-1"))
+                .count();
+        double average = cities.stream()
+                .filter(city -> city.getMetersAboveSeaLevel() != null)
+                .mapToDouble(City::getMetersAboveSeaLevel)
+                .average()
+                .orElse(0.0);
+        return matches + (long) average;
+    }
+
+    private void upsert() {
+        int id = 1 + ThreadLocalRandom.current().nextInt(size);
+        City city = city(id);
+        writeLock.lock();
+        try {
+            if ("snapshot".equals(lockMode)) {
+                snapshot = snapshot.put(id, city);
+            } else {
+                collection.put(id, city);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("reads")
+    @GroupThreads(8)
+    public long readsOnly() {
+        return filterAndAverage();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public long mixedRead() {
+        return filterAndAverage();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedWrite() {
+        upsert();
+    }
+}
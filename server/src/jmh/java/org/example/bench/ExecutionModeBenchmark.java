@@ -0,0 +1,169 @@
+package org.example.bench;
+
+import org.example.authentication.UserManager;
+import org.example.network.Request;
+import org.example.network.Response;
+import org.example.network.WireCodec;
+import org.example.server.CommandExecutors;
+import org.example.server.ServerMain;
+import org.example.server.commands.Command;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Нагрузочное сравнение режимов выполнения команд (ForkJoinPool и виртуальные потоки).
+ * Поднимает ServerMain на свободном порту без БД: аутентификация заменена заглушкой,
+ * которая блокируется на authLatencyMs (как SELECT по users), команда - на commandLatencyMs.
+ * Каждый из clients клиентов открывает своё соединение и последовательно шлёт requests запросов.
+ * <p>
+ * Запуск: {@code ./gradlew :server:benchExecutionModes --args="1000 20 2 0"}
+ * (клиенты, запросов на клиента, задержка аутентификации, задержка команды в мс).
+ * Режим virtual требует JVM 21+, задача запускается на ней через toolchain.
+ */
+public class ExecutionModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long authLatencyMs = args.length > 2 ? Long.parseLong(args[2]) : 2;
+        long commandLatencyMs = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        System.out.printf("clients=%d requests/client=%d auth=%dms command=%dms cores=%d%n",
+                clients, requests, authLatencyMs, commandLatencyMs, Runtime.getRuntime().availableProcessors());
+        for (String mode : new String[]{CommandExecutors.MODE_FORK_JOIN, CommandExecutors.MODE_VIRTUAL}) {
+            run(mode, clients, requests, authLatencyMs, commandLatencyMs);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int clients, int requests, long authLatencyMs, long commandLatencyMs) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        UserManager userManager = new UserManager(null) {
+            @Override
+            public boolean authenticateUser(String username, String password) {
+                sleep(authLatencyMs);
+                return true;
+            }
+        };
+        Map<String, Command> commands = new HashMap<>();
+        commands.put("info", new Command("info", "заглушка") {
+            @Override
+            public Response execute(Request request, String authenticatedUsername) {
+                sleep(commandLatencyMs);
+                return new Response("ok");
+            }
+        });
+
+        ServerMain server = new ServerMain(port, null, commands, userManager,
+                Runtime.getRuntime().availableProcessors(),
+                CommandExecutors.create(mode, CommandExecutors.DEFAULT_MAX_CONCURRENT_TASKS));
+        Logger.getLogger(ServerMain.class.getName()).setLevel(Level.WARNING);
+        Thread serverThread = new Thread(server::start, "bench-server");
+        serverThread.start();
+        TimeUnit.MILLISECONDS.sleep(300);
+
+        long[][] latencies = new long[clients][requests];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch connected = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            Thread t = new Thread(() -> {
+                try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+                    writeFully(channel, WireCodec.encodeHandshake(WireCodec.PROTOCOL_VERSION));
+                    WireCodec.decodeHandshake(readFrame(channel));
+                    connected.countDown();
+                    go.await();
+                    for (int i = 0; i < requests; i++) {
+                        long start = System.nanoTime();
+                        writeFully(channel, WireCodec.encodeRequest(new Request("info", null, "bench", "bench")));
+                        WireCodec.decodeResponse(readFrame(channel));
+                        latencies[client][i] = System.nanoTime() - start;
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    connected.countDown();
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-client-" + c);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        connected.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        server.stop();
+        serverThread.join(TimeUnit.SECONDS.toMillis(15));
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).filter(l -> l > 0).sorted().toArray();
+        double seconds = elapsed / 1e9;
+        System.out.printf("%-8s %8.0f req/s  p50=%6.2fms  p99=%7.2fms  max=%8.2fms  failed clients=%d%n",
+                mode, all.length / seconds, percentile(all, 0.50), percentile(all, 0.99),
+                all.length == 0 ? 0.0 : all[all.length - 1] / 1e6, failures.get());
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFrame(SocketChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (header.hasRemaining()) {
+            if (channel.read(header) == -1) {
+                throw new IOException("Сервер закрыл соединение.");
+            }
+        }
+        header.flip();
+        ByteBuffer body = ByteBuffer.allocate(header.getInt());
+        while (body.hasRemaining()) {
+            if (channel.read(body) == -1) {
+                throw new IOException("Сервер закрыл соединение.");
+            }
+        }
+        body.flip();
+        return body;
+    }
+}
@@ -0,0 +1,148 @@
+package org.example.bench;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.example.database.CityStore;
+import org.example.database.CollectionSnapshot;
+import org.example.database.ColumnarSnapshot;
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Паузы сборщика мусора при разных хранилищах коллекции: прежний Hashtable&lt;Integer, City&gt;,
+ * объектный снимок (objects) и записи вне кучи (offheap). Каждый режим запускается в отдельной
+ * JVM с одинаковой кучей: загружает size городов, затем seconds секунд изображает работу
+ * сервера - на каждое изменение города приходится 20 чтений с выводом в строку, как у show.
+ * Паузы берутся из уведомлений GarbageCollectorMXBean (концурентные фазы не считаются).
+ * <p>
+ * Запуск: {@code ./gradlew :server:gcPauses --args="5000000 30"} (города, секунды);
+ * размер кучи дочерних JVM - {@code -PgcPausesHeap=8g} (по умолчанию 3g).
+ */
+public class GcPauseReport {
+    private static final String[] MODES = {"hashtable", "objects", "offheap"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].startsWith("--mode=")) {
+            run(args[0].substring("--mode=".length()), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        String size = args.length > 0 ? args[0] : "2000000";
+        String seconds = args.length > 1 ? args[1] : "20";
+        String heap = System.getProperty("gcPauses.heap", "3g");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        for (String mode : MODES) {
+            Process process = new ProcessBuilder(java, "-Xms" + heap, "-Xmx" + heap, "-XX:MaxDirectMemorySize=16g",
+                    "-Dfile.encoding=" + System.getProperty("file.encoding"),
+                    "-cp", System.getProperty("java.class.path"), GcPauseReport.class.getName(),
+                    "--mode=" + mode, size, seconds)
+                    .inheritIO()
+                    .start();
+            if (process.waitFor() != 0) {
+                System.out.println(mode + ": дочерняя JVM завершилась с кодом " + process.exitValue());
+            }
+        }
+    }
+
+    private static void run(String mode, int size, int seconds) throws Exception {
+        Random random = new Random(42);
+        Map<Integer, City> table = null;
+        CityStore store = null;
+        long loadStart = System.nanoTime();
+        if ("hashtable".equals(mode)) {
+            table = new Hashtable<>();
+            for (int id = 1; id <= size; id++) {
+                table.put(id, city(id, random));
+            }
+        } else {
+            int[] ids = new int[size];
+            City[] cities = new City[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = i + 1;
+                cities[i] = city(i + 1, random);
+            }
+            CityStore empty = "offheap".equals(mode) ? ColumnarSnapshot.OFF_HEAP_EMPTY : CollectionSnapshot.EMPTY;
+            store = empty.withAll(ids, cities, size);
+        }
+        long loadMillis = (System.nanoTime() - loadStart) / 1_000_000;
+        System.gc();
+        long heapAfterLoad = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        List<Long> pauses = Collections.synchronizedList(new ArrayList<>());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                if (!info.getGcName().contains("Concurrent") && !info.getGcAction().contains("concurrent")) {
+                    pauses.add(info.getGcInfo().getDuration());
+                }
+            }, null, null);
+        }
+
+        long operations = 0;
+        long sink = 0;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            City changed = city(1 + random.nextInt(size), random);
+            if (table != null) {
+                table.put(changed.getId(), changed);
+            } else {
+                store = store.withPut(changed);
+            }
+            for (int i = 0; i < 20; i++) {
+                int id = 1 + random.nextInt(size);
+                City city = table != null ? table.get(id) : store.get(id);
+                sink += city.toString().length();
+            }
+            operations++;
+        }
+        // Последние уведомления приходят асинхронно
+        Thread.sleep(500);
+
+        List<Long> sorted;
+        synchronized (pauses) {
+            sorted = new ArrayList<>(pauses);
+        }
+        Collections.sort(sorted);
+        long total = sorted.stream().mapToLong(Long::longValue).sum();
+        System.out.printf("%-9s: загрузка %dms, куча после загрузки %dMB, изменений %d/с, пауз %d, сумма %dms, "
+                        + "p50 %dms, p99 %dms, max %dms (%d)%n",
+                mode, loadMillis, heapAfterLoad >> 20, operations / seconds, sorted.size(), total,
+                percentile(sorted, 0.5), percentile(sorted, 0.99), sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1),
+                sink);
+    }
+
+    private static long percentile(List<Long> sorted, double fraction) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * fraction)));
+    }
+
+    private static City city(int id, Random random) {
+        return new City(id, "Город-" + random.nextInt(1_000_000), new Coordinates(random.nextInt(1000), random.nextLong()),
+                new Date(), 1 + random.nextInt(10_000), 1L + random.nextInt(1_000_000), random.nextFloat() * 3000,
+                Climate.values()[random.nextInt(Climate.values().length)],
+                Government.values()[random.nextInt(Government.values().length)],
+                StandardOfLiving.values()[random.nextInt(StandardOfLiving.values().length)],
+                new Human("Губернатор-" + random.nextInt(1_000_000)), "user" + random.nextInt(10));
+    }
+}
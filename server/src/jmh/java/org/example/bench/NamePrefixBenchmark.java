@@ -0,0 +1,79 @@
+package org.example.bench;
+
+import org.example.database.NameIndex;
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * filter_starts_with_name: прежний проход потоком по всем городам против {@link NameIndex}.
+ * Названия вида "Город-N", N < size; префикс "Город-1234" выбирает единицы городов,
+ * "Город-1" - около 11% коллекции (худший случай для индекса).
+ * Запуск: {@code ./gradlew :server:jmh -PjmhIncludes=NamePrefixBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class NamePrefixBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"Город-1234", "Город-1"})
+    public String prefix;
+
+    private List<City> cities;
+    private NameIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        cities = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            cities.add(new City(id, "Город-" + random.nextInt(size), new Coordinates(random.nextInt(1000), random.nextLong(1000)),
+                    new Date(), 1 + random.nextInt(10_000), 1L + random.nextInt(1_000_000), random.nextFloat() * 3000,
+                    Climate.values()[random.nextInt(Climate.values().length)],
+                    Government.values()[random.nextInt(Government.values().length)],
+                    StandardOfLiving.values()[random.nextInt(StandardOfLiving.values().length)],
+                    new Human("Губернатор"), "bench"));
+        }
+        index = NameIndex.EMPTY.rebuild(cities);
+    }
+
+    @Benchmark
+    public List<City> streamScan() {
+        return cities.stream()
+                .filter(city -> city.getName().startsWith(prefix))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<City> nameIndex() {
+        return index.startingWith(prefix);
+    }
+}
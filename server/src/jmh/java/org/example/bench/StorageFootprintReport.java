@@ -0,0 +1,117 @@
+package org.example.bench;
+
+import org.example.database.CityStore;
+import org.example.database.CollectionSnapshot;
+import org.example.database.ColumnarSnapshot;
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Отчёт о расходе памяти движков хранения коллекции (objects и columnar) и о скорости проходов
+ * по ним. Для каждого движка в пустой куче строится снимок из size городов, после чего
+ * считается занятая куча на город - всё, что удерживает снимок, включая индексы и строки.
+ * Отдельно показано, сколько из этого приходится на названия и имена губернаторов: их колоночный
+ * движок хранит теми же строками, что и объектный (копии имён владельцев он схлопывает).
+ * <p>
+ * Запуск: {@code ./gradlew :server:storageFootprint --args="1000000"}
+ */
+public class StorageFootprintReport {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.printf("cities=%d maxHeap=%dMB%n", size, Runtime.getRuntime().maxMemory() >> 20);
+
+        long before = usedHeap();
+        String[][] strings = strings(size);
+        long stringBytes = usedHeap() - before;
+        System.out.printf("строки: %.1f байт на город (%d наборов)%n", (double) stringBytes / size, strings.length);
+
+        report("objects", CollectionSnapshot.EMPTY, size);
+        report("columnar", ColumnarSnapshot.EMPTY, size);
+    }
+
+    private static void report(String name, CityStore empty, int size) throws InterruptedException {
+        long before = usedHeap();
+        CityStore store = load(empty, size);
+        long bytes = usedHeap() - before;
+        System.out.printf("%-8s: %.1f байт на город, всего %dMB%n", name, (double) bytes / size, bytes >> 20);
+
+        // Первые проходы - прогрев, в отчёт идёт лучший из последующих
+        long scan = Long.MAX_VALUE;
+        long count = Long.MAX_VALUE;
+        long prefix = Long.MAX_VALUE;
+        long sorted = Long.MAX_VALUE;
+        long sink = 0;
+        for (int i = 0; i < 8; i++) {
+            long t0 = System.nanoTime();
+            for (City city : store.values()) {
+                sink += city.getPopulation();
+            }
+            long t1 = System.nanoTime();
+            sink += store.byStandardOfLiving(StandardOfLiving.VERY_HIGH).size();
+            long t2 = System.nanoTime();
+            sink += store.filterStartsWithName("Город-1234").size();
+            long t3 = System.nanoTime();
+            for (City city : store.sortedByMetersAboveSeaLevel()) {
+                sink += city.getId();
+            }
+            long t4 = System.nanoTime();
+            if (i >= 3) {
+                scan = Math.min(scan, t1 - t0);
+                count = Math.min(count, t2 - t1);
+                prefix = Math.min(prefix, t3 - t2);
+                sorted = Math.min(sorted, t4 - t3);
+            }
+        }
+        System.out.printf("%-8s: обход %dms, count_by_standard_of_living %dms, filter_starts_with_name %dms, show %dms (%d)%n",
+                name, scan / 1_000_000, count / 1_000_000, prefix / 1_000_000, sorted / 1_000_000, sink);
+    }
+
+    private static CityStore load(CityStore empty, int size) {
+        Random random = new Random(42);
+        int[] ids = new int[size];
+        City[] cities = new City[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i + 1;
+            cities[i] = new City(i + 1, "Город-" + random.nextInt(size),
+                    new Coordinates(random.nextInt(1000), random.nextLong()),
+                    new Date(), 1 + random.nextInt(10_000), 1L + random.nextInt(1_000_000), random.nextFloat() * 3000,
+                    Climate.values()[random.nextInt(Climate.values().length)],
+                    Government.values()[random.nextInt(Government.values().length)],
+                    StandardOfLiving.values()[random.nextInt(StandardOfLiving.values().length)],
+                    new Human("Губернатор-" + random.nextInt(size)),
+                    // Как из БД: у каждой строки своя копия имени владельца
+                    new String("user" + random.nextInt(10)));
+        }
+        return empty.withAll(ids, cities, size);
+    }
+
+    // Те же строки, что удерживает снимок, без самих городов
+    private static String[][] strings(int size) {
+        Random random = new Random(42);
+        String[][] strings = new String[2][size];
+        for (int i = 0; i < size; i++) {
+            strings[0][i] = "Город-" + random.nextInt(size);
+            strings[1][i] = "Губернатор-" + random.nextInt(size);
+        }
+        return strings;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
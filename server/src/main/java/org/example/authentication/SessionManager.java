@@ -0,0 +1,96 @@
+package org.example.authentication;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хранит сессии пользователей в памяти сервера. После входа или регистрации клиент получает
+ * непрозрачный токен и присылает его вместо пароля, так что проверка запроса - это поиск в таблице,
+ * без хэширования и обращения к БД. Срок жизни сессии продлевается при каждом использовании.
+ */
+public class SessionManager {
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final int TOKEN_BYTES = 32;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlMillis;
+    private volatile long lastPurgeMillis = System.currentTimeMillis();
+
+    private static final class Session {
+        final String username;
+        volatile long expiresAtMillis;
+
+        Session(String username, long expiresAtMillis) {
+            this.username = username;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    public SessionManager() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    public SessionManager(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Открывает новую сессию для уже аутентифицированного пользователя.
+     * @param username Имя пользователя.
+     * @return Токен сессии.
+     */
+    public String createSession(String username) {
+        long now = System.currentTimeMillis();
+        purgeExpiredIfDue(now);
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(username, now + ttlMillis));
+        return token;
+    }
+
+    /**
+     * Находит пользователя по токену и продлевает сессию.
+     * @param token Токен из запроса.
+     * @return Имя пользователя или null, если токен неизвестен или сессия истекла.
+     */
+    public String resolve(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (session.expiresAtMillis < now) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.expiresAtMillis = now + ttlMillis;
+        return session.username;
+    }
+
+    /**
+     * Закрывает сессию.
+     */
+    public void invalidate(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    // Просроченные сессии, которые больше не предъявляют, вычищаем не чаще раза за TTL
+    private void purgeExpiredIfDue(long now) {
+        if (now - lastPurgeMillis < ttlMillis) {
+            return;
+        }
+        lastPurgeMillis = now;
+        sessions.values().removeIf(session -> session.expiresAtMillis < now);
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.database;
+
+import org.example.database.models.City;
+
+import java.util.Collection;
+
+/**
+ * Неизменяемые суммы и количества по числовым полям городов (площадь, население, высота).
+ * Входят в снимок коллекции и пересчитываются при каждом изменении за O(1), поэтому средние
+ * значения не требуют обхода коллекции и всегда согласованы с городами своего снимка.
+ * null в поле не учитывается ни в сумме, ни в количестве.
+ * <p>
+ * Сумма высот хранится в double: после множества добавлений и удалений в ней может накопиться
+ * погрешность порядка ulp, которая сбрасывается при полной перезагрузке коллекции.
+ */
+public final class CityAggregates {
+    public static final CityAggregates EMPTY = new CityAggregates(0, 0, 0, 0, 0.0, 0);
+
+    private final long areaSum;
+    private final int areaCount;
+    private final long populationSum;
+    private final int populationCount;
+    private final double metersSum;
+    private final int metersCount;
+
+    private CityAggregates(long areaSum, int areaCount, long populationSum, int populationCount,
+                           double metersSum, int metersCount) {
+        this.areaSum = areaSum;
+        this.areaCount = areaCount;
+        this.populationSum = populationSum;
+        this.populationCount = populationCount;
+        this.metersSum = metersSum;
+        this.metersCount = metersCount;
+    }
+
+    /**
+     * Считает агрегаты заново за O(n).
+     */
+    public static CityAggregates of(Collection<City> cities) {
+        CityAggregates result = EMPTY;
+        for (City city : cities) {
+            result = result.plus(city, 1);
+        }
+        return result;
+    }
+
+    /**
+     * Учитывает замену oldCity на newCity (любой из них может быть null).
+     */
+    public CityAggregates replaced(City oldCity, City newCity) {
+        CityAggregates result = this;
+        if (oldCity != null) {
+            result = result.plus(oldCity, -1);
+        }
+        if (newCity != null) {
+            result = result.plus(newCity, 1);
+        }
+        return result;
+    }
+
+    // sign = 1 добавляет город, -1 вычитает
+    private CityAggregates plus(City city, int sign) {
+        Integer area = city.getArea();
+        Long population = city.getPopulation();
+        Float meters = city.getMetersAboveSeaLevel();
+        int newMetersCount = meters == null ? metersCount : metersCount + sign;
+        // Без высот сумма точно ноль, накопленная погрешность не переживает опустошение
+        double newMetersSum = newMetersCount == 0 ? 0.0 : meters == null ? metersSum : metersSum + sign * (double) meters;
+        return new CityAggregates(
+                area == null ? areaSum : areaSum + sign * (long) area,
+                area == null ? areaCount : areaCount + sign,
+                population == null ? populationSum : populationSum + sign * population,
+                population == null ? populationCount : populationCount + sign,
+                newMetersSum,
+                newMetersCount);
+    }
+
+    public long getAreaSum() {
+        return areaSum;
+    }
+
+    public long getPopulationSum() {
+        return populationSum;
+    }
+
+    public double getMetersAboveSeaLevelSum() {
+        return metersSum;
+    }
+
+    public double averageArea() {
+        return areaCount == 0 ? 0.0 : (double) areaSum / areaCount;
+    }
+
+    public double averagePopulation() {
+        return populationCount == 0 ? 0.0 : (double) populationSum / populationCount;
+    }
+
+    public double averageMetersAboveSeaLevel() {
+        // Пустая выборка - 0.0, как раньше давал average().orElse(0.0)
+        return metersCount == 0 ? 0.0 : metersSum / metersCount;
+    }
+}
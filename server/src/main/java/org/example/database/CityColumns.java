@@ -0,0 +1,228 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Неизменяемое колоночное хранилище городов в куче: каждое поле - отдельный примитивный массив,
+ * строка i всех массивов - один город (слот).
+ * Вместо City с упакованными Integer/Long/Float, Coordinates, Date и Human на город
+ * приходится несколько десятков байт в плотных массивах, а проход по одному полю читает
+ * память подряд. Объекты City собираются только по запросу в {@link #city(int)}.
+ * <p>
+ * null в полях-обёртках отмечается битами в {@link #nulls}, у enum-полей - ординалом -1.
+ */
+final class CityColumns extends CityRows {
+    private static final Climate[] CLIMATES = Climate.values();
+    private static final Government[] GOVERNMENTS = Government.values();
+    private static final StandardOfLiving[] STANDARDS = StandardOfLiving.values();
+
+    static final CityColumns EMPTY = new Builder(0).build();
+
+    final String[] names;
+    final int[] x;
+    final long[] y;
+    final long[] creationDates;
+    final int[] areas;
+    final long[] populations;
+    final float[] meters;
+    final byte[] climates;
+    final byte[] governments;
+    final byte[] standards;
+    final String[] governors;
+    final String[] owners;
+    final byte[] nulls;
+
+    private CityColumns(Builder builder) {
+        super(builder.size, builder.ids);
+        this.names = builder.names;
+        this.x = builder.x;
+        this.y = builder.y;
+        this.creationDates = builder.creationDates;
+        this.areas = builder.areas;
+        this.populations = builder.populations;
+        this.meters = builder.meters;
+        this.climates = builder.climates;
+        this.governments = builder.governments;
+        this.standards = builder.standards;
+        this.governors = builder.governors;
+        this.owners = builder.owners;
+        this.nulls = builder.nulls;
+    }
+
+    boolean isNull(int slot, int field) {
+        return (nulls[slot] & field) != 0;
+    }
+
+    @Override
+    IntPredicate nameFilter(String prefix) {
+        return slot -> names[slot] != null && names[slot].startsWith(prefix);
+    }
+
+    @Override
+    int standardOrdinal(int slot) {
+        return standards[slot];
+    }
+
+    @Override
+    Float metersAt(int slot) {
+        return isNull(slot, NULL_METERS) ? null : meters[slot];
+    }
+
+    @Override
+    City city(int slot) {
+        Coordinates coordinates = isNull(slot, NULL_COORDINATES) ? null
+                : new Coordinates(isNull(slot, NULL_X) ? null : x[slot], isNull(slot, NULL_Y) ? null : y[slot]);
+        return new City(ids[slot], names[slot], coordinates,
+                isNull(slot, NULL_CREATION_DATE) ? null : new Date(creationDates[slot]),
+                isNull(slot, NULL_AREA) ? null : areas[slot],
+                isNull(slot, NULL_POPULATION) ? null : populations[slot],
+                metersAt(slot),
+                climates[slot] < 0 ? null : CLIMATES[climates[slot]],
+                governments[slot] < 0 ? null : GOVERNMENTS[governments[slot]],
+                standards[slot] < 0 ? null : STANDARDS[standards[slot]],
+                isNull(slot, NULL_GOVERNOR) ? null : new Human(governors[slot]),
+                owners[slot]);
+    }
+
+    @Override
+    Builder newBuilder(int capacity) {
+        return new Builder(capacity);
+    }
+
+    static final class Builder extends CityRows.Builder {
+        private final int[] ids;
+        private final String[] names;
+        private final int[] x;
+        private final long[] y;
+        private final long[] creationDates;
+        private final int[] areas;
+        private final long[] populations;
+        private final float[] meters;
+        private final byte[] climates;
+        private final byte[] governments;
+        private final byte[] standards;
+        private final String[] governors;
+        private final String[] owners;
+        private final byte[] nulls;
+        // Владельцев мало, а из БД каждая строка приходит со своей копией имени
+        private final Map<String, String> ownerNames = new HashMap<>();
+        private int size;
+
+        Builder(int capacity) {
+            ids = new int[capacity];
+            names = new String[capacity];
+            x = new int[capacity];
+            y = new long[capacity];
+            creationDates = new long[capacity];
+            areas = new int[capacity];
+            populations = new long[capacity];
+            meters = new float[capacity];
+            climates = new byte[capacity];
+            governments = new byte[capacity];
+            standards = new byte[capacity];
+            governors = new String[capacity];
+            owners = new String[capacity];
+            nulls = new byte[capacity];
+        }
+
+        @Override
+        void add(City city) {
+            int slot = size++;
+            int nullBits = 0;
+            ids[slot] = city.getId();
+            names[slot] = city.getName();
+            Coordinates coordinates = city.getCoordinates();
+            if (coordinates == null) {
+                nullBits |= NULL_COORDINATES;
+            } else {
+                if (coordinates.getX() == null) {
+                    nullBits |= NULL_X;
+                } else {
+                    x[slot] = coordinates.getX();
+                }
+                if (coordinates.getY() == null) {
+                    nullBits |= NULL_Y;
+                } else {
+                    y[slot] = coordinates.getY();
+                }
+            }
+            if (city.getCreationDate() == null) {
+                nullBits |= NULL_CREATION_DATE;
+            } else {
+                creationDates[slot] = city.getCreationDate().getTime();
+            }
+            if (city.getArea() == null) {
+                nullBits |= NULL_AREA;
+            } else {
+                areas[slot] = city.getArea();
+            }
+            if (city.getPopulation() == null) {
+                nullBits |= NULL_POPULATION;
+            } else {
+                populations[slot] = city.getPopulation();
+            }
+            if (city.getMetersAboveSeaLevel() == null) {
+                nullBits |= NULL_METERS;
+            } else {
+                meters[slot] = city.getMetersAboveSeaLevel();
+            }
+            climates[slot] = ordinal(city.getClimate());
+            governments[slot] = ordinal(city.getGovernment());
+            standards[slot] = ordinal(city.getStandardOfLiving());
+            if (city.getGovernor() == null) {
+                nullBits |= NULL_GOVERNOR;
+            } else {
+                governors[slot] = city.getGovernor().getName();
+            }
+            String owner = city.getOwnerId();
+            owners[slot] = owner == null ? null : ownerNames.computeIfAbsent(owner, name -> name);
+            nulls[slot] = (byte) nullBits;
+        }
+
+        @Override
+        void copy(CityRows rows, int sourceSlot) {
+            if (!(rows instanceof CityColumns)) {
+                add(rows.city(sourceSlot));
+                return;
+            }
+            CityColumns source = (CityColumns) rows;
+            int slot = size++;
+            ids[slot] = source.ids[sourceSlot];
+            names[slot] = source.names[sourceSlot];
+            x[slot] = source.x[sourceSlot];
+            y[slot] = source.y[sourceSlot];
+            creationDates[slot] = source.creationDates[sourceSlot];
+            areas[slot] = source.areas[sourceSlot];
+            populations[slot] = source.populations[sourceSlot];
+            meters[slot] = source.meters[sourceSlot];
+            climates[slot] = source.climates[sourceSlot];
+            governments[slot] = source.governments[sourceSlot];
+            standards[slot] = source.standards[sourceSlot];
+            governors[slot] = source.governors[sourceSlot];
+            owners[slot] = source.owners[sourceSlot];
+            nulls[slot] = source.nulls[sourceSlot];
+        }
+
+        static byte ordinal(Enum<?> value) {
+            return value == null ? -1 : (byte) value.ordinal();
+        }
+
+        @Override
+        CityColumns build() {
+            if (size != ids.length) {
+                throw new IllegalStateException("Заполнено " + size + " строк из " + ids.length);
+            }
+            return new CityColumns(this);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.database;
+
+import org.example.database.models.City;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Неизменяемый набор строк-городов, упорядоченных по возрастанию ID, - основа
+ * {@link ColumnarSnapshot}. Строка (слот) адресуется номером; ID всех строк лежат в куче
+ * одним отсортированным массивом, он же служит индексом ID -> слот. Где и как хранятся
+ * остальные поля, решает реализация: {@link CityColumns} - колонки в куче,
+ * {@link OffHeapCityRecords} - записи фиксированной длины вне кучи.
+ */
+abstract class CityRows {
+    static final int NULL_AREA = 1;
+    static final int NULL_POPULATION = 1 << 1;
+    static final int NULL_METERS = 1 << 2;
+    static final int NULL_COORDINATES = 1 << 3;
+    static final int NULL_X = 1 << 4;
+    static final int NULL_Y = 1 << 5;
+    static final int NULL_CREATION_DATE = 1 << 6;
+    static final int NULL_GOVERNOR = 1 << 7;
+
+    final int size;
+    final int[] ids;
+
+    CityRows(int size, int[] ids) {
+        this.size = size;
+        this.ids = ids;
+    }
+
+    /**
+     * @return слот города с данным ID или -1.
+     */
+    final int slotOf(int id) {
+        int slot = Arrays.binarySearch(ids, 0, size, id);
+        return slot >= 0 ? slot : -1;
+    }
+
+    /**
+     * @return первый слот с ID не меньше key (size, если таких нет).
+     */
+    final int lowerSlot(int key) {
+        int slot = Arrays.binarySearch(ids, 0, size, key);
+        return slot >= 0 ? slot : -slot - 1;
+    }
+
+    /**
+     * @return первый слот с ID больше key (size, если таких нет).
+     */
+    final int upperSlot(int key) {
+        int slot = Arrays.binarySearch(ids, 0, size, key);
+        return slot >= 0 ? slot + 1 : -slot - 1;
+    }
+
+    /**
+     * Условие "название слота начинается с prefix"; подготовка prefix делается один раз на запрос.
+     */
+    abstract IntPredicate nameFilter(String prefix);
+
+    /**
+     * @return ординал уровня жизни или -1 для null.
+     */
+    abstract int standardOrdinal(int slot);
+
+    abstract Float metersAt(int slot);
+
+    /**
+     * Собирает новый объект City из слота.
+     */
+    abstract City city(int slot);
+
+    /**
+     * Построитель строк того же вида на capacity городов.
+     */
+    abstract Builder newBuilder(int capacity);
+
+    /**
+     * Заполняет строки по порядку возрастания ID; строк должно быть ровно capacity.
+     */
+    abstract static class Builder {
+        abstract void add(City city);
+
+        /**
+         * Копирует строку из другого набора; строки своего вида - без сборки City.
+         */
+        abstract void copy(CityRows source, int sourceSlot);
+
+        abstract CityRows build();
+    }
+}
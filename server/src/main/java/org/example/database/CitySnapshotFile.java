@@ -0,0 +1,219 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Двоичный снимок коллекции на локальном диске, помеченный отметкой изменений БД
+ * ({@link DatabaseManager#getChangeMark()}): всё, что изменилось в БД после отметки,
+ * при запуске догружается отдельно.
+ * <p>
+ * Формат: заголовок (MAGIC, FORMAT_VERSION, отметка, число городов), затем города по возрастанию ID
+ * и END_MAGIC. Город - номер владельца в словаре (имя пишется только при первом появлении),
+ * затем {@link #writeCity}: примитивные поля, байт флагов nullable-полей, порядковые номера enum
+ * и строки UTF-8 с длиной в два байта. Запись идёт во временный файл, который после fsync атомарно заменяет прежний,
+ * так что на диске всегда целый снимок. Чтение - через отображение файла в память окнами по WINDOW_BYTES.
+ */
+public final class CitySnapshotFile {
+    private static final int MAGIC = 0x43534E50;
+    private static final int END_MAGIC = 0x454E4421;
+    // 2: владелец перед полями города, чтобы кодирование города делить с журналом записи
+    private static final int FORMAT_VERSION = 2;
+    private static final long WINDOW_BYTES = 256L << 20;
+    // Город не длиннее: три строки по 255 символов плюс поля
+    private static final int MAX_RECORD_BYTES = 4096;
+
+    private static final int HAS_METERS = 1;
+    private static final int HAS_GOVERNMENT = 1 << 1;
+    private static final int HAS_GOVERNOR = 1 << 2;
+
+    private static final Climate[] CLIMATES = Climate.values();
+    private static final Government[] GOVERNMENTS = Government.values();
+    private static final StandardOfLiving[] STANDARDS = StandardOfLiving.values();
+
+    private CitySnapshotFile() {
+    }
+
+    /**
+     * @return Размер записанного файла в байтах.
+     */
+    public static long write(Path path, Collection<City> cities, long changeMark) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Map<String, Integer> owners = new HashMap<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(changeMark);
+            out.writeInt(cities.size());
+            for (City city : cities) {
+                Integer owner = owners.get(city.getOwnerId());
+                if (owner != null) {
+                    out.writeInt(owner);
+                } else {
+                    out.writeInt(owners.size());
+                    writeString(out, city.getOwnerId());
+                    owners.put(city.getOwnerId(), owners.size());
+                }
+                writeCity(out, city);
+            }
+            out.writeInt(END_MAGIC);
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(path);
+    }
+
+    /**
+     * Все поля города, кроме владельца.
+     */
+    static void writeCity(DataOutputStream out, City city) throws IOException {
+        int flags = (city.getMetersAboveSeaLevel() != null ? HAS_METERS : 0)
+                | (city.getGovernment() != null ? HAS_GOVERNMENT : 0)
+                | (city.getGovernor() != null ? HAS_GOVERNOR : 0);
+        out.writeInt(city.getId());
+        out.writeLong(city.getCreationDate().getTime());
+        out.writeInt(city.getArea());
+        out.writeLong(city.getPopulation());
+        out.writeByte(flags);
+        if (city.getMetersAboveSeaLevel() != null) {
+            out.writeFloat(city.getMetersAboveSeaLevel());
+        }
+        out.writeByte(city.getClimate().ordinal());
+        if (city.getGovernment() != null) {
+            out.writeByte(city.getGovernment().ordinal());
+        }
+        out.writeByte(city.getStandardOfLiving().ordinal());
+        out.writeInt(city.getCoordinates().getX());
+        out.writeLong(city.getCoordinates().getY());
+        writeString(out, city.getName());
+        if (city.getGovernor() != null) {
+            writeString(out, city.getGovernor().getName());
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Длина пишется двумя байтами: переполненная прочиталась бы неверно, не нарушив CRC журнала
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Строка длиннее " + 0xFFFF + " байт в UTF-8 не помещается в запись");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Читает снимок; отметка изменений - в {@link LoadedCities#getChangeMark()}.
+     * @throws IOException если файл повреждён, обрезан или записан другой версией формата.
+     */
+    public static LoadedCities read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            List<String> owners = new ArrayList<>();
+            try {
+                in.ensure(20);
+                if (in.buffer.getInt() != MAGIC || in.buffer.getInt() != FORMAT_VERSION) {
+                    throw new IOException("Файл " + path + " - не снимок коллекции этой версии");
+                }
+                long changeMark = in.buffer.getLong();
+                int count = in.buffer.getInt();
+                if (count < 0) {
+                    throw new IOException("Повреждённый снимок коллекции: отрицательное число городов");
+                }
+
+                LoadedCities cities = new LoadedCities(count);
+                cities.setChangeMark(changeMark);
+                for (int i = 0; i < count; i++) {
+                    in.ensure(MAX_RECORD_BYTES);
+                    int owner = in.buffer.getInt();
+                    if (owner == owners.size()) {
+                        owners.add(readString(in.buffer));
+                    }
+                    City city = readCity(in.buffer, owners.get(owner));
+                    cities.add(city.getId(), city);
+                }
+                in.ensure(4);
+                if (in.buffer.getInt() != END_MAGIC) {
+                    throw new IOException("Снимок коллекции обрезан или повреждён");
+                }
+                return cities;
+            } catch (RuntimeException e) {
+                // Выход за границы буфера, словаря владельцев или enum - признак порчи файла
+                throw new IOException("Повреждённый снимок коллекции: " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Город, записанный {@link #writeCity}; буфер должен вмещать его целиком.
+     */
+    static City readCity(ByteBuffer buffer, String ownerId) {
+        int id = buffer.getInt();
+        Date creationDate = new Date(buffer.getLong());
+        int area = buffer.getInt();
+        long population = buffer.getLong();
+        int flags = buffer.get();
+        Float meters = (flags & HAS_METERS) != 0 ? buffer.getFloat() : null;
+        Climate climate = CLIMATES[buffer.get()];
+        Government government = (flags & HAS_GOVERNMENT) != 0 ? GOVERNMENTS[buffer.get()] : null;
+        StandardOfLiving standard = STANDARDS[buffer.get()];
+        Coordinates coordinates = new Coordinates(buffer.getInt(), buffer.getLong());
+        String name = readString(buffer);
+        Human governor = (flags & HAS_GOVERNOR) != 0 ? new Human(readString(buffer)) : null;
+        return new City(id, name, coordinates, creationDate, area, population, meters,
+                climate, government, standard, governor, ownerId);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Окно отображения файла; сдвигается, когда до его конца остаётся меньше нужного.
+     */
+    private static final class Input {
+        final FileChannel channel;
+        final long size;
+        long windowStart;
+        ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        Input(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        void ensure(int bytes) throws IOException {
+            long position = windowStart + buffer.position();
+            // Окно уже доходит до конца файла - сдвигать некуда
+            if (buffer.remaining() >= bytes || windowStart + buffer.limit() >= size) {
+                return;
+            }
+            windowStart = position;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, size - position));
+        }
+    }
+}
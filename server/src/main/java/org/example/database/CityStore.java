@@ -0,0 +1,80 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.StandardOfLiving;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Неизменяемый версионированный снимок коллекции - общий контракт движков хранения
+ * CollectionManager. Методы with* не трогают текущий снимок, а возвращают следующую версию;
+ * вызываются только писателем под блокировкой, читать снимок можно из любого потока.
+ * <ul>
+ *     <li>{@link CollectionSnapshot} - города как объекты и вторичные индексы по ним;</li>
+ *     <li>{@link ColumnarSnapshot} - поля в примитивных колонках, City собираются по запросу.</li>
+ * </ul>
+ * Города, которые отдаёт снимок, менять нельзя.
+ */
+public interface CityStore {
+
+    long getVersion();
+
+    int size();
+
+    boolean isEmpty();
+
+    City get(int id);
+
+    boolean containsKey(int id);
+
+    /**
+     * Все города в порядке возрастания ID.
+     */
+    Collection<City> values();
+
+    /**
+     * Города с ID от fromKey до toKey включительно, по возрастанию ID.
+     */
+    Collection<City> range(int fromKey, int toKey);
+
+    /**
+     * Города, название которых начинается с prefix, в порядке (название, ID).
+     */
+    List<City> filterStartsWithName(String prefix);
+
+    /**
+     * Города в естественном порядке City (по высоте над уровнем моря, null - первыми), затем по ID.
+     */
+    Collection<City> sortedByMetersAboveSeaLevel();
+
+    /**
+     * Города с данным уровнем жизни по возрастанию ID.
+     */
+    Collection<City> byStandardOfLiving(StandardOfLiving standard);
+
+    /**
+     * Суммы и средние по числовым полям, за O(1).
+     */
+    CityAggregates aggregates();
+
+    /**
+     * Следующая версия с полностью новым содержимым; ids отсортированы по возрастанию без повторов.
+     */
+    CityStore withAll(int[] ids, City[] cities, int count);
+
+    /**
+     * Следующая версия, в которой город добавлен или заменён по своему ID.
+     */
+    CityStore withPut(City city);
+
+    /**
+     * Следующая версия без перечисленных ID; отсутствующие пропускаются.
+     */
+    CityStore withRemoved(int[] ids);
+
+    /**
+     * Следующая версия без городов с ID от fromKey до toKey включительно.
+     */
+    CityStore withoutRange(int fromKey, int toKey);
+}
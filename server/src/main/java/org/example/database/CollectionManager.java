@@ -4,165 +4,618 @@ import org.example.database.exceptions.ValidationException;
 import org.example.database.models.City;
 import org.example.database.models.StandardOfLiving;
 import org.example.database.DatabaseManager;
+import org.example.database.interfaces.CityWriter;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Хранит коллекцию городов в виде неизменяемых версионированных снимков ({@link CityStore}).
+ * Читатели берут текущий снимок без блокировок; изменения публикуют новый снимок, разделяющий
+ * с предыдущим всё, кроме изменённой части.
+ * <p>
+ * Город меняет только его владелец (все запросы в БД фильтруют по owner_id), так что изменения
+ * разных владельцев не пересекаются. Поэтому изменение идёт в БД под блокировкой своего владельца,
+ * параллельно с другими владельцами, и лишь публикация снимка - под коротким общим writeLock.
+ * Изменения одного владельца упорядочены одинаково в БД и в снимке.
+ * <p>
+ * Если задан файл снимка, коллекция при запуске читается из него ({@link CitySnapshotFile}),
+ * а из БД догружаются только изменения после его отметки; файл периодически перезаписывается.
+ * Если задан журнал, изменения пишутся не в БД, а в него ({@link WriteBehindWriter}) и переносятся
+ * в БД фоном: команда ждёт только fsync журнала.
+ * Движок хранения выбирается при запуске:
+ * <ul>
+ *     <li>{@code objects} - {@link CollectionSnapshot}, города-объекты и индексы по ним (по умолчанию);</li>
+ *     <li>{@code columnar} - {@link ColumnarSnapshot}, примитивные колонки: в разы меньше памяти
+ *     на город, но фильтры - проходом по колонкам вместо индексов;</li>
+ *     <li>{@code offheap} - тот же {@link ColumnarSnapshot}, но записи и строки лежат вне кучи:
+ *     для коллекций в десятки миллионов городов без пауз сборщика на их обход.</li>
+ * </ul>
+ */
 public class CollectionManager {
-    private final Hashtable<Integer, City> collection = new Hashtable<>();
+    public static final String STORAGE_OBJECTS = "objects";
+    public static final String STORAGE_COLUMNAR = "columnar";
+    public static final String STORAGE_OFF_HEAP = "offheap";
+
+    private static final int OWNER_LOCK_STRIPES = 64;
+    // Как часто без файла снимка забываются надгробия удалённых городов
+    private static final long DEFAULT_PRUNE_INTERVAL_SECONDS = 300;
+
+    // Меняется только под writeLock
+    private volatile CityStore snapshot;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Блокировки владельцев - полосы по хэшу имени: у разных владельцев они совпадают редко
+    private final ReentrantLock[] ownerLocks = new ReentrantLock[OWNER_LOCK_STRIPES];
+    // Запись в БД вместе с публикацией - под общей блокировкой, чтение отметки для снимка на диске -
+    // под исключительной: в этот момент нет изменений, закоммиченных в БД, но ещё не опубликованных
+    private final ReentrantReadWriteLock persistLock = new ReentrantReadWriteLock();
     private final Date initializationDate;
     private final DatabaseManager databaseManager;
+    // Куда пишутся изменения: в БД или в журнал отложенной записи
+    private final CityWriter cityWriter;
+    // null - изменения пишутся в БД сразу
+    private final WriteBehindWriter writeBehindWriter;
+    // Снимок коллекции на диске; null - не сохраняется
+    private final Path snapshotPath;
+    // Перезапись снимка, а без него - очистка надгробий удалённых городов
+    private final ScheduledExecutorService maintenanceScheduler;
+    // Версия CityStore, совпадающая с файлом снимка; меняется под writeLock у persistLock
+    private long savedVersion = -1;
 
     public CollectionManager(DatabaseManager databaseManager) {
+        this(databaseManager, STORAGE_OBJECTS);
+    }
+
+    public CollectionManager(DatabaseManager databaseManager, String storage) {
+        this(databaseManager, storage, null, 0);
+    }
+
+    /**
+     * @param snapshotPath файл двоичного снимка коллекции: при запуске из него загружается коллекция
+     *                     (из БД догружаются только изменения после снимка), а затем он перезаписывается
+     *                     каждые snapshotIntervalSeconds секунд и при остановке. null - без снимка:
+     *                     тогда с той же периодичностью (по умолчанию - DEFAULT_PRUNE_INTERVAL_SECONDS)
+     *                     очищается таблица удалений deleted_cities, которую иначе чистит запись снимка.
+     */
+    public CollectionManager(DatabaseManager databaseManager, String storage, Path snapshotPath, long snapshotIntervalSeconds) {
+        this(databaseManager, storage, snapshotPath, snapshotIntervalSeconds, null);
+    }
+
+    /**
+     * @param journalPath журнал отложенной записи; null - изменения пишутся в БД сразу.
+     *                    Оставшиеся в журнале изменения переносятся в БД до загрузки коллекции;
+     *                    если это не удалось, сервер не запускается.
+     */
+    public CollectionManager(DatabaseManager databaseManager, String storage, Path snapshotPath, long snapshotIntervalSeconds,
+                             Path journalPath) {
         this.initializationDate = new Date();
         this.databaseManager = databaseManager;
+        this.snapshotPath = snapshotPath;
+        for (int i = 0; i < ownerLocks.length; i++) {
+            ownerLocks[i] = new ReentrantLock();
+        }
+        this.snapshot = emptyStore(storage);
+        if (journalPath != null) {
+            try {
+                writeBehindWriter = WriteBehindWriter.open(databaseManager, journalPath, this::getSnapshot);
+            } catch (IOException | SQLException e) {
+                throw new IllegalStateException("Не удалось восстановить журнал записи " + journalPath + ": " + e.getMessage(), e);
+            }
+            cityWriter = writeBehindWriter;
+            System.out.println("Изменения пишутся в журнал " + journalPath + " и переносятся в БД фоном.");
+        } else {
+            writeBehindWriter = null;
+            cityWriter = databaseManager;
+        }
         try {
-            loadCollectionFromDb();
+            if (snapshotPath == null || !Files.exists(snapshotPath) || !loadCollectionFromSnapshotFile()) {
+                loadCollectionFromDb();
+            }
         } catch (SQLException e) {
             System.err.println("Ошибка при загрузке коллекции из базы данных при запуске: " + e.getMessage());
         }
+        if (writeBehindWriter != null) {
+            writeBehindWriter.start();
+        }
+
+        // Триггеры учёта изменений стоят всегда, чтобы снимок можно было включить в любой момент,
+        // поэтому надгробия нужно чистить и без него
+        long maintenanceIntervalSeconds = snapshotPath == null && snapshotIntervalSeconds <= 0
+                ? DEFAULT_PRUNE_INTERVAL_SECONDS : snapshotIntervalSeconds;
+        if (maintenanceIntervalSeconds > 0) {
+            maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, snapshotPath != null ? "collection-snapshot" : "deleted-cities-prune");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maintenanceScheduler.scheduleWithFixedDelay(snapshotPath != null ? this::saveSnapshotQuietly : this::pruneDeletedCitiesQuietly,
+                    maintenanceIntervalSeconds, maintenanceIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            maintenanceScheduler = null;
+        }
+    }
+
+    private static CityStore emptyStore(String storage) {
+        if (STORAGE_COLUMNAR.equalsIgnoreCase(storage)) {
+            System.out.println("Коллекция хранится в колоночном виде.");
+            return ColumnarSnapshot.EMPTY;
+        }
+        if (STORAGE_OFF_HEAP.equalsIgnoreCase(storage)) {
+            System.out.println("Коллекция хранится вне кучи.");
+            return ColumnarSnapshot.OFF_HEAP_EMPTY;
+        }
+        if (storage != null && !STORAGE_OBJECTS.equalsIgnoreCase(storage)) {
+            System.err.println("Неизвестный движок хранения '" + storage + "', используются объекты.");
+        }
+        return CollectionSnapshot.EMPTY;
     }
 
     public void loadCollectionFromDb() throws SQLException {
-        collection.clear();
-        Hashtable<Integer, City> loadedCities = databaseManager.loadCities();
-        collection.putAll(loadedCities);
-        System.out.println("Коллекция успешно загружена из базы данных. Количество элементов: " + collection.size());
+        writeLock.lock();
+        try {
+            LoadedCities loadedCities = databaseManager.loadCities();
+            snapshot = snapshot.withAll(loadedCities.getIds(), loadedCities.getCities(), loadedCities.size());
+        } finally {
+            writeLock.unlock();
+        }
+        System.out.println("Коллекция успешно загружена из базы данных. Количество элементов: " + snapshot.size());
+    }
+
+    /**
+     * Загружает коллекцию из файла снимка и догружает из БД изменения после его отметки.
+     * @return false, если снимок не прочитался или не сходится с БД - тогда нужна полная загрузка.
+     */
+    private boolean loadCollectionFromSnapshotFile() {
+        long start = System.nanoTime();
+        try {
+            LoadedCities saved = CitySnapshotFile.read(snapshotPath);
+            List<Integer> deletedIds = new ArrayList<>();
+            LoadedCities changed = databaseManager.loadChangesSince(saved.getChangeMark(), deletedIds);
+            if (changed.getChangeMark() < saved.getChangeMark()) {
+                System.err.println("Снимок коллекции новее БД (отметка " + saved.getChangeMark() + " > "
+                        + changed.getChangeMark() + "), вероятно, БД пересоздана. Загрузка из БД целиком.");
+                return false;
+            }
+
+            CityStore next = snapshot.withAll(saved.getIds(), saved.getCities(), saved.size());
+            for (int i = 0; i < changed.size(); i++) {
+                next = next.withPut(changed.getCities()[i]);
+            }
+            next = next.withRemoved(deletedIds.stream().mapToInt(Integer::intValue).toArray());
+            int citiesInDb = databaseManager.countCities();
+            if (next.size() != citiesInDb) {
+                System.err.println("Снимок коллекции с изменениями даёт " + next.size() + " городов, а в БД их "
+                        + citiesInDb + ". Загрузка из БД целиком.");
+                return false;
+            }
+
+            writeLock.lock();
+            try {
+                snapshot = next;
+            } finally {
+                writeLock.unlock();
+            }
+            if (changed.size() == 0 && deletedIds.isEmpty()) {
+                savedVersion = next.getVersion();
+            }
+            System.out.printf("Коллекция загружена из снимка %s за %d мс: %d городов, из БД догружено изменённых %d, удалённых %d.%n",
+                    snapshotPath, (System.nanoTime() - start) / 1_000_000, next.size(), changed.size(), deletedIds.size());
+            return true;
+        } catch (IOException | SQLException e) {
+            System.err.println("Не удалось загрузить снимок коллекции " + snapshotPath + ": " + e.getMessage()
+                    + ". Загрузка из БД целиком.");
+            return false;
+        }
+    }
+
+    /**
+     * Перезаписывает файл снимка текущей коллекцией, если она изменилась с прошлой записи.
+     * Отметка изменений БД читается, пока записи в БД приостановлены (обычно - один запрос),
+     * сам файл пишется уже без блокировок: снимок коллекции неизменяем.
+     */
+    public void saveSnapshot() throws IOException, SQLException {
+        if (snapshotPath == null) {
+            return;
+        }
+        CityStore captured;
+        long changeMark;
+        persistLock.writeLock().lock();
+        try {
+            captured = snapshot;
+            if (captured.getVersion() == savedVersion) {
+                return;
+            }
+            changeMark = databaseManager.getChangeMark();
+        } finally {
+            persistLock.writeLock().unlock();
+        }
+
+        long start = System.nanoTime();
+        long bytes = CitySnapshotFile.write(snapshotPath, captured.values(), changeMark);
+        persistLock.writeLock().lock();
+        try {
+            savedVersion = Math.max(savedVersion, captured.getVersion());
+        } finally {
+            persistLock.writeLock().unlock();
+        }
+        int pruned = databaseManager.pruneDeletedCities(changeMark);
+        System.out.printf("Снимок коллекции записан в %s за %d мс: %d городов, %d КБ, отметка %d, забыто удалений %d.%n",
+                snapshotPath, (System.nanoTime() - start) / 1_000_000, captured.size(), bytes >> 10, changeMark, pruned);
+    }
+
+    private void saveSnapshotQuietly() {
+        try {
+            saveSnapshot();
+        } catch (IOException | SQLException | RuntimeException e) {
+            System.err.println("Ошибка при записи снимка коллекции: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Без файла снимка надгробия удалённых городов никому не нужны: забываются все, что старше
+     * текущей отметки изменений.
+     */
+    private void pruneDeletedCitiesQuietly() {
+        try {
+            int pruned = databaseManager.pruneDeletedCities(databaseManager.getChangeMark());
+            if (pruned > 0) {
+                System.out.println("Забыто удалений городов: " + pruned + ".");
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Ошибка при очистке удалённых городов: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Текущий снимок коллекции. Не меняется, сколько бы его ни читали.
+     */
+    public CityStore getSnapshot() {
+        return snapshot;
     }
 
     public boolean addElement(City city, String ownerId) throws ValidationException, SQLException {
         city.validate();
 
-        int newId = databaseManager.insertCity(city, ownerId);
-        city.setId(newId);
-        city.setOwnerId(ownerId);
+        // Под блокировкой владельца: иначе удаление диапазона тем же владельцем из другого соединения
+        // успело бы удалить в БД город, который ещё не опубликован в снимке
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            int newId = cityWriter.insertCity(city, ownerId);
+            city.setId(newId);
+            city.setOwnerId(ownerId);
 
-        collection.put(newId, city);
-        return true;
+            publish(city);
+            return true;
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
+        }
     }
 
-    public boolean update(Integer id, City newCity, String ownerId) throws ValidationException, SQLException {
-        if (!collection.containsKey(id)) {
-            return false;
+    /**
+     * Добавляет города пакетом: в БД - одной транзакцией, в коллекцию - одним новым снимком.
+     * Если вставка в БД не удалась, не добавляется ни один город.
+     */
+    public void addElements(List<City> cities, String ownerId) throws ValidationException, SQLException {
+        for (City city : cities) {
+            city.validate();
         }
-        newCity.setId(id);
-        newCity.setOwnerId(ownerId);
-        newCity.validate();
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            int[] newIds = cityWriter.insertCities(cities, ownerId);
+            for (int i = 0; i < newIds.length; i++) {
+                cities.get(i).setId(newIds[i]);
+                cities.get(i).setOwnerId(ownerId);
+            }
 
-        boolean dbUpdated = databaseManager.updateCity(newCity, ownerId);
-        if (dbUpdated) {
-            collection.put(id, newCity);
-            return true;
+            writeLock.lock();
+            try {
+                CityStore next = snapshot;
+                for (City city : cities) {
+                    next = next.withPut(city);
+                }
+                snapshot = next;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
         }
-        return false;
     }
 
-    public boolean remove(Integer id, String ownerId) throws SQLException {
-        if (!collection.containsKey(id)) {
+    public boolean update(Integer id, City newCity, String ownerId) throws ValidationException, SQLException {
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            if (!snapshot.containsKey(id)) {
+                return false;
+            }
+            newCity.setId(id);
+            newCity.setOwnerId(ownerId);
+            newCity.validate();
+
+            boolean dbUpdated = cityWriter.updateCity(newCity, ownerId);
+            if (dbUpdated) {
+                publish(newCity);
+                return true;
+            }
             return false;
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
         }
-        boolean dbRemoved = databaseManager.deleteCity(id, ownerId);
-        if (dbRemoved) {
-            collection.remove(id);
-            return true;
+    }
+
+    public boolean remove(Integer id, String ownerId) throws SQLException {
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            if (!snapshot.containsKey(id)) {
+                return false;
+            }
+            boolean dbRemoved = cityWriter.deleteCity(id, ownerId);
+            if (dbRemoved) {
+                removeFromSnapshot(new int[]{id});
+                return true;
+            }
+            return false;
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
         }
-        return false;
     }
 
     public int removeGreaterKey(Integer key, String ownerId) throws SQLException {
-        int removedCount = databaseManager.deleteCitiesGreaterThanKey(key, ownerId);
-        if (removedCount > 0) {
-            loadCollectionFromDb();
+        if (key == Integer.MAX_VALUE) {
+            return 0;
+        }
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            if (countOwned(snapshot.range(key + 1, Integer.MAX_VALUE), ownerId) == 0) {
+                return 0;
+            }
+            return removeRange(cityWriter.deleteCitiesGreaterThanKey(key, ownerId), key + 1, Integer.MAX_VALUE);
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
         }
-        return removedCount;
     }
 
     public int removeLowerKey(Integer key, String ownerId) throws SQLException {
-        int removedCount = databaseManager.deleteCitiesLowerThanKey(key, ownerId);
-        if (removedCount > 0) {
-            loadCollectionFromDb();
+        if (key == Integer.MIN_VALUE) {
+            return 0;
+        }
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            if (countOwned(snapshot.range(Integer.MIN_VALUE, key - 1), ownerId) == 0) {
+                return 0;
+            }
+            return removeRange(cityWriter.deleteCitiesLowerThanKey(key, ownerId), Integer.MIN_VALUE, key - 1);
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
+        }
+    }
+
+    /**
+     * Убирает удалённые из БД города диапазона. Если удалён весь диапазон, он отрезается целиком;
+     * проверяется по текущему снимку, потому что другие владельцы могли за время запроса
+     * добавить в диапазон свои города. Совпадения числа мало: удалённые ID должны все быть
+     * в снимке, иначе вместо них отрезался бы чужой город, которого нет среди удалённых.
+     */
+    private int removeRange(int[] removedIds, int fromKey, int toKey) {
+        if (removedIds.length == 0) {
+            return 0;
+        }
+        writeLock.lock();
+        try {
+            if (snapshot.range(fromKey, toKey).size() == removedIds.length && containsAll(snapshot, removedIds)) {
+                snapshot = snapshot.withoutRange(fromKey, toKey);
+            } else {
+                snapshot = snapshot.withRemoved(removedIds);
+            }
+            return removedIds.length;
+        } finally {
+            writeLock.unlock();
         }
-        return removedCount;
+    }
+
+    private static boolean containsAll(CityStore store, int[] ids) {
+        for (int id : ids) {
+            if (!store.containsKey(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Диапазон или группа берётся из снимка без копирования, обход - O(k). Если своих
+    // городов там нет, до БД можно не ходить.
+    private static int countOwned(Collection<City> range, String ownerId) {
+        int owned = 0;
+        for (City city : range) {
+            if (ownerId.equals(city.getOwnerId())) {
+                owned++;
+            }
+        }
+        return owned;
     }
 
     public int removeAllByStandardOfLiving(StandardOfLiving standard, String ownerId) throws SQLException {
-        int removedCount = databaseManager.deleteCitiesByStandardOfLiving(standard, ownerId);
-        if (removedCount > 0) {
-            loadCollectionFromDb();
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            if (countOwned(snapshot.byStandardOfLiving(standard), ownerId) == 0) {
+                return 0;
+            }
+            return removeFromSnapshot(cityWriter.deleteCitiesByStandardOfLiving(standard, ownerId));
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
         }
-        return removedCount;
     }
 
     public int clearCollection(String ownerId) throws SQLException {
-        int removedCount = databaseManager.clearCities(ownerId);
-        if (removedCount > 0) {
-            loadCollectionFromDb();
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            return removeFromSnapshot(cityWriter.clearCities(ownerId));
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
         }
-        return removedCount;
     }
 
     public boolean replaceIfGreater(Integer key, City newCity, String ownerId) throws ValidationException, SQLException {
-        if (!collection.containsKey(key)) {
+        ReentrantLock ownerLock = ownerLock(ownerId);
+        ownerLock.lock();
+        persistLock.readLock().lock();
+        try {
+            City oldCity = snapshot.get(key);
+            if (oldCity == null) {
+                return false;
+            }
+            if (newCity.getPopulation() > oldCity.getPopulation()) {
+                newCity.setId(oldCity.getId());
+                newCity.setOwnerId(ownerId);
+                newCity.validate();
+
+                boolean dbUpdated = cityWriter.updateCity(newCity, ownerId);
+                if (dbUpdated) {
+                    publish(newCity);
+                    return true;
+                }
+            }
             return false;
+        } finally {
+            persistLock.readLock().unlock();
+            ownerLock.unlock();
         }
-        City oldCity = collection.get(key);
-        if (newCity.getPopulation() > oldCity.getPopulation()) {
-            newCity.setId(oldCity.getId());
-            newCity.setOwnerId(ownerId);
-            newCity.validate();
+    }
 
-            boolean dbUpdated = databaseManager.updateCity(newCity, ownerId);
-            if (dbUpdated) {
-                collection.put(key, newCity);
-                return true;
+    private ReentrantLock ownerLock(String ownerId) {
+        return ownerLocks[Math.floorMod(ownerId.hashCode(), ownerLocks.length)];
+    }
+
+    // Публикует снимок с добавленным или заменённым городом
+    private void publish(City city) {
+        writeLock.lock();
+        try {
+            snapshot = snapshot.withPut(city);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Убирает из коллекции уже удалённые из БД города: O(k log n) вместо перезагрузки всей таблицы.
+     * @return Количество удалённых городов.
+     */
+    private int removeFromSnapshot(int[] removedIds) {
+        if (removedIds.length > 0) {
+            writeLock.lock();
+            try {
+                snapshot = snapshot.withRemoved(removedIds);
+            } finally {
+                writeLock.unlock();
             }
         }
-        return false;
+        return removedIds.length;
     }
 
     public String getCollectionInfo() {
+        CityStore current = snapshot;
+        CityAggregates aggregates = current.aggregates();
         return String.format(
-                "Тип: %s\nДата инициализации: %s\nКоличество элементов: %d",
-                collection.getClass().getName(),
+                "Тип: %s\nДата инициализации: %s\nКоличество элементов: %d\nВерсия снимка: %d\n"
+                        + "Суммарное население: %d\nСредняя площадь: %.2f\nСреднее население: %.2f\n"
+                        + "Средняя высота над уровнем моря: %.2f\nПул соединений с БД: %s%s",
+                current.getClass().getName(),
                 initializationDate.toString(),
-                collection.size()
+                current.size(),
+                current.getVersion(),
+                aggregates.getPopulationSum(),
+                aggregates.averageArea(),
+                aggregates.averagePopulation(),
+                aggregates.averageMetersAboveSeaLevel(),
+                databaseManager.getPoolStats(),
+                writeBehindWriter != null ? "\nОтложенная запись: " + writeBehindWriter.getStats() : ""
         );
     }
 
+    /**
+     * Города в естественном порядке City: у объектного движка - готовый индекс снимка,
+     * у колоночного - сортировка примитивных ключей.
+     */
     public Collection<City> getSortedCollection() {
-        return collection.values().stream()
-                .sorted()
-                .collect(Collectors.toList());
+        return snapshot.sortedByMetersAboveSeaLevel();
     }
 
+    /**
+     * Города, название которых начинается с prefix, в порядке названий.
+     * У объектного движка - O(log n + k) по индексу, у колоночного - проход по колонке названий.
+     */
     public List<City> filterStartsWithName(String prefix) {
-        return collection.values().stream()
-                .filter(city -> city.getName().startsWith(prefix))
-                .collect(Collectors.toList());
+        return snapshot.filterStartsWithName(prefix);
     }
 
     public double getAverageMetersAboveSeaLevel() {
-        return collection.values().stream()
-                .filter(city -> city.getMetersAboveSeaLevel() != null)
-                .mapToDouble(City::getMetersAboveSeaLevel)
-                .average()
-                .orElse(0.0);
+        return snapshot.aggregates().averageMetersAboveSeaLevel();
     }
 
-    public Hashtable<Integer, City> getCollection() {
-        return collection;
+    public int countByStandardOfLiving(StandardOfLiving standard) {
+        return snapshot.byStandardOfLiving(standard).size();
     }
 
-    public boolean containsKey(Integer key) {
-        return collection.containsKey(key);
+    /**
+     * Города с данным уровнем жизни по возрастанию ID.
+     */
+    public List<City> filterByStandardOfLiving(StandardOfLiving standard) {
+        return new ArrayList<>(snapshot.byStandardOfLiving(standard));
     }
 
-    public Set<Integer> getKeys() {
-        return collection.keySet();
+    public boolean containsKey(Integer key) {
+        return snapshot.containsKey(key);
     }
 
+    /**
+     * Останавливает периодическую запись снимка (или очистку удалений), переносит в БД остаток журнала, пишет последний
+     * снимок и закрывает соединения с БД.
+     */
     public void closeDatabaseConnection() {
+        if (maintenanceScheduler != null) {
+            maintenanceScheduler.shutdown();
+            try {
+                maintenanceScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (writeBehindWriter != null) {
+            writeBehindWriter.close();
+        }
+        saveSnapshotQuietly();
         databaseManager.closeConnection();
     }
 }
@@ -0,0 +1,212 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Government;
+import org.example.database.models.StandardOfLiving;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Неизменяемый снимок коллекции с номером версии - движок хранения по умолчанию. CollectionManager
+ * публикует новый снимок после каждого изменения; читатель берёт текущий один раз и работает с ним
+ * без блокировок, не мешая писателям и не видя их промежуточных состояний.
+ * Вместе с городами в снимок входят вторичные индексы по enum-полям, названию и высоте и суммы
+ * по числовым полям, поэтому они всегда согласованы с основной картой.
+ * Опубликованные в снимке объекты City не изменяются.
+ * <p>
+ * Цена по памяти: на каждый город приходится до шести узлов дерамид (основная карта, три
+ * enum-индекса, название, высота) - около 224 байт против ~48 байт записи Hashtable с Integer-ключом.
+ * На 2 млн городов живая куча выходит около 1250 МБ вместо ~920 МБ у прежней Hashtable.
+ * Узлы нужны ради копирования пути за O(log n) при записи; отсортированные массивы пришлось бы
+ * копировать целиком на каждое изменение. Когда важнее память, есть движки columnar и offheap.
+ */
+public final class CollectionSnapshot implements CityStore {
+    public static final CollectionSnapshot EMPTY = new CollectionSnapshot(0, PersistentIntMap.empty(),
+            EnumIndex.empty(StandardOfLiving.class, City::getStandardOfLiving),
+            EnumIndex.empty(Climate.class, City::getClimate),
+            EnumIndex.empty(Government.class, City::getGovernment), NameIndex.EMPTY,
+            SortedCityIndex.empty(City::compareTo), CityAggregates.EMPTY);
+
+    private final long version;
+    private final PersistentIntMap<City> cities;
+    private final EnumIndex<StandardOfLiving> byStandardOfLiving;
+    private final EnumIndex<Climate> byClimate;
+    private final EnumIndex<Government> byGovernment;
+    private final NameIndex byName;
+    private final SortedCityIndex byMetersAboveSeaLevel;
+    private final CityAggregates aggregates;
+
+    private CollectionSnapshot(long version, PersistentIntMap<City> cities, EnumIndex<StandardOfLiving> byStandardOfLiving,
+                               EnumIndex<Climate> byClimate, EnumIndex<Government> byGovernment, NameIndex byName,
+                               SortedCityIndex byMetersAboveSeaLevel, CityAggregates aggregates) {
+        this.version = version;
+        this.cities = cities;
+        this.byStandardOfLiving = byStandardOfLiving;
+        this.byClimate = byClimate;
+        this.byGovernment = byGovernment;
+        this.byName = byName;
+        this.byMetersAboveSeaLevel = byMetersAboveSeaLevel;
+        this.aggregates = aggregates;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int size() {
+        return cities.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return cities.isEmpty();
+    }
+
+    @Override
+    public City get(int id) {
+        return cities.get(id);
+    }
+
+    @Override
+    public boolean containsKey(int id) {
+        return cities.containsKey(id);
+    }
+
+    @Override
+    public Collection<City> values() {
+        return cities.values();
+    }
+
+    @Override
+    public Collection<City> range(int fromKey, int toKey) {
+        return cities.tailMap(fromKey, true).headMap(toKey, true).values();
+    }
+
+    @Override
+    public List<City> filterStartsWithName(String prefix) {
+        return byName.startingWith(prefix);
+    }
+
+    @Override
+    public Collection<City> sortedByMetersAboveSeaLevel() {
+        return byMetersAboveSeaLevel.values();
+    }
+
+    @Override
+    public Collection<City> byStandardOfLiving(StandardOfLiving standard) {
+        return byStandardOfLiving.get(standard).values();
+    }
+
+    @Override
+    public CityAggregates aggregates() {
+        return aggregates;
+    }
+
+    public EnumIndex<StandardOfLiving> byStandardOfLiving() {
+        return byStandardOfLiving;
+    }
+
+    public EnumIndex<Climate> byClimate() {
+        return byClimate;
+    }
+
+    public EnumIndex<Government> byGovernment() {
+        return byGovernment;
+    }
+
+    public NameIndex byName() {
+        return byName;
+    }
+
+    public SortedCityIndex byMetersAboveSeaLevel() {
+        return byMetersAboveSeaLevel;
+    }
+
+    /**
+     * Индексы строятся заново за O(n), индексы с сортировкой - за O(n log n).
+     */
+    @Override
+    public CollectionSnapshot withAll(int[] ids, City[] newCities, int count) {
+        PersistentIntMap<City> map = PersistentIntMap.fromSorted(ids, newCities, count);
+        Collection<City> ordered = map.values();
+        return new CollectionSnapshot(version + 1, map, byStandardOfLiving.rebuild(ordered),
+                byClimate.rebuild(ordered), byGovernment.rebuild(ordered), byName.rebuild(ordered),
+                byMetersAboveSeaLevel.rebuild(ordered), CityAggregates.of(ordered));
+    }
+
+    @Override
+    public CollectionSnapshot withPut(City city) {
+        City old = cities.get(city.getId());
+        return new CollectionSnapshot(version + 1, cities.put(city.getId(), city),
+                byStandardOfLiving.replaced(old, city), byClimate.replaced(old, city), byGovernment.replaced(old, city),
+                byName.replaced(old, city), byMetersAboveSeaLevel.replaced(old, city),
+                aggregates.replaced(old, city));
+    }
+
+    @Override
+    public CollectionSnapshot withRemoved(int[] ids) {
+        PersistentIntMap<City> newCities = cities;
+        EnumIndex<StandardOfLiving> newByStandard = byStandardOfLiving;
+        EnumIndex<Climate> newByClimate = byClimate;
+        EnumIndex<Government> newByGovernment = byGovernment;
+        NameIndex newByName = byName;
+        SortedCityIndex newByMeters = byMetersAboveSeaLevel;
+        CityAggregates newAggregates = aggregates;
+        for (int id : ids) {
+            City old = newCities.get(id);
+            if (old == null) {
+                continue;
+            }
+            newCities = newCities.remove(id);
+            newByStandard = newByStandard.replaced(old, null);
+            newByClimate = newByClimate.replaced(old, null);
+            newByGovernment = newByGovernment.replaced(old, null);
+            newByName = newByName.replaced(old, null);
+            newByMeters = newByMeters.replaced(old, null);
+            newAggregates = newAggregates.replaced(old, null);
+        }
+        return new CollectionSnapshot(version + 1, newCities, newByStandard, newByClimate, newByGovernment, newByName,
+                newByMeters, newAggregates);
+    }
+
+    /**
+     * Диапазон у края коллекции отрезается целиком за O(log n) без перестройки основной карты,
+     * индексы правятся за O(k log n).
+     */
+    @Override
+    public CollectionSnapshot withoutRange(int fromKey, int toKey) {
+        PersistentIntMap<City> below = cities.headMap(fromKey, false);
+        PersistentIntMap<City> above = cities.tailMap(toKey, false);
+        Collection<City> removed = range(fromKey, toKey);
+        if (!below.isEmpty() && !above.isEmpty()) {
+            // Дыра в середине: склеивать две карты незачем, удаляем по одному
+            int[] ids = new int[removed.size()];
+            int i = 0;
+            for (City city : removed) {
+                ids[i++] = city.getId();
+            }
+            return withRemoved(ids);
+        }
+        PersistentIntMap<City> kept = below.isEmpty() ? above : below;
+        EnumIndex<StandardOfLiving> newByStandard = byStandardOfLiving;
+        EnumIndex<Climate> newByClimate = byClimate;
+        EnumIndex<Government> newByGovernment = byGovernment;
+        NameIndex newByName = byName;
+        SortedCityIndex newByMeters = byMetersAboveSeaLevel;
+        CityAggregates newAggregates = aggregates;
+        for (City old : removed) {
+            newByStandard = newByStandard.replaced(old, null);
+            newByClimate = newByClimate.replaced(old, null);
+            newByGovernment = newByGovernment.replaced(old, null);
+            newByName = newByName.replaced(old, null);
+            newByMeters = newByMeters.replaced(old, null);
+            newAggregates = newAggregates.replaced(old, null);
+        }
+        return new CollectionSnapshot(version + 1, kept, newByStandard, newByClimate, newByGovernment, newByName,
+                newByMeters, newAggregates);
+    }
+}
@@ -0,0 +1,401 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.StandardOfLiving;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Колоночный движок хранения (COLLECTION_STORAGE=columnar или offheap). Основная часть городов
+ * лежит в неизменяемом наборе строк {@link CityRows}, упорядоченном по ID: колонках в куче
+ * ({@link CityColumns}) или записях вне кучи ({@link OffHeapCityRecords}). Изменения после последней
+ * упаковки - в небольшом постоянном слое: upserts (новые и заменённые города) и deleted
+ * (ID удалённых строк набора). Когда слой дорастает до 1/8 набора, писатель перепаковывает
+ * всё в новый набор того же вида за O(n) - в среднем O(1) на изменение.
+ * <p>
+ * Снимок неизменяем, как и {@link CollectionSnapshot}, поэтому читатели работают без блокировок.
+ * Вторичных индексов нет: фильтры и подсчёты - последовательный проход по нужной колонке,
+ * а City собираются только для попавших в результат строк. Суммы для средних ведутся так же,
+ * как в объектном движке.
+ */
+public final class ColumnarSnapshot implements CityStore {
+    public static final ColumnarSnapshot EMPTY = new ColumnarSnapshot(0, CityColumns.EMPTY,
+            PersistentIntMap.empty(), PersistentIntMap.empty(), 0, CityAggregates.EMPTY);
+    public static final ColumnarSnapshot OFF_HEAP_EMPTY = new ColumnarSnapshot(0, OffHeapCityRecords.EMPTY,
+            PersistentIntMap.empty(), PersistentIntMap.empty(), 0, CityAggregates.EMPTY);
+
+    // Мелкие изменения не стоят перепаковки даже небольшой коллекции
+    private static final int MIN_CHANGES_TO_COMPACT = 1024;
+
+    private final long version;
+    private final CityRows base;
+    private final PersistentIntMap<City> upserts;
+    private final PersistentIntMap<Integer> deleted;
+    private final int size;
+    private final CityAggregates aggregates;
+
+    private ColumnarSnapshot(long version, CityRows base, PersistentIntMap<City> upserts,
+                             PersistentIntMap<Integer> deleted, int size, CityAggregates aggregates) {
+        this.version = version;
+        this.base = base;
+        this.upserts = upserts;
+        this.deleted = deleted;
+        this.size = size;
+        this.aggregates = aggregates;
+    }
+
+    private ColumnarSnapshot next(PersistentIntMap<City> newUpserts, PersistentIntMap<Integer> newDeleted,
+                                  int newSize, CityAggregates newAggregates) {
+        ColumnarSnapshot result = new ColumnarSnapshot(version + 1, base, newUpserts, newDeleted, newSize, newAggregates);
+        int changes = newUpserts.size() + newDeleted.size();
+        if (changes >= MIN_CHANGES_TO_COMPACT && changes > base.size / 8) {
+            return result.compacted();
+        }
+        return result;
+    }
+
+    /**
+     * Та же версия, но слой изменений влит в новый набор строк.
+     */
+    private ColumnarSnapshot compacted() {
+        CityRows.Builder builder = base.newBuilder(size);
+        Cursor cursor = new Cursor(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        while (cursor.advance()) {
+            if (cursor.city != null) {
+                builder.add(cursor.city);
+            } else {
+                builder.copy(base, cursor.slot);
+            }
+        }
+        return new ColumnarSnapshot(version, builder.build(), PersistentIntMap.empty(), PersistentIntMap.empty(),
+                size, aggregates);
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public City get(int id) {
+        return find(id, upserts, deleted);
+    }
+
+    private City find(int id, PersistentIntMap<City> inUpserts, PersistentIntMap<Integer> inDeleted) {
+        City city = inUpserts.get(id);
+        if (city != null) {
+            return city;
+        }
+        if (inDeleted.containsKey(id)) {
+            return null;
+        }
+        int slot = base.slotOf(id);
+        return slot < 0 ? null : base.city(slot);
+    }
+
+    @Override
+    public boolean containsKey(int id) {
+        return upserts.containsKey(id) || (!deleted.containsKey(id) && base.slotOf(id) >= 0);
+    }
+
+    @Override
+    public Collection<City> values() {
+        return new View(Integer.MIN_VALUE, Integer.MAX_VALUE, slot -> true, city -> true, size);
+    }
+
+    @Override
+    public Collection<City> range(int fromKey, int toKey) {
+        return new View(fromKey, toKey, slot -> true, city -> true, -1);
+    }
+
+    @Override
+    public List<City> filterStartsWithName(String prefix) {
+        List<City> result = new ArrayList<>();
+        for (City city : new View(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                base.nameFilter(prefix), city -> city.getName().startsWith(prefix), -1)) {
+            result.add(city);
+        }
+        // Совпадений обычно немного, порядок - как у индекса объектного движка
+        result.sort(Comparator.comparing(City::getName).thenComparingInt(City::getId));
+        return result;
+    }
+
+    /**
+     * Сортирует только примитивные ключи: высота в старших 32 битах, номер строки - в младших.
+     */
+    @Override
+    public Collection<City> sortedByMetersAboveSeaLevel() {
+        // Номер строки >= 0 - слот колонок, < 0 - город из слоя изменений
+        int[] rows = new int[size];
+        List<City> changed = new ArrayList<>();
+        long[] keys = new long[size];
+        int count = 0;
+        Cursor cursor = new Cursor(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        while (cursor.advance()) {
+            Float height;
+            if (cursor.city != null) {
+                rows[count] = -1 - changed.size();
+                changed.add(cursor.city);
+                height = cursor.city.getMetersAboveSeaLevel();
+            } else {
+                rows[count] = cursor.slot;
+                height = base.metersAt(cursor.slot);
+            }
+            // Строки идут по возрастанию ID, так что равные высоты останутся упорядочены по ID
+            keys[count] = ((long) sortableBits(height) << 32) | count;
+            count++;
+        }
+        Arrays.sort(keys, 0, count);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = rows[(int) keys[i]];
+        }
+        return new RowList(order, changed);
+    }
+
+    // Порядок как у Float.compare, null - раньше всех
+    private static int sortableBits(Float value) {
+        if (value == null) {
+            return Integer.MIN_VALUE;
+        }
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<City> byStandardOfLiving(StandardOfLiving standard) {
+        int ordinal = standard.ordinal();
+        return new View(Integer.MIN_VALUE, Integer.MAX_VALUE, slot -> base.standardOrdinal(slot) == ordinal,
+                city -> city.getStandardOfLiving() == standard, -1);
+    }
+
+    @Override
+    public CityAggregates aggregates() {
+        return aggregates;
+    }
+
+    @Override
+    public ColumnarSnapshot withAll(int[] ids, City[] cities, int count) {
+        CityRows.Builder builder = base.newBuilder(count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && ids[i] <= ids[i - 1]) {
+                throw new IllegalArgumentException("Ключи должны строго возрастать: " + ids[i - 1] + ", " + ids[i]);
+            }
+            builder.add(cities[i]);
+        }
+        return new ColumnarSnapshot(version + 1, builder.build(), PersistentIntMap.empty(), PersistentIntMap.empty(),
+                count, CityAggregates.of(Arrays.asList(cities).subList(0, count)));
+    }
+
+    @Override
+    public ColumnarSnapshot withPut(City city) {
+        City old = get(city.getId());
+        return next(upserts.put(city.getId(), city), deleted.remove(city.getId()), old == null ? size + 1 : size,
+                aggregates.replaced(old, city));
+    }
+
+    @Override
+    public ColumnarSnapshot withRemoved(int[] ids) {
+        PersistentIntMap<City> newUpserts = upserts;
+        PersistentIntMap<Integer> newDeleted = deleted;
+        int newSize = size;
+        CityAggregates newAggregates = aggregates;
+        for (int id : ids) {
+            City old = find(id, newUpserts, newDeleted);
+            if (old == null) {
+                continue;
+            }
+            newUpserts = newUpserts.remove(id);
+            if (base.slotOf(id) >= 0) {
+                newDeleted = newDeleted.put(id, id);
+            }
+            newSize--;
+            newAggregates = newAggregates.replaced(old, null);
+        }
+        return next(newUpserts, newDeleted, newSize, newAggregates);
+    }
+
+    @Override
+    public ColumnarSnapshot withoutRange(int fromKey, int toKey) {
+        List<Integer> ids = new ArrayList<>();
+        Cursor cursor = new Cursor(fromKey, toKey);
+        while (cursor.advance()) {
+            ids.add(cursor.city != null ? cursor.city.getId() : base.ids[cursor.slot]);
+        }
+        return withRemoved(ids.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Обходит живые строки с ID от fromKey до toKey по возрастанию ID, сливая колонки со слоем
+     * изменений. После advance() заполнено либо city (строка из слоя), либо slot (строка колонок).
+     */
+    private final class Cursor {
+        private int nextSlot;
+        private final int endSlot;
+        private final Iterator<City> upsertIterator;
+        private final Iterator<Integer> deletedIterator;
+        private City nextUpsert;
+        private Integer nextDeleted;
+
+        City city;
+        int slot = -1;
+
+        Cursor(int fromKey, int toKey) {
+            nextSlot = base.lowerSlot(fromKey);
+            endSlot = base.upperSlot(toKey);
+            upsertIterator = upserts.tailMap(fromKey, true).headMap(toKey, true).values().iterator();
+            deletedIterator = deleted.tailMap(fromKey, true).headMap(toKey, true).values().iterator();
+            nextUpsert = upsertIterator.hasNext() ? upsertIterator.next() : null;
+            nextDeleted = deletedIterator.hasNext() ? deletedIterator.next() : null;
+        }
+
+        boolean advance() {
+            // Пропускаем удалённые строки колонок
+            while (nextSlot < endSlot && nextDeleted != null) {
+                int baseId = base.ids[nextSlot];
+                while (nextDeleted != null && nextDeleted < baseId) {
+                    nextDeleted = deletedIterator.hasNext() ? deletedIterator.next() : null;
+                }
+                if (nextDeleted == null || nextDeleted != baseId) {
+                    break;
+                }
+                nextSlot++;
+            }
+            boolean hasSlot = nextSlot < endSlot;
+            if (nextUpsert != null && (!hasSlot || nextUpsert.getId() <= base.ids[nextSlot])) {
+                if (hasSlot && nextUpsert.getId() == base.ids[nextSlot]) {
+                    // Строка колонок заменена городом из слоя
+                    nextSlot++;
+                }
+                city = nextUpsert;
+                slot = -1;
+                nextUpsert = upsertIterator.hasNext() ? upsertIterator.next() : null;
+                return true;
+            }
+            if (hasSlot) {
+                city = null;
+                slot = nextSlot++;
+                return true;
+            }
+            return false;
+        }
+
+        City current() {
+            return city != null ? city : base.city(slot);
+        }
+    }
+
+    /**
+     * Ленивое представление строк диапазона, прошедших фильтр: City собираются при обходе,
+     * размер (если не известен заранее) считается проходом по колонкам без сборки.
+     */
+    private final class View extends AbstractCollection<City> {
+        private final int fromKey;
+        private final int toKey;
+        private final IntPredicate slotFilter;
+        private final Predicate<City> cityFilter;
+        private final int knownSize;
+
+        View(int fromKey, int toKey, IntPredicate slotFilter, Predicate<City> cityFilter, int knownSize) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.slotFilter = slotFilter;
+            this.cityFilter = cityFilter;
+            this.knownSize = knownSize;
+        }
+
+        private boolean matches(Cursor cursor) {
+            return cursor.city != null ? cityFilter.test(cursor.city) : slotFilter.test(cursor.slot);
+        }
+
+        @Override
+        public Iterator<City> iterator() {
+            Cursor cursor = new Cursor(fromKey, toKey);
+            return new Iterator<City>() {
+                private boolean ready;
+                private boolean hasNext;
+
+                @Override
+                public boolean hasNext() {
+                    if (!ready) {
+                        hasNext = cursor.advance();
+                        while (hasNext && !matches(cursor)) {
+                            hasNext = cursor.advance();
+                        }
+                        ready = true;
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public City next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ready = false;
+                    return cursor.current();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            if (knownSize >= 0) {
+                return knownSize;
+            }
+            int count = 0;
+            Cursor cursor = new Cursor(fromKey, toKey);
+            while (cursor.advance()) {
+                if (matches(cursor)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Список строк в заданном порядке; City собираются при обращении к элементу.
+     */
+    private final class RowList extends AbstractList<City> implements RandomAccess {
+        private final int[] rows;
+        private final List<City> changed;
+
+        RowList(int[] rows, List<City> changed) {
+            this.rows = rows;
+            this.changed = changed;
+        }
+
+        @Override
+        public City get(int index) {
+            int row = rows[index];
+            return row >= 0 ? base.city(row) : changed.get(-1 - row);
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+    }
+}
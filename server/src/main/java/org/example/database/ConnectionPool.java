@@ -0,0 +1,317 @@
+package org.example.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ограниченный пул JDBC-соединений. Соединение арендуется на одну операцию через {@link #lease()}
+ * и возвращается при закрытии аренды, так что независимые команды идут в БД параллельно,
+ * а не в очередь за единственным соединением.
+ * <p>
+ * Соединения открываются лениво, не больше maxSize сразу. Если все заняты, аренда ждёт
+ * не дольше acquireTimeoutMillis и бросает {@link SQLTransientConnectionException}.
+ * Соединение, простоявшее без дела дольше validateAfterMillis, перед выдачей проверяется
+ * через {@link Connection#isValid(int)}; закрытые и не прошедшие проверку соединения выбрасываются.
+ * <p>
+ * У каждого соединения свой кэш подготовленных запросов ({@link Lease#prepareStatement(String)}):
+ * повторный вызов с тем же SQL отдаёт тот же PreparedStatement, и драйвер после нескольких
+ * выполнений переходит на подготовленный на сервере план. Время ожидания аренды и попадания
+ * в кэш копятся в счётчиках - см. {@link #getStats()}.
+ */
+public class ConnectionPool {
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final Properties properties;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long validateAfterMillis;
+    private final int statementCacheSize;
+    // Разрешение семафора - право держать одно соединение, свободное или арендованное
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed;
+
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong waitedLeases = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+
+    /**
+     * Соединение и его кэш запросов. В каждый момент принадлежит одному арендатору
+     * или лежит в idle, поэтому кэш - обычная карта без синхронизации.
+     */
+    private final class PooledConnection {
+        final Connection connection;
+        // Порядок доступа: при переполнении закрывается запрос, который дольше всех не нужен
+        final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                statementEvictions.incrementAndGet();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+        long releasedAt;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * @param statementCacheSize сколько подготовленных запросов держать открытыми на одно соединение
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize, long acquireTimeoutMillis,
+                          long validateAfterMillis, int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Размер пула должен быть положительным: " + maxSize);
+        }
+        this.url = url;
+        this.properties = new Properties();
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+        // Подключение не должно ждать дольше, чем сама аренда
+        properties.setProperty("loginTimeout", String.valueOf(Math.max(1, acquireTimeoutMillis / 1000)));
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Соединение, арендованное на одну операцию. Транзакцию внутри аренды нужно завершить
+     * (commit или rollback) до закрытия; незавершённая откатывается при возврате в пул.
+     */
+    public final class Lease implements AutoCloseable {
+        private PooledConnection pooled;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        private PooledConnection pooled() {
+            if (pooled == null) {
+                throw new IllegalStateException("Аренда уже закрыта");
+            }
+            return pooled;
+        }
+
+        public Connection connection() {
+            return pooled().connection;
+        }
+
+        /**
+         * Подготовленный запрос из кэша соединения. Закрывать его не нужно (и нельзя) -
+         * он переживает аренду; параметры прошлого выполнения уже сброшены.
+         */
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            PooledConnection current = pooled();
+            PreparedStatement statement = current.statements.get(sql);
+            if (statement != null && !statement.isClosed()) {
+                statementHits.incrementAndGet();
+                statement.clearParameters();
+                return statement;
+            }
+            statementMisses.incrementAndGet();
+            statement = current.connection.prepareStatement(sql);
+            current.statements.put(sql, statement);
+            return statement;
+        }
+
+        @Override
+        public void close() {
+            if (pooled != null) {
+                release(pooled);
+                pooled = null;
+            }
+        }
+    }
+
+    public Lease lease() throws SQLException {
+        if (closed) {
+            throw new SQLException("Пул соединений закрыт");
+        }
+        long start = System.nanoTime();
+        boolean acquired = permits.tryAcquire();
+        if (!acquired) {
+            try {
+                acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Ожидание соединения с БД прервано", e);
+            }
+            long waited = System.nanoTime() - start;
+            waitedLeases.incrementAndGet();
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            if (!acquired) {
+                timeouts.incrementAndGet();
+                throw new SQLTransientConnectionException("Нет свободного соединения с БД за " + acquireTimeoutMillis
+                        + " мс (занято " + maxSize + " из " + maxSize + ")");
+            }
+        }
+        try {
+            PooledConnection pooled = takeIdle();
+            leases.incrementAndGet();
+            return new Lease(pooled != null ? pooled : open());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Свежие соединения берём с головы, давно простаивающие проверяем перед выдачей
+    private PooledConnection takeIdle() {
+        PooledConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - candidate.releasedAt < validateAfterMillis || isValid(candidate.connection)) {
+                return candidate;
+            }
+            discard(candidate.connection, "не прошло проверку");
+        }
+        return null;
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, properties);
+        try {
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        opened.incrementAndGet();
+        logger.fine("Открыто соединение с БД, всего открывалось: " + opened.get());
+        return new PooledConnection(connection);
+    }
+
+    private void release(PooledConnection pooled) {
+        Connection connection = pooled.connection;
+        try {
+            if (closed || connection.isClosed()) {
+                discard(connection, closed ? "пул закрыт" : "соединение закрыто");
+            } else {
+                // Незавершённая транзакция (или прерванная ошибкой) не должна достаться следующему
+                // арендатору; без открытой транзакции драйвер ничего не отправляет
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                pooled.releasedAt = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+                if (closed) {
+                    // Пул закрыли, пока соединение возвращалось
+                    close();
+                }
+            }
+        } catch (SQLException e) {
+            discard(connection, e.getMessage());
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "Ошибка при закрытии запроса: " + e.getMessage(), e);
+        }
+    }
+
+    // Вместе с соединением закрываются и его подготовленные запросы
+    private void discard(Connection connection, String reason) {
+        discarded.incrementAndGet();
+        logger.info("Соединение с БД выброшено из пула: " + reason);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "Ошибка при закрытии соединения: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Закрывает свободные соединения; арендованные закроются при возврате.
+     */
+    public void close() {
+        closed = true;
+        PooledConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            try {
+                candidate.connection.close();
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Ошибка при закрытии соединения: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getLeaseCount() {
+        return leases.get();
+    }
+
+    public long getWaitedLeaseCount() {
+        return waitedLeases.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getStatementHitCount() {
+        return statementHits.get();
+    }
+
+    public long getStatementMissCount() {
+        return statementMisses.get();
+    }
+
+    public String getStats() {
+        long waited = waitedLeases.get();
+        return String.format("соединений %d/%d, аренд %d, из них с ожиданием %d (в среднем %.2f мс, максимум %.2f мс), "
+                        + "таймаутов %d, открыто %d, выброшено %d; кэш запросов: попаданий %d, промахов %d, вытеснено %d",
+                getActiveCount(), maxSize, leases.get(), waited,
+                waited == 0 ? 0.0 : totalWaitNanos.get() / 1e6 / waited, maxWaitNanos.get() / 1e6,
+                timeouts.get(), opened.get(), discarded.get(),
+                statementHits.get(), statementMisses.get(), statementEvictions.get());
+    }
+}
@@ -1,13 +1,22 @@
 package org.example.database;
 
+import org.example.database.interfaces.CityWriter;
 import org.example.database.models.*;
 import java.sql.*;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.Date;
 
-public class DatabaseManager {
+public class DatabaseManager implements CityWriter {
     private static final Logger logger = Logger.getLogger(DatabaseManager.class.getName());
 
     private static final String DB_HOST = System.getenv("DB_HOST") != null ? System.getenv("DB_HOST") : "db";
@@ -57,18 +66,192 @@ public class DatabaseManager {
             ADD COLUMN IF NOT EXISTS governor_id INTEGER REFERENCES governors(id) ON DELETE SET NULL;
             """;
 
-    private Connection connection;
+    // Отметка изменений: каждая вставка и каждое обновление города берут новое значение последовательности,
+    // удаление оставляет надгробие с ним же. По отметке снимок на диске догружает только изменившееся
+    private static final String CREATE_CHANGE_TRACKING_SQL = """
+            CREATE SEQUENCE IF NOT EXISTS city_change_seq;
+            ALTER TABLE cities ADD COLUMN IF NOT EXISTS change_version BIGINT NOT NULL DEFAULT nextval('city_change_seq');
+            CREATE INDEX IF NOT EXISTS cities_change_version_idx ON cities (change_version);
+            CREATE TABLE IF NOT EXISTS deleted_cities (
+                city_id INTEGER PRIMARY KEY,
+                change_version BIGINT NOT NULL DEFAULT nextval('city_change_seq')
+            );
+            CREATE INDEX IF NOT EXISTS deleted_cities_change_version_idx ON deleted_cities (change_version);
+
+            CREATE OR REPLACE FUNCTION cities_touch_change_version() RETURNS trigger AS $$
+            BEGIN
+                NEW.change_version := nextval('city_change_seq');
+                RETURN NEW;
+            END;
+            $$ LANGUAGE plpgsql;
+            DROP TRIGGER IF EXISTS cities_touch_change_version ON cities;
+            CREATE TRIGGER cities_touch_change_version BEFORE UPDATE ON cities
+                FOR EACH ROW EXECUTE PROCEDURE cities_touch_change_version();
+
+            CREATE OR REPLACE FUNCTION cities_record_deletion() RETURNS trigger AS $$
+            BEGIN
+                INSERT INTO deleted_cities (city_id) VALUES (OLD.id);
+                RETURN OLD;
+            END;
+            $$ LANGUAGE plpgsql;
+            DROP TRIGGER IF EXISTS cities_record_deletion ON cities;
+            CREATE TRIGGER cities_record_deletion AFTER DELETE ON cities
+                FOR EACH ROW EXECUTE PROCEDURE cities_record_deletion();
+            """;
+
+    // Губернатор (если задан), город и координаты за один оператор; вставленный в CTE город
+    // виден проверкам внешних ключей, потому что они выполняются в конце оператора.
+    // Имя губернатора приводится к VARCHAR без длины: приведение к VARCHAR(255) молча обрезало бы
+    // длинное имя, а так слишком длинное отвергает столбец, как и при обычном INSERT
+    private static final String INSERT_CITY_SQL = """
+            WITH new_governor AS (
+                INSERT INTO governors (name)
+                SELECT name FROM (VALUES (CAST(? AS VARCHAR))) AS g(name)
+                WHERE name IS NOT NULL
+                RETURNING id
+            ), new_city AS (
+                INSERT INTO cities (name, area, population, meters_above_sea_level, climate, government, standard_of_living, owner_id, governor_id)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, (SELECT id FROM new_governor))
+                RETURNING id
+            ), new_coordinates AS (
+                INSERT INTO coordinates (city_id, x, y)
+                SELECT id, ?, ? FROM new_city
+            )
+            SELECT id FROM new_city;
+            """;
+
+    // target - строка города, если она принадлежит владельцу; без неё ни один CTE ничего не меняет.
+    // Губернатор: был и есть - переименовать, не было - создать, был и нет - удалить.
+    // Ссылка города на удалённого губернатора обнуляется тем же UPDATE, до срабатывания ON DELETE SET NULL
+    private static final String UPDATE_CITY_CTES = """
+            WITH target AS (
+                SELECT id, governor_id FROM cities
+                WHERE id = ? AND owner_id = ?
+                FOR UPDATE
+            ), new_governor AS (
+                SELECT CAST(? AS VARCHAR) AS name
+            ), renamed_governor AS (
+                UPDATE governors SET name = new_governor.name
+                FROM target, new_governor
+                WHERE governors.id = target.governor_id AND new_governor.name IS NOT NULL
+                RETURNING governors.id
+            ), inserted_governor AS (
+                INSERT INTO governors (name)
+                SELECT new_governor.name FROM target, new_governor
+                WHERE target.governor_id IS NULL AND new_governor.name IS NOT NULL
+                RETURNING id
+            ), deleted_governor AS (
+                DELETE FROM governors
+                USING target, new_governor
+                WHERE governors.id = target.governor_id AND new_governor.name IS NULL
+            ), updated_city AS (
+                UPDATE cities SET
+                    name = ?, area = ?, population = ?, meters_above_sea_level = ?,
+                    climate = ?, government = ?, standard_of_living = ?,
+                    governor_id = COALESCE((SELECT id FROM renamed_governor), (SELECT id FROM inserted_governor))
+                FROM target
+                WHERE cities.id = target.id
+                RETURNING cities.id
+            )
+            """;
+    private static final String UPDATE_CITY_SQL = UPDATE_CITY_CTES + """
+            , updated_coordinates AS (
+                UPDATE coordinates SET x = ?, y = ?
+                FROM updated_city
+                WHERE coordinates.city_id = updated_city.id
+            )
+            SELECT count(*) FROM updated_city;
+            """;
+
+    // Применение журнала отложенной записи: те же операторы, но без результата, чтобы их можно было
+    // отправлять пакетами, и вставка - с ID, выданным заранее (reserveCityIds)
+    private static final String APPLY_INSERT_SQL = """
+            WITH new_governor AS (
+                INSERT INTO governors (name)
+                SELECT name FROM (VALUES (CAST(? AS VARCHAR))) AS g(name)
+                WHERE name IS NOT NULL
+                RETURNING id
+            ), new_city AS (
+                INSERT INTO cities (id, creation_date, name, area, population, meters_above_sea_level, climate, government, standard_of_living, owner_id, governor_id)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, (SELECT id FROM new_governor))
+                RETURNING id
+            )
+            INSERT INTO coordinates (city_id, x, y)
+            SELECT id, ?, ? FROM new_city;
+            """;
+    private static final String APPLY_UPDATE_SQL = UPDATE_CITY_CTES + """
+            UPDATE coordinates SET x = ?, y = ?
+            FROM updated_city
+            WHERE coordinates.city_id = updated_city.id;
+            """;
+    private static final String APPLY_DELETE_SQL = "DELETE FROM cities WHERE owner_id = ? AND id = ANY(?);";
+    // Номер последней записи журнала, уже применённой к БД; меняется в той же транзакции, что и данные
+    private static final String CREATE_JOURNAL_CHECKPOINT_TABLE_SQL = """
+            CREATE TABLE IF NOT EXISTS journal_checkpoint (
+                id INTEGER PRIMARY KEY,
+                sequence BIGINT NOT NULL
+            );
+            """;
+    private static final String SAVE_JOURNAL_CHECKPOINT_SQL = """
+            INSERT INTO journal_checkpoint (id, sequence) VALUES (1, ?)
+            ON CONFLICT (id) DO UPDATE SET sequence = EXCLUDED.sequence;
+            """;
+
+    private static final String SELECT_CITIES_SQL = """
+            SELECT
+                c.id, c.name, c.creation_date, c.area, c.population, c.meters_above_sea_level,
+                c.climate, c.government, c.standard_of_living, c.owner_id,
+                coord.x, coord.y,
+                g.name AS governor_name
+            FROM cities c
+            JOIN coordinates coord ON c.id = coord.city_id
+            LEFT JOIN governors g ON c.governor_id = g.id
+            """;
+    private static final String LOAD_CITIES_SQL = SELECT_CITIES_SQL + "WHERE c.id BETWEEN ? AND ? ORDER BY c.id;";
+    private static final String LOAD_CHANGED_CITIES_SQL = SELECT_CITIES_SQL + "WHERE c.change_version > ? ORDER BY c.id;";
+    private static final String CHANGE_MARK_SQL =
+            "SELECT CASE WHEN is_called THEN last_value ELSE 0 END FROM city_change_seq;";
+
+    // Размер пула, таймаут ожидания соединения и простой, после которого соединение проверяется
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final long DEFAULT_POOL_TIMEOUT_MILLIS = 10_000;
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30_000;
+    // Разных запросов у DatabaseManager меньше двух десятков - кэш вмещает их все
+    private static final int STATEMENT_CACHE_SIZE = 32;
+    // Сколько городов insert_many уходит в БД одним пакетом
+    private static final int INSERT_BATCH_SIZE = 1000;
+    // Загрузка при запуске: потоки (env DB_LOAD_THREADS), части диапазона ID на поток, строк за одно обращение курсора
+    private static final int DEFAULT_LOAD_THREADS = 4;
+    private static final int LOAD_PARTS_PER_THREAD = 4;
+    private static final int LOAD_FETCH_SIZE = 10_000;
+
+    private final ConnectionPool pool;
 
     public DatabaseManager() throws SQLException {
-        connect();
+        this(DB_URL, DB_USER, DB_PASSWORD);
+    }
+
+    /**
+     * Подключение к другой БД (нагрузочные отчёты); схема создаётся так же, если её нет.
+     */
+    public DatabaseManager(String url, String user, String password) throws SQLException {
+        String poolSizeEnv = System.getenv("DB_POOL_SIZE");
+        String poolTimeoutEnv = System.getenv("DB_POOL_TIMEOUT_MS");
+        this.pool = new ConnectionPool(url, user, password,
+                poolSizeEnv != null ? Integer.parseInt(poolSizeEnv) : DEFAULT_POOL_SIZE,
+                poolTimeoutEnv != null ? Long.parseLong(poolTimeoutEnv) : DEFAULT_POOL_TIMEOUT_MILLIS,
+                VALIDATE_AFTER_IDLE_MILLIS, STATEMENT_CACHE_SIZE);
+        connect(url, user, password);
         createTablesIfNotExist();
     }
 
-    private void connect() throws SQLException {
+    // Первое соединение открываем сразу, чтобы недоступная БД обнаружилась при запуске
+    private void connect(String url, String user, String password) throws SQLException {
+        logger.info("Попытка подключения к БД: URL=" + url + ", USER=" + user + ", PASSWORD_LENGTH="
+                + password.length() + ", размер пула: " + pool.getMaxSize());
+        // Первая аренда открывает соединение - так проверяется, что БД доступна
         try {
-            logger.info("Попытка подключения к БД: URL=" + DB_URL + ", USER=" + DB_USER + ", PASSWORD_LENGTH=" + DB_PASSWORD.length());
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            connection.setAutoCommit(false);
+            pool.lease().close();
             logger.info("Успешное подключение к базе данных PostgreSQL.");
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Ошибка подключения к базе данных: " + e.getMessage(), e);
@@ -76,375 +259,790 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Счётчики пула соединений: занятость, аренды с ожиданием, таймауты, попадания в кэш запросов.
+     */
+    public String getPoolStats() {
+        return pool.getStats();
+    }
+
     public void createTablesIfNotExist() throws SQLException {
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(CREATE_USERS_TABLE_SQL);
-            stmt.execute(CREATE_CITIES_TABLE_SQL);
-            stmt.execute(CREATE_COORDINATES_TABLE_SQL);
-            stmt.execute(CREATE_GOVERNORS_TABLE_SQL);
-            stmt.execute(ADD_GOVERNOR_FK_TO_CITIES_SQL);
-            connection.commit();
-            logger.info("Таблицы базы данных успешно созданы или уже существуют.");
-        } catch (SQLException e) {
-            connection.rollback();
-            logger.log(Level.SEVERE, "Ошибка при создании таблиц: " + e.getMessage(), e);
-            throw e;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(CREATE_USERS_TABLE_SQL);
+                stmt.execute(CREATE_CITIES_TABLE_SQL);
+                stmt.execute(CREATE_COORDINATES_TABLE_SQL);
+                stmt.execute(CREATE_GOVERNORS_TABLE_SQL);
+                stmt.execute(ADD_GOVERNOR_FK_TO_CITIES_SQL);
+                stmt.execute(CREATE_CHANGE_TRACKING_SQL);
+                stmt.execute(CREATE_JOURNAL_CHECKPOINT_TABLE_SQL);
+                connection.commit();
+                logger.info("Таблицы базы данных успешно созданы или уже существуют.");
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при создании таблиц: " + e.getMessage(), e);
+                throw e;
+            }
         }
     }
 
-    public Hashtable<Integer, City> loadCities() throws SQLException {
-        Hashtable<Integer, City> cities = new Hashtable<>();
-        String selectSql = """
-            SELECT
-                c.id, c.name, c.creation_date, c.area, c.population, c.meters_above_sea_level,
-                c.climate, c.government, c.standard_of_living, c.owner_id,
-                coord.x, coord.y,
-                g.name AS governor_name
-            FROM cities c
-            JOIN coordinates coord ON c.id = coord.city_id
-            LEFT JOIN governors g ON c.governor_id = g.id
-            ORDER BY c.id;
-            """;
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSql);
-             ResultSet rs = pstmt.executeQuery()) {
-            while (rs.next()) {
-                Integer id = rs.getInt("id");
-                String name = rs.getString("name");
-                Date creationDate = rs.getTimestamp("creation_date");
-                Integer area = rs.getInt("area");
-                Long population = rs.getLong("population");
-                Float metersAboveSeaLevel = rs.getObject("meters_above_sea_level", Float.class);
-                Climate climate = Climate.valueOf(rs.getString("climate"));
-                Government government = rs.getString("government") != null ? Government.valueOf(rs.getString("government")) : null;
-                StandardOfLiving standardOfLiving = StandardOfLiving.valueOf(rs.getString("standard_of_living"));
-                String ownerId = rs.getString("owner_id");
-
-                Integer coordX = rs.getInt("x");
-                Long coordY = rs.getObject("y", Long.class);
-                Coordinates coordinates = new Coordinates(coordX, coordY);
-
-                Human governor = rs.getString("governor_name") != null ? new Human(rs.getString("governor_name")) : null;
-
-                City city = new City(id, name, coordinates, creationDate, area, population,
-                        metersAboveSeaLevel, climate, government, standardOfLiving, governor, ownerId);
-                cities.put(id, city);
+    /**
+     * Загружает все города по возрастанию ID. Диапазон ID делится на части, которые читаются
+     * параллельно на нескольких соединениях пула; каждая часть идёт курсором по LOAD_FETCH_SIZE строк
+     * и складывается сразу в массивы, из которых снимок строится без пересортировки.
+     */
+    public LoadedCities loadCities() throws SQLException {
+        long start = System.nanoTime();
+        int minId;
+        int maxId;
+        int total;
+        long changeMark;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try (PreparedStatement pstmt = connection.prepareStatement("SELECT min(id), max(id), count(*) FROM cities;");
+                 ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                minId = rs.getInt(1);
+                maxId = rs.getInt(2);
+                total = rs.getInt(3);
+                // При запуске в БД никто не пишет: прочитанное ниже соответствует этой отметке
+                changeMark = readChangeMark(lease);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при загрузке городов из БД: " + e.getMessage(), e);
+                throw e;
+            }
+        }
+        if (total == 0) {
+            logger.info("В базе данных нет городов.");
+            LoadedCities empty = new LoadedCities(0);
+            empty.setChangeMark(changeMark);
+            return empty;
+        }
+
+        // Соединение для вставок и обновлений остаётся свободным, даже пока идёт загрузка
+        String threadsEnv = System.getenv("DB_LOAD_THREADS");
+        int threads = Math.max(1, Math.min(threadsEnv != null ? Integer.parseInt(threadsEnv) : DEFAULT_LOAD_THREADS,
+                pool.getMaxSize() - 1));
+        // Частей больше, чем потоков: неравномерно заполненные диапазоны ID не оставят потоки без работы
+        long span = (long) maxId - minId + 1;
+        int parts = (int) Math.min(span, (long) threads * LOAD_PARTS_PER_THREAD);
+        List<Future<LoadedCities>> futures = new ArrayList<>(parts);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < parts; i++) {
+                int from = (int) (minId + span * i / parts);
+                int to = (int) (minId + span * (i + 1) / parts - 1);
+                int expected = (int) ((long) total * (to - from + 1) / span);
+                futures.add(executor.submit(() -> loadCityRange(from, to, expected)));
+            }
+            List<LoadedCities> loadedParts = new ArrayList<>(parts);
+            for (Future<LoadedCities> future : futures) {
+                loadedParts.add(future.get());
+            }
+            LoadedCities cities = LoadedCities.concat(loadedParts);
+            cities.setChangeMark(changeMark);
+
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            logger.info(String.format("Коллекция городов успешно загружена из базы данных: %d строк за %d мс "
+                    + "(%d строк/с, потоков %d, частей %d).", cities.size(), millis, cities.size() * 1000L / millis, threads, parts));
+            return cities;
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("Ошибка при загрузке городов из БД: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new SQLException("Загрузка городов из БД прервана", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Города с ID от fromId до toId включительно, на отдельном соединении
+    private LoadedCities loadCityRange(int fromId, int toId, int expectedSize) throws SQLException {
+        LoadedCities cities = new LoadedCities(expectedSize);
+        // Владельцев немного, а строка владельца приходит в каждой строке результата
+        Map<String, String> owners = new HashMap<>();
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            // Курсор с fetch size работает только внутри транзакции - автофиксация в пуле выключена
+            try (PreparedStatement pstmt = connection.prepareStatement(LOAD_CITIES_SQL)) {
+                pstmt.setFetchSize(LOAD_FETCH_SIZE);
+                pstmt.setInt(1, fromId);
+                pstmt.setInt(2, toId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        City city = readCity(rs, owners);
+                        cities.add(city.getId(), city);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при загрузке городов из БД: " + e.getMessage(), e);
+                throw e;
+            } catch (IllegalArgumentException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при парсинге ENUM из БД: " + e.getMessage(), e);
+                throw new SQLException("Некорректное значение ENUM в базе данных.", e);
             }
-            logger.info("Коллекция городов успешно загружена из базы данных.");
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Ошибка при загрузке городов из БД: " + e.getMessage(), e);
-            throw e;
-        } catch (IllegalArgumentException e) {
-            logger.log(Level.SEVERE, "Ошибка при парсинге ENUM из БД: " + e.getMessage(), e);
-            throw new SQLException("Некорректное значение ENUM в базе данных.", e);
         }
         return cities;
     }
 
-    public int insertCity(City city, String ownerId) throws SQLException {
-        String insertCitySql = """
-            INSERT INTO cities (name, area, population, meters_above_sea_level, climate, government, standard_of_living, owner_id, governor_id)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id;
-            """;
-        String insertCoordSql = "INSERT INTO coordinates (city_id, x, y) VALUES (?, ?, ?);";
-        String insertGovernorSql = "INSERT INTO governors (name) VALUES (?) RETURNING id;";
+    // Строка SELECT_CITIES_SQL; owners - уже встречавшиеся строки владельцев
+    private static City readCity(ResultSet rs, Map<String, String> owners) throws SQLException {
+        int id = rs.getInt(1);
+        String name = rs.getString(2);
+        Date creationDate = rs.getTimestamp(3);
+        Integer area = rs.getInt(4);
+        Long population = rs.getLong(5);
+        float meters = rs.getFloat(6);
+        Float metersAboveSeaLevel = rs.wasNull() ? null : meters;
+        Climate climate = Climate.valueOf(rs.getString(7));
+        String governmentName = rs.getString(8);
+        Government government = governmentName != null ? Government.valueOf(governmentName) : null;
+        StandardOfLiving standardOfLiving = StandardOfLiving.valueOf(rs.getString(9));
+        String ownerId = owners.computeIfAbsent(rs.getString(10), owner -> owner);
 
-        int cityId = -1;
-        Integer governorId = null;
+        Coordinates coordinates = new Coordinates(rs.getInt(11), rs.getLong(12));
 
-        try (PreparedStatement pstmtCity = connection.prepareStatement(insertCitySql);
-             PreparedStatement pstmtCoord = connection.prepareStatement(insertCoordSql);
-             PreparedStatement pstmtGovernor = connection.prepareStatement(insertGovernorSql)) {
+        String governorName = rs.getString(13);
+        Human governor = governorName != null ? new Human(governorName) : null;
 
-            if (city.getGovernor() != null) {
-                pstmtGovernor.setString(1, city.getGovernor().getName());
-                try (ResultSet rs = pstmtGovernor.executeQuery()) {
-                    if (rs.next()) {
-                        governorId = rs.getInt(1);
+        return new City(id, name, coordinates, creationDate, area, population,
+                metersAboveSeaLevel, climate, government, standardOfLiving, governor, ownerId);
+    }
+
+    private static long readChangeMark(ConnectionPool.Lease lease) throws SQLException {
+        try (ResultSet rs = lease.prepareStatement(CHANGE_MARK_SQL).executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Текущая отметка изменений БД: всё, что закоммичено до неё, имеет отметку не больше этой.
+     * Изменения, начатые, но не закоммиченные к моменту чтения, тоже могут получить меньшую
+     * отметку - поэтому вызывающий читает её, когда своих незавершённых записей нет.
+     */
+    public long getChangeMark() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                long changeMark = readChangeMark(lease);
+                connection.commit();
+                return changeMark;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при чтении отметки изменений: " + e.getMessage(), e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Изменения после отметки changeMark: вставленные и обновлённые города (в getCities)
+     * и ID удалённых (в deletedIds). Всё читается в одной транзакции.
+     */
+    public LoadedCities loadChangesSince(long changeMark, List<Integer> deletedIds) throws SQLException {
+        LoadedCities changed = new LoadedCities(0);
+        Map<String, String> owners = new HashMap<>();
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmtChanged = lease.prepareStatement(LOAD_CHANGED_CITIES_SQL);
+                pstmtChanged.setLong(1, changeMark);
+                try (ResultSet rs = pstmtChanged.executeQuery()) {
+                    while (rs.next()) {
+                        City city = readCity(rs, owners);
+                        changed.add(city.getId(), city);
                     }
                 }
+                PreparedStatement pstmtDeleted = lease.prepareStatement(
+                        "SELECT city_id FROM deleted_cities WHERE change_version > ? ORDER BY city_id;");
+                pstmtDeleted.setLong(1, changeMark);
+                try (ResultSet rs = pstmtDeleted.executeQuery()) {
+                    while (rs.next()) {
+                        deletedIds.add(rs.getInt(1));
+                    }
+                }
+                changed.setChangeMark(readChangeMark(lease));
+                connection.commit();
+                return changed;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при загрузке изменений из БД: " + e.getMessage(), e);
+                throw e;
+            } catch (IllegalArgumentException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при парсинге ENUM из БД: " + e.getMessage(), e);
+                throw new SQLException("Некорректное значение ENUM в базе данных.", e);
             }
+        }
+    }
 
-            pstmtCity.setString(1, city.getName());
-            pstmtCity.setInt(2, city.getArea());
-            pstmtCity.setLong(3, city.getPopulation());
-            if (city.getMetersAboveSeaLevel() != null) {
-                pstmtCity.setFloat(4, city.getMetersAboveSeaLevel());
-            } else {
-                pstmtCity.setNull(4, java.sql.Types.REAL);
+    public int countCities() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try (ResultSet rs = lease.prepareStatement("SELECT count(*) FROM cities;").executeQuery()) {
+                rs.next();
+                int count = rs.getInt(1);
+                connection.commit();
+                return count;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при подсчёте городов в БД: " + e.getMessage(), e);
+                throw e;
             }
-            pstmtCity.setString(5, city.getClimate().name());
-            if (city.getGovernment() != null) {
-                pstmtCity.setString(6, city.getGovernment().name());
-            } else {
-                pstmtCity.setNull(6, java.sql.Types.VARCHAR);
+        }
+    }
+
+    /**
+     * Забывает удаления, уже учтённые снимком с отметкой changeMark.
+     */
+    public int pruneDeletedCities(long changeMark) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement("DELETE FROM deleted_cities WHERE change_version <= ?;");
+                pstmt.setLong(1, changeMark);
+                int pruned = pstmt.executeUpdate();
+                connection.commit();
+                return pruned;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при очистке надгробий удалённых городов: " + e.getMessage(), e);
+                throw e;
             }
-            pstmtCity.setString(7, city.getStandardOfLiving().name());
-            pstmtCity.setString(8, ownerId);
-            if (governorId != null) {
-                pstmtCity.setInt(9, governorId);
-            } else {
-                pstmtCity.setNull(9, java.sql.Types.INTEGER);
+        }
+    }
+
+    /**
+     * Номер последней записи журнала отложенной записи, применённой к БД; 0 - ни одной.
+     */
+    public long getJournalCheckpoint() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try (ResultSet rs = lease.prepareStatement("SELECT sequence FROM journal_checkpoint WHERE id = 1;").executeQuery()) {
+                long sequence = rs.next() ? rs.getLong(1) : 0;
+                connection.commit();
+                return sequence;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при чтении отметки журнала: " + e.getMessage(), e);
+                throw e;
             }
+        }
+    }
 
-            try (ResultSet rs = pstmtCity.executeQuery()) {
-                if (rs.next()) {
-                    cityId = rs.getInt(1);
+    /**
+     * Выдаёт count ID из последовательности cities: отложенная запись назначает их городам сама,
+     * не дожидаясь вставки в БД.
+     */
+    public int[] reserveCityIds(int count) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(
+                        "SELECT nextval(pg_get_serial_sequence('cities', 'id')) FROM generate_series(1, ?);");
+                pstmt.setInt(1, count);
+                int[] ids;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    ids = readIds(rs);
                 }
+                connection.commit();
+                return ids;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при резервировании ID городов: " + e.getMessage(), e);
+                throw e;
             }
+        }
+    }
+
+    /**
+     * Применяет записи журнала одной транзакцией вместе с отметкой последней из них. Подряд идущие
+     * записи одного типа уходят одним пакетом JDBC. Записи - по возрастанию номера.
+     */
+    void applyJournal(List<WriteJournal.Entry> entries) throws SQLException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            // Как и у insertCities, пакетные запросы не кэшируются
+            try (PreparedStatement pstmtInsert = connection.prepareStatement(APPLY_INSERT_SQL);
+                 PreparedStatement pstmtUpdate = connection.prepareStatement(APPLY_UPDATE_SQL);
+                 PreparedStatement pstmtDelete = connection.prepareStatement(APPLY_DELETE_SQL);
+                 PreparedStatement pstmtCheckpoint = connection.prepareStatement(SAVE_JOURNAL_CHECKPOINT_SQL)) {
+                PreparedStatement batch = null;
+                for (WriteJournal.Entry entry : entries) {
+                    PreparedStatement statement = switch (entry.type) {
+                        case INSERT -> pstmtInsert;
+                        case UPDATE -> pstmtUpdate;
+                        case DELETE -> pstmtDelete;
+                    };
+                    if (batch != null && batch != statement) {
+                        batch.executeBatch();
+                    }
+                    batch = statement;
+
+                    switch (entry.type) {
+                        case INSERT -> {
+                            setGovernorName(statement, 1, entry.city);
+                            statement.setInt(2, entry.city.getId());
+                            statement.setTimestamp(3, new Timestamp(entry.city.getCreationDate().getTime()));
+                            setCityFields(statement, 4, entry.city);
+                            statement.setString(11, entry.ownerId);
+                            setCoordinateValues(statement, 12, entry.city);
+                        }
+                        case UPDATE -> {
+                            statement.setInt(1, entry.city.getId());
+                            statement.setString(2, entry.ownerId);
+                            setGovernorName(statement, 3, entry.city);
+                            setCityFields(statement, 4, entry.city);
+                            setCoordinateValues(statement, 11, entry.city);
+                        }
+                        case DELETE -> {
+                            statement.setString(1, entry.ownerId);
+                            statement.setArray(2, connection.createArrayOf("integer",
+                                    Arrays.stream(entry.ids).boxed().toArray(Integer[]::new)));
+                        }
+                    }
+                    statement.addBatch();
+                }
+                batch.executeBatch();
 
-            pstmtCoord.setInt(1, cityId);
-            pstmtCoord.setInt(2, city.getCoordinates().getX());
-            if (city.getCoordinates().getY() != null) {
-                pstmtCoord.setLong(3, city.getCoordinates().getY());
-            } else {
-                pstmtCoord.setNull(3, java.sql.Types.BIGINT);
+                long lastSequence = entries.get(entries.size() - 1).sequence;
+                pstmtCheckpoint.setLong(1, lastSequence);
+                pstmtCheckpoint.executeUpdate();
+                connection.commit();
+                logger.fine("Журнал применён к БД: " + entries.size() + " записей, до №" + lastSequence);
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при применении журнала к БД: " + e.getMessage(), e);
+                throw e;
             }
-            pstmtCoord.executeUpdate();
+        }
+    }
 
-            connection.commit();
-            logger.info("Город '" + city.getName() + "' успешно вставлен в БД с ID: " + cityId);
-            return cityId;
-        } catch (SQLException e) {
-            connection.rollback();
-            logger.log(Level.SEVERE, "Ошибка при вставке города в БД: " + e.getMessage(), e);
-            throw e;
+    /**
+     * Сдвигает отметку журнала за запись, которая в БД не попадёт (отвергнута ею окончательно).
+     */
+    void saveJournalCheckpoint(long sequence) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(SAVE_JOURNAL_CHECKPOINT_SQL);
+                pstmt.setLong(1, sequence);
+                pstmt.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при сохранении отметки журнала: " + e.getMessage(), e);
+                throw e;
+            }
         }
     }
 
-    public boolean updateCity(City city, String ownerId) throws SQLException {
-        String updateCitySql = """
-            UPDATE cities SET
-                name = ?, area = ?, population = ?, meters_above_sea_level = ?,
-                climate = ?, government = ?, standard_of_living = ?, governor_id = ?
-            WHERE id = ? AND owner_id = ?;
-            """;
-        String updateCoordSql = """
-            UPDATE coordinates SET
-                x = ?, y = ?
-            WHERE city_id = ?;
-            """;
-        String insertGovernorSql = "INSERT INTO governors (name) VALUES (?) RETURNING id;";
-        String updateGovernorSql = "UPDATE governors SET name = ? WHERE id = ?;";
-
-        Integer governorId = null;
-        Integer existingGovernorId = null;
-
-        try (PreparedStatement pstmtCity = connection.prepareStatement(updateCitySql);
-             PreparedStatement pstmtCoord = connection.prepareStatement(updateCoordSql);
-             PreparedStatement pstmtInsertGovernor = connection.prepareStatement(insertGovernorSql);
-             PreparedStatement pstmtUpdateGovernor = connection.prepareStatement(updateGovernorSql);
-             PreparedStatement pstmtGetGovernorId = connection.prepareStatement("SELECT governor_id FROM cities WHERE id = ?")) {
-
-            pstmtGetGovernorId.setInt(1, city.getId());
-            try (ResultSet rs = pstmtGetGovernorId.executeQuery()) {
-                if (rs.next()) {
-                    existingGovernorId = rs.getObject("governor_id", Integer.class);
+    /**
+     * Вставляет губернатора, город и координаты одним оператором: CTE передают сгенерированные ID
+     * дальше по цепочке, так что запись города - один обмен с БД вместо четырёх-пяти.
+     */
+    @Override
+    public int insertCity(City city, String ownerId) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            // Один оператор атомарен сам по себе; в автофиксации драйвер не шлёт отдельный COMMIT
+            connection.setAutoCommit(true);
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(INSERT_CITY_SQL);
+                setGovernorName(pstmt, 1, city);
+                setCityFields(pstmt, 2, city);
+                pstmt.setString(9, ownerId);
+                setCoordinateValues(pstmt, 10, city);
+
+                int cityId;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    cityId = rs.getInt(1);
                 }
+                logger.info("Город '" + city.getName() + "' успешно вставлен в БД с ID: " + cityId);
+                return cityId;
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Ошибка при вставке города в БД: " + e.getMessage(), e);
+                throw e;
+            } finally {
+                connection.setAutoCommit(false);
             }
+        }
+    }
 
-            if (city.getGovernor() != null) {
-                if (existingGovernorId != null) {
-                    pstmtUpdateGovernor.setString(1, city.getGovernor().getName());
-                    pstmtUpdateGovernor.setInt(2, existingGovernorId);
-                    pstmtUpdateGovernor.executeUpdate();
-                    governorId = existingGovernorId;
-                } else {
-                    pstmtInsertGovernor.setString(1, city.getGovernor().getName());
-                    try (ResultSet rs = pstmtInsertGovernor.executeQuery()) {
-                        if (rs.next()) {
-                            governorId = rs.getInt(1);
+    /**
+     * Вставляет города пакетами JDBC в одной транзакции: на каждые {@link #INSERT_BATCH_SIZE} городов -
+     * три обращения к БД (губернаторы, города, координаты) вместо трёх-четырёх на каждый город.
+     * При ошибке откатывается вся вставка.
+     * @return ID новых городов в порядке списка.
+     */
+    @Override
+    public int[] insertCities(List<City> cities, String ownerId) throws SQLException {
+        String insertCitySql = """
+            INSERT INTO cities (name, area, population, meters_above_sea_level, climate, government, standard_of_living, owner_id, governor_id)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);
+            """;
+        String insertCoordSql = "INSERT INTO coordinates (city_id, x, y) VALUES (?, ?, ?);";
+        String insertGovernorSql = "INSERT INTO governors (name) VALUES (?);";
+        String[] idColumn = {"id"};
+
+        int[] cityIds = new int[cities.size()];
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            // Пакетные запросы не кэшируются: вставка редкая, а недоотправленный пакет не должен
+            // достаться следующему арендатору
+            try (PreparedStatement pstmtGovernor = connection.prepareStatement(insertGovernorSql, idColumn);
+                 PreparedStatement pstmtCity = connection.prepareStatement(insertCitySql, idColumn);
+                 PreparedStatement pstmtCoord = connection.prepareStatement(insertCoordSql)) {
+                for (int from = 0; from < cities.size(); from += INSERT_BATCH_SIZE) {
+                    int to = Math.min(cities.size(), from + INSERT_BATCH_SIZE);
+
+                    Integer[] governorIds = new Integer[to - from];
+                    boolean hasGovernors = false;
+                    for (int i = from; i < to; i++) {
+                        if (cities.get(i).getGovernor() != null) {
+                            pstmtGovernor.setString(1, cities.get(i).getGovernor().getName());
+                            pstmtGovernor.addBatch();
+                            hasGovernors = true;
                         }
                     }
-                }
-            } else {
-                if (existingGovernorId != null) {
-                    try (PreparedStatement pstmtDeleteGovernor = connection.prepareStatement("DELETE FROM governors WHERE id = ?")) {
-                        pstmtDeleteGovernor.setInt(1, existingGovernorId);
-                        pstmtDeleteGovernor.executeUpdate();
+                    if (hasGovernors) {
+                        pstmtGovernor.executeBatch();
+                        try (ResultSet rs = pstmtGovernor.getGeneratedKeys()) {
+                            for (int i = from; i < to; i++) {
+                                if (cities.get(i).getGovernor() != null) {
+                                    governorIds[i - from] = nextGeneratedId(rs);
+                                }
+                            }
+                        }
                     }
-                }
-                governorId = null;
-            }
 
-            pstmtCity.setString(1, city.getName());
-            pstmtCity.setInt(2, city.getArea());
-            pstmtCity.setLong(3, city.getPopulation());
-            if (city.getMetersAboveSeaLevel() != null) {
-                pstmtCity.setFloat(4, city.getMetersAboveSeaLevel());
-            } else {
-                pstmtCity.setNull(4, java.sql.Types.REAL);
-            }
-            pstmtCity.setString(5, city.getClimate().name());
-            if (city.getGovernment() != null) {
-                pstmtCity.setString(6, city.getGovernment().name());
-            } else {
-                pstmtCity.setNull(6, java.sql.Types.VARCHAR);
-            }
-            pstmtCity.setString(7, city.getStandardOfLiving().name());
-            if (governorId != null) {
-                pstmtCity.setInt(8, governorId);
-            } else {
-                pstmtCity.setNull(8, java.sql.Types.INTEGER);
-            }
-            pstmtCity.setInt(9, city.getId());
-            pstmtCity.setString(10, ownerId);
+                    for (int i = from; i < to; i++) {
+                        setCityParameters(pstmtCity, cities.get(i), ownerId, governorIds[i - from]);
+                        pstmtCity.addBatch();
+                    }
+                    pstmtCity.executeBatch();
+                    try (ResultSet rs = pstmtCity.getGeneratedKeys()) {
+                        for (int i = from; i < to; i++) {
+                            cityIds[i] = nextGeneratedId(rs);
+                        }
+                    }
+
+                    for (int i = from; i < to; i++) {
+                        setCoordinatesParameters(pstmtCoord, cityIds[i], cities.get(i));
+                        pstmtCoord.addBatch();
+                    }
+                    pstmtCoord.executeBatch();
+                }
 
-            int affectedRows = pstmtCity.executeUpdate();
-            if (affectedRows == 0) {
+                connection.commit();
+                logger.info(cities.size() + " городов вставлено в БД одной транзакцией для владельца " + ownerId + ".");
+                return cityIds;
+            } catch (SQLException e) {
                 connection.rollback();
-                logger.warning("Не удалось обновить город с ID " + city.getId() + " для владельца " + ownerId + ". Возможно, город не найден или вы не являетесь владельцем.");
-                return false;
+                logger.log(Level.SEVERE, "Ошибка при пакетной вставке городов в БД: " + e.getMessage(), e);
+                throw e;
             }
+        }
+    }
 
-            pstmtCoord.setInt(1, city.getCoordinates().getX());
-            if (city.getCoordinates().getY() != null) {
-                pstmtCoord.setLong(2, city.getCoordinates().getY());
-            } else {
-                pstmtCoord.setNull(2, java.sql.Types.BIGINT);
-            }
-            pstmtCoord.setInt(3, city.getId());
-            pstmtCoord.executeUpdate();
+    private static int nextGeneratedId(ResultSet rs) throws SQLException {
+        if (!rs.next()) {
+            throw new SQLException("БД вернула меньше сгенерированных ID, чем вставлено строк.");
+        }
+        return rs.getInt(1);
+    }
 
-            connection.commit();
-            logger.info("Город с ID " + city.getId() + " успешно обновлен в БД.");
-            return true;
-        } catch (SQLException e) {
-            connection.rollback();
-            logger.log(Level.SEVERE, "Ошибка при обновлении города в БД: " + e.getMessage(), e);
-            throw e;
+    private static void setCityParameters(PreparedStatement pstmtCity, City city, String ownerId, Integer governorId)
+            throws SQLException {
+        setCityFields(pstmtCity, 1, city);
+        pstmtCity.setString(8, ownerId);
+        if (governorId != null) {
+            pstmtCity.setInt(9, governorId);
+        } else {
+            pstmtCity.setNull(9, java.sql.Types.INTEGER);
         }
     }
 
+    // Семь полей города от name до standard_of_living, начиная с параметра first
+    private static void setCityFields(PreparedStatement pstmt, int first, City city) throws SQLException {
+        pstmt.setString(first, city.getName());
+        pstmt.setInt(first + 1, city.getArea());
+        pstmt.setLong(first + 2, city.getPopulation());
+        if (city.getMetersAboveSeaLevel() != null) {
+            pstmt.setFloat(first + 3, city.getMetersAboveSeaLevel());
+        } else {
+            pstmt.setNull(first + 3, java.sql.Types.REAL);
+        }
+        pstmt.setString(first + 4, city.getClimate().name());
+        if (city.getGovernment() != null) {
+            pstmt.setString(first + 5, city.getGovernment().name());
+        } else {
+            pstmt.setNull(first + 5, java.sql.Types.VARCHAR);
+        }
+        pstmt.setString(first + 6, city.getStandardOfLiving().name());
+    }
+
+    private static void setGovernorName(PreparedStatement pstmt, int index, City city) throws SQLException {
+        if (city.getGovernor() != null) {
+            pstmt.setString(index, city.getGovernor().getName());
+        } else {
+            pstmt.setNull(index, java.sql.Types.VARCHAR);
+        }
+    }
+
+    private static void setCoordinatesParameters(PreparedStatement pstmtCoord, int cityId, City city) throws SQLException {
+        pstmtCoord.setInt(1, cityId);
+        setCoordinateValues(pstmtCoord, 2, city);
+    }
+
+    private static void setCoordinateValues(PreparedStatement pstmt, int first, City city) throws SQLException {
+        pstmt.setInt(first, city.getCoordinates().getX());
+        if (city.getCoordinates().getY() != null) {
+            pstmt.setLong(first + 1, city.getCoordinates().getY());
+        } else {
+            pstmt.setNull(first + 1, java.sql.Types.BIGINT);
+        }
+    }
+
+    /**
+     * Обновляет город одним оператором. Губернатор, как и раньше, переименовывается, создаётся
+     * или удаляется в зависимости от того, был ли он и есть ли в новом городе; всё это - CTE
+     * над строкой города, выбранной по ID и владельцу. Чужой или несуществующий город не трогается.
+     */
+    @Override
+    public boolean updateCity(City city, String ownerId) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            connection.setAutoCommit(true);
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(UPDATE_CITY_SQL);
+                pstmt.setInt(1, city.getId());
+                pstmt.setString(2, ownerId);
+                setGovernorName(pstmt, 3, city);
+                setCityFields(pstmt, 4, city);
+                setCoordinateValues(pstmt, 11, city);
+
+                int affectedRows;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    affectedRows = rs.getInt(1);
+                }
+                if (affectedRows == 0) {
+                    logger.warning("Не удалось обновить город с ID " + city.getId() + " для владельца " + ownerId + ". Возможно, город не найден или вы не являетесь владельцем.");
+                    return false;
+                }
+                logger.info("Город с ID " + city.getId() + " успешно обновлен в БД.");
+                return true;
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Ошибка при обновлении города в БД: " + e.getMessage(), e);
+                throw e;
+            } finally {
+                connection.setAutoCommit(false);
+            }
+        }
+    }
+
+    @Override
     public boolean deleteCity(int cityId, String ownerId) throws SQLException {
         String deleteSql = "DELETE FROM cities WHERE id = ? AND owner_id = ?;";
-        try (PreparedStatement pstmt = connection.prepareStatement(deleteSql)) {
-            pstmt.setInt(1, cityId);
-            pstmt.setString(2, ownerId);
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows > 0) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(deleteSql);
+                pstmt.setInt(1, cityId);
+                pstmt.setString(2, ownerId);
+                int affectedRows = pstmt.executeUpdate();
+                if (affectedRows > 0) {
+                    connection.commit();
+                    logger.info("Город с ID " + cityId + " успешно удален из БД.");
+                    return true;
+                } else {
+                    connection.rollback();
+                    logger.warning("Не удалось удалить город с ID " + cityId + " для владельца " + ownerId + ". Возможно, город не найден или вы не являетесь владельцем.");
+                    return false;
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при удалении города из БД: " + e.getMessage(), e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public int[] clearCities(String ownerId) throws SQLException {
+        String deleteSql = "DELETE FROM cities WHERE owner_id = ? RETURNING id;";
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(deleteSql);
+                pstmt.setString(1, ownerId);
+                int[] removedIds;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    removedIds = readIds(rs);
+                }
                 connection.commit();
-                logger.info("Город с ID " + cityId + " успешно удален из БД.");
-                return true;
-            } else {
+                logger.info(removedIds.length + " городов удалено из БД для владельца " + ownerId + ".");
+                return removedIds;
+            } catch (SQLException e) {
                 connection.rollback();
-                logger.warning("Не удалось удалить город с ID " + cityId + " для владельца " + ownerId + ". Возможно, город не найден или вы не являетесь владельцем.");
-                return false;
+                logger.log(Level.SEVERE, "Ошибка при очистке городов для владельца " + ownerId + " из БД: " + e.getMessage(), e);
+                throw e;
             }
-        } catch (SQLException e) {
-            connection.rollback();
-            logger.log(Level.SEVERE, "Ошибка при удалении города из БД: " + e.getMessage(), e);
-            throw e;
         }
     }
 
-    public int clearCities(String ownerId) throws SQLException {
-        String deleteSql = "DELETE FROM cities WHERE owner_id = ?;";
-        try (PreparedStatement pstmt = connection.prepareStatement(deleteSql)) {
-            pstmt.setString(1, ownerId);
-            int affectedRows = pstmt.executeUpdate();
-            connection.commit();
-            logger.info(affectedRows + " городов удалено из БД для владельца " + ownerId + ".");
-            return affectedRows;
-        } catch (SQLException e) {
-            connection.rollback();
-            logger.log(Level.SEVERE, "Ошибка при очистке городов для владельца " + ownerId + " из БД: " + e.getMessage(), e);
-            throw e;
+    @Override
+    public int[] deleteCitiesGreaterThanKey(Integer key, String ownerId) throws SQLException {
+        String deleteSql = "DELETE FROM cities WHERE id > ? AND owner_id = ? RETURNING id;";
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(deleteSql);
+                pstmt.setInt(1, key);
+                pstmt.setString(2, ownerId);
+                int[] removedIds;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    removedIds = readIds(rs);
+                }
+                connection.commit();
+                logger.info(removedIds.length + " городов с ключом > " + key + " удалено из БД для владельца " + ownerId + ".");
+                return removedIds;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при удалении городов с ключом > " + key + " для владельца " + ownerId + " из БД: " + e.getMessage(), e);
+                throw e;
+            }
         }
     }
 
-    public int deleteCitiesGreaterThanKey(Integer key, String ownerId) throws SQLException {
-        String deleteSql = "DELETE FROM cities WHERE id > ? AND owner_id = ?;";
-        try (PreparedStatement pstmt = connection.prepareStatement(deleteSql)) {
-            pstmt.setInt(1, key);
-            pstmt.setString(2, ownerId);
-            int affectedRows = pstmt.executeUpdate();
-            connection.commit();
-            logger.info(affectedRows + " городов с ключом > " + key + " удалено из БД для владельца " + ownerId + ".");
-            return affectedRows;
-        } catch (SQLException e) {
-            connection.rollback();
-            logger.log(Level.SEVERE, "Ошибка при удалении городов с ключом > " + key + " для владельца " + ownerId + " из БД: " + e.getMessage(), e);
-            throw e;
+    @Override
+    public int[] deleteCitiesLowerThanKey(Integer key, String ownerId) throws SQLException {
+        String deleteSql = "DELETE FROM cities WHERE id < ? AND owner_id = ? RETURNING id;";
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(deleteSql);
+                pstmt.setInt(1, key);
+                pstmt.setString(2, ownerId);
+                int[] removedIds;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    removedIds = readIds(rs);
+                }
+                connection.commit();
+                logger.info(removedIds.length + " городов с ключом < " + key + " удалено из БД для владельца " + ownerId + ".");
+                return removedIds;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при удалении городов с ключом < " + key + " для владельца " + ownerId + " из БД: " + e.getMessage(), e);
+                throw e;
+            }
         }
     }
 
-    public int deleteCitiesLowerThanKey(Integer key, String ownerId) throws SQLException {
-        String deleteSql = "DELETE FROM cities WHERE id < ? AND owner_id = ?;";
-        try (PreparedStatement pstmt = connection.prepareStatement(deleteSql)) {
-            pstmt.setInt(1, key);
-            pstmt.setString(2, ownerId);
-            int affectedRows = pstmt.executeUpdate();
-            connection.commit();
-            logger.info(affectedRows + " городов с ключом < " + key + " удалено из БД для владельца " + ownerId + ".");
-            return affectedRows;
-        } catch (SQLException e) {
-            connection.rollback();
-            logger.log(Level.SEVERE, "Ошибка при удалении городов с ключом < " + key + " для владельца " + ownerId + " из БД: " + e.getMessage(), e);
-            throw e;
+    @Override
+    public int[] deleteCitiesByStandardOfLiving(StandardOfLiving standardOfLiving, String ownerId) throws SQLException {
+        String deleteSql = "DELETE FROM cities WHERE standard_of_living = ? AND owner_id = ? RETURNING id;";
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(deleteSql);
+                pstmt.setString(1, standardOfLiving.name());
+                pstmt.setString(2, ownerId);
+                int[] removedIds;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    removedIds = readIds(rs);
+                }
+                connection.commit();
+                logger.info(removedIds.length + " городов со standardOfLiving " + standardOfLiving + " удалено из БД для владельца " + ownerId + ".");
+                return removedIds;
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при удалении городов по standardOfLiving для владельца " + ownerId + " из БД: " + e.getMessage(), e);
+                throw e;
+            }
         }
     }
 
-    public int deleteCitiesByStandardOfLiving(StandardOfLiving standardOfLiving, String ownerId) throws SQLException {
-        String deleteSql = "DELETE FROM cities WHERE standard_of_living = ? AND owner_id = ?;";
-        try (PreparedStatement pstmt = connection.prepareStatement(deleteSql)) {
-            pstmt.setString(1, standardOfLiving.name());
-            pstmt.setString(2, ownerId);
-            int affectedRows = pstmt.executeUpdate();
-            connection.commit();
-            logger.info(affectedRows + " городов со standardOfLiving " + standardOfLiving + " удалено из БД для владельца " + ownerId + ".");
-            return affectedRows;
-        } catch (SQLException e) {
-            connection.rollback();
-            logger.log(Level.SEVERE, "Ошибка при удалении городов по standardOfLiving для владельца " + ownerId + " из БД: " + e.getMessage(), e);
-            throw e;
+    // Собирает id строк, которые вернул DELETE ... RETURNING id
+    private static int[] readIds(ResultSet rs) throws SQLException {
+        int[] ids = new int[16];
+        int count = 0;
+        while (rs.next()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = rs.getInt(1);
         }
+        return Arrays.copyOf(ids, count);
     }
 
     public boolean registerUser(String username, String passwordHash) throws SQLException {
         String insertUserSql = "INSERT INTO users (username, password_hash) VALUES (?, ?);";
-        try (PreparedStatement pstmt = connection.prepareStatement(insertUserSql)) {
-            pstmt.setString(1, username);
-            pstmt.setString(2, passwordHash);
-            pstmt.executeUpdate();
-            connection.commit();
-            logger.info("Пользователь '" + username + "' успешно зарегистрирован.");
-            return true;
-        } catch (SQLException e) {
-            connection.rollback();
-            if (e.getSQLState().equals("23505")) {
-                logger.warning("Пользователь с именем '" + username + "' уже существует.");
-                return false;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(insertUserSql);
+                pstmt.setString(1, username);
+                pstmt.setString(2, passwordHash);
+                pstmt.executeUpdate();
+                connection.commit();
+                logger.info("Пользователь '" + username + "' успешно зарегистрирован.");
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                if (e.getSQLState().equals("23505")) {
+                    logger.warning("Пользователь с именем '" + username + "' уже существует.");
+                    return false;
+                }
+                logger.log(Level.SEVERE, "Ошибка при регистрации пользователя '" + username + "': " + e.getMessage(), e);
+                throw e;
             }
-            logger.log(Level.SEVERE, "Ошибка при регистрации пользователя '" + username + "': " + e.getMessage(), e);
-            throw e;
         }
     }
 
     public boolean checkUserCredentials(String username, String passwordHash) throws SQLException {
         String selectSql = "SELECT password_hash FROM users WHERE username = ?;";
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSql)) {
-            pstmt.setString(1, username);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    String storedHash = rs.getString("password_hash");
-                    return storedHash.equals(passwordHash);
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connection = lease.connection();
+            try {
+                PreparedStatement pstmt = lease.prepareStatement(selectSql);
+                pstmt.setString(1, username);
+                String storedHash = null;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        storedHash = rs.getString("password_hash");
+                    }
                 }
+                connection.commit();
+                return storedHash != null && storedHash.equals(passwordHash);
+            } catch (SQLException e) {
+                connection.rollback();
+                logger.log(Level.SEVERE, "Ошибка при проверке учетных данных пользователя '" + username + "': " + e.getMessage(), e);
+                throw e;
             }
-            return false;
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Ошибка при проверке учетных данных пользователя '" + username + "': " + e.getMessage(), e);
-            throw e;
         }
     }
 
     public void closeConnection() {
-        if (connection != null) {
-            try {
-                connection.close();
-                logger.info("Соединение с базой данных закрыто.");
-            } catch (SQLException e) {
-                logger.log(Level.SEVERE, "Ошибка при закрытии соединения с базой данных: " + e.getMessage(), e);
-            }
-        }
+        logger.info("Пул соединений: " + pool.getStats());
+        pool.close();
+        logger.info("Соединения с базой данных закрыты.");
     }
 }
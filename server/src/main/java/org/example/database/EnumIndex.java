@@ -0,0 +1,103 @@
+package org.example.database;
+
+import org.example.database.models.City;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.function.Function;
+
+/**
+ * Неизменяемый вторичный индекс городов по значению enum-поля (уровень жизни, климат, правительство).
+ * Для каждого значения хранится упорядоченное по ID множество городов в виде {@link PersistentIntMap},
+ * так что индекс входит в снимок коллекции и обновляется вместе с ним за O(log n).
+ * Города с null в индексируемом поле в индекс не попадают.
+ */
+public final class EnumIndex<E extends Enum<E>> {
+    private final Class<E> type;
+    private final Function<City, E> field;
+    private final EnumMap<E, PersistentIntMap<City>> buckets;
+
+    private EnumIndex(Class<E> type, Function<City, E> field, EnumMap<E, PersistentIntMap<City>> buckets) {
+        this.type = type;
+        this.field = field;
+        this.buckets = buckets;
+    }
+
+    public static <E extends Enum<E>> EnumIndex<E> empty(Class<E> type, Function<City, E> field) {
+        return new EnumIndex<>(type, field, new EnumMap<>(type));
+    }
+
+    /**
+     * Строит индекс за O(n) по городам, перечисленным в порядке возрастания ID.
+     */
+    public EnumIndex<E> rebuild(Collection<City> citiesById) {
+        E[] constants = type.getEnumConstants();
+        int[][] ids = new int[constants.length][];
+        City[][] cities = new City[constants.length][];
+        int[] counts = new int[constants.length];
+        for (City city : citiesById) {
+            E value = field.apply(city);
+            if (value == null) {
+                continue;
+            }
+            int bucket = value.ordinal();
+            if (ids[bucket] == null) {
+                ids[bucket] = new int[16];
+                cities[bucket] = new City[16];
+            } else if (counts[bucket] == ids[bucket].length) {
+                ids[bucket] = Arrays.copyOf(ids[bucket], counts[bucket] * 2);
+                cities[bucket] = Arrays.copyOf(cities[bucket], counts[bucket] * 2);
+            }
+            ids[bucket][counts[bucket]] = city.getId();
+            cities[bucket][counts[bucket]] = city;
+            counts[bucket]++;
+        }
+        EnumMap<E, PersistentIntMap<City>> rebuilt = new EnumMap<>(type);
+        for (E value : constants) {
+            int bucket = value.ordinal();
+            if (counts[bucket] > 0) {
+                rebuilt.put(value, PersistentIntMap.fromSorted(ids[bucket], cities[bucket], counts[bucket]));
+            }
+        }
+        return new EnumIndex<>(type, field, rebuilt);
+    }
+
+    /**
+     * Учитывает замену oldCity на newCity (любой из них может быть null).
+     */
+    public EnumIndex<E> replaced(City oldCity, City newCity) {
+        E oldValue = oldCity == null ? null : field.apply(oldCity);
+        E newValue = newCity == null ? null : field.apply(newCity);
+        if (oldValue == null && newValue == null) {
+            return this;
+        }
+        // В EnumMap не больше десятка ключей, копия дешевле любой синхронизации
+        EnumMap<E, PersistentIntMap<City>> changed = new EnumMap<>(buckets);
+        if (oldValue != null) {
+            PersistentIntMap<City> bucket = get(oldValue).remove(oldCity.getId());
+            if (bucket.isEmpty()) {
+                changed.remove(oldValue);
+            } else {
+                changed.put(oldValue, bucket);
+            }
+        }
+        if (newValue != null) {
+            PersistentIntMap<City> bucket = changed.getOrDefault(newValue, PersistentIntMap.empty());
+            changed.put(newValue, bucket.put(newCity.getId(), newCity));
+        }
+        return new EnumIndex<>(type, field, changed);
+    }
+
+    /**
+     * Города с данным значением поля, упорядоченные по ID.
+     */
+    public PersistentIntMap<City> get(E value) {
+        PersistentIntMap<City> bucket = buckets.get(value);
+        return bucket == null ? PersistentIntMap.empty() : bucket;
+    }
+
+    public int count(E value) {
+        return get(value).size();
+    }
+}
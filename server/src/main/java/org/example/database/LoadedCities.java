@@ -0,0 +1,82 @@
+package org.example.database;
+
+import org.example.database.models.City;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Города, прочитанные из БД, по возрастанию ID - в том виде, в каком их принимает
+ * {@link CityStore#withAll(int[], City[], int)}, без промежуточной карты.
+ * Массивы растут по мере чтения; города добавляются в порядке ID.
+ */
+public final class LoadedCities {
+    private int[] ids;
+    private City[] cities;
+    private int count;
+    private long changeMark;
+
+    LoadedCities(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        this.ids = new int[capacity];
+        this.cities = new City[capacity];
+    }
+
+    void add(int id, City city) {
+        if (count == ids.length) {
+            int capacity = count + (count >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            cities = Arrays.copyOf(cities, capacity);
+        }
+        ids[count] = id;
+        cities[count] = city;
+        count++;
+    }
+
+    /**
+     * Склеивает части, прочитанные по непересекающимся диапазонам ID, перечисленным по возрастанию.
+     */
+    static LoadedCities concat(List<LoadedCities> parts) {
+        int total = 0;
+        for (LoadedCities part : parts) {
+            total += part.count;
+        }
+        LoadedCities result = new LoadedCities(total);
+        for (LoadedCities part : parts) {
+            System.arraycopy(part.ids, 0, result.ids, result.count, part.count);
+            System.arraycopy(part.cities, 0, result.cities, result.count, part.count);
+            result.count += part.count;
+        }
+        return result;
+    }
+
+    /**
+     * ID по возрастанию; значимы первые {@link #size()} элементов.
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    /**
+     * Города в порядке {@link #getIds()}.
+     */
+    public City[] getCities() {
+        return cities;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Отметка изменений БД, по состоянию на которую прочитаны города: всё, что изменилось
+     * в БД позже, в них не вошло.
+     */
+    public long getChangeMark() {
+        return changeMark;
+    }
+
+    void setChangeMark(long changeMark) {
+        this.changeMark = changeMark;
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.database;
+
+import org.example.database.models.City;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Неизменяемый индекс городов по названию для запросов по префиксу: {@link SortedCityIndex},
+ * упорядоченный по (название, ID). Города с общим префиксом лежат подряд, и запрос стоит
+ * O(log n + число совпадений).
+ */
+public final class NameIndex {
+    public static final NameIndex EMPTY = new NameIndex(SortedCityIndex.empty(Comparator.comparing(City::getName)));
+
+    private final SortedCityIndex cities;
+
+    private NameIndex(SortedCityIndex cities) {
+        this.cities = cities;
+    }
+
+    public int size() {
+        return cities.size();
+    }
+
+    public NameIndex rebuild(Collection<City> allCities) {
+        return new NameIndex(cities.rebuild(allCities));
+    }
+
+    /**
+     * Учитывает замену oldCity на newCity (любой из них может быть null).
+     */
+    public NameIndex replaced(City oldCity, City newCity) {
+        return new NameIndex(cities.replaced(oldCity, newCity));
+    }
+
+    /**
+     * Города, название которых начинается с prefix, в порядке (название, ID).
+     */
+    public List<City> startingWith(String prefix) {
+        List<City> result = new ArrayList<>();
+        Iterator<City> it = cities.from(city -> city.getName().compareTo(prefix) >= 0);
+        while (it.hasNext()) {
+            City city = it.next();
+            if (!city.getName().startsWith(prefix)) {
+                break;
+            }
+            result.add(city);
+        }
+        return result;
+    }
+}
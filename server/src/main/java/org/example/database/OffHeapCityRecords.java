@@ -0,0 +1,275 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Города вне кучи: записи фиксированной длины {@link #RECORD_SIZE} в прямых буферах, строки -
+ * в {@link OffHeapStringArena}. В куче остаются только отсортированный массив ID (индекс
+ * ID -> слот, 4 байта на город) и словарь владельцев, которых единицы. Сборщику мусора
+ * здесь почти нечего обходить, сколько бы городов ни было.
+ * <p>
+ * Объём прямой памяти ограничен -XX:MaxDirectMemorySize (по умолчанию - как -Xmx).
+ */
+final class OffHeapCityRecords extends CityRows {
+    private static final Climate[] CLIMATES = Climate.values();
+    private static final Government[] GOVERNMENTS = Government.values();
+    private static final StandardOfLiving[] STANDARDS = StandardOfLiving.values();
+
+    // Раскладка записи; длина строки -1 означает null
+    private static final int NULLS = 0;
+    private static final int CLIMATE = 1;
+    private static final int GOVERNMENT = 2;
+    private static final int STANDARD = 3;
+    private static final int X = 4;
+    private static final int AREA = 8;
+    private static final int METERS = 12;
+    private static final int OWNER = 16;
+    private static final int NAME_LENGTH = 20;
+    private static final int GOVERNOR_LENGTH = 24;
+    private static final int Y = 28;
+    private static final int CREATION_DATE = 36;
+    private static final int POPULATION = 44;
+    private static final int NAME_ADDRESS = 52;
+    private static final int GOVERNOR_ADDRESS = 60;
+    static final int RECORD_SIZE = 68;
+
+    // Один буфер адресуется int-ом, поэтому записи лежат кусками до 1 ГБ
+    private static final int RECORDS_PER_CHUNK = (1 << 30) / RECORD_SIZE;
+
+    static final OffHeapCityRecords EMPTY = new Builder(0).build();
+
+    private final ByteBuffer[] chunks;
+    private final OffHeapStringArena strings;
+    private final String[] owners;
+
+    private OffHeapCityRecords(Builder builder) {
+        super(builder.size, builder.ids);
+        this.chunks = builder.chunks;
+        this.strings = builder.strings;
+        this.owners = builder.owners.toArray(new String[0]);
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks[slot / RECORDS_PER_CHUNK];
+    }
+
+    private static int offset(int slot) {
+        return (slot % RECORDS_PER_CHUNK) * RECORD_SIZE;
+    }
+
+    private boolean isNull(ByteBuffer chunk, int offset, int field) {
+        return (chunk.get(offset + NULLS) & field) != 0;
+    }
+
+    private String string(ByteBuffer chunk, int offset, int lengthField, int addressField) {
+        int length = chunk.getInt(offset + lengthField);
+        return length < 0 ? null : strings.get(chunk.getLong(offset + addressField), length);
+    }
+
+    @Override
+    IntPredicate nameFilter(String prefix) {
+        if (prefix.chars().anyMatch(c -> Character.isSurrogate((char) c))) {
+            // Половинка суррогатной пары не кодируется в UTF-8, сравниваем строки целиком
+            return slot -> {
+                String name = string(chunk(slot), offset(slot), NAME_LENGTH, NAME_ADDRESS);
+                return name != null && name.startsWith(prefix);
+            };
+        }
+        byte[] encoded = prefix.getBytes(StandardCharsets.UTF_8);
+        return slot -> {
+            ByteBuffer chunk = chunk(slot);
+            int offset = offset(slot);
+            int length = chunk.getInt(offset + NAME_LENGTH);
+            return length >= 0 && strings.startsWith(chunk.getLong(offset + NAME_ADDRESS), length, encoded);
+        };
+    }
+
+    @Override
+    int standardOrdinal(int slot) {
+        return chunk(slot).get(offset(slot) + STANDARD);
+    }
+
+    @Override
+    Float metersAt(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        return isNull(chunk, offset, NULL_METERS) ? null : chunk.getFloat(offset + METERS);
+    }
+
+    @Override
+    City city(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        Coordinates coordinates = isNull(chunk, offset, NULL_COORDINATES) ? null
+                : new Coordinates(isNull(chunk, offset, NULL_X) ? null : chunk.getInt(offset + X),
+                isNull(chunk, offset, NULL_Y) ? null : chunk.getLong(offset + Y));
+        byte climate = chunk.get(offset + CLIMATE);
+        byte government = chunk.get(offset + GOVERNMENT);
+        byte standard = chunk.get(offset + STANDARD);
+        int owner = chunk.getInt(offset + OWNER);
+        return new City(ids[slot], string(chunk, offset, NAME_LENGTH, NAME_ADDRESS), coordinates,
+                isNull(chunk, offset, NULL_CREATION_DATE) ? null : new Date(chunk.getLong(offset + CREATION_DATE)),
+                isNull(chunk, offset, NULL_AREA) ? null : chunk.getInt(offset + AREA),
+                isNull(chunk, offset, NULL_POPULATION) ? null : chunk.getLong(offset + POPULATION),
+                metersAt(slot),
+                climate < 0 ? null : CLIMATES[climate],
+                government < 0 ? null : GOVERNMENTS[government],
+                standard < 0 ? null : STANDARDS[standard],
+                isNull(chunk, offset, NULL_GOVERNOR) ? null
+                        : new Human(string(chunk, offset, GOVERNOR_LENGTH, GOVERNOR_ADDRESS)),
+                owner < 0 ? null : owners[owner]);
+    }
+
+    @Override
+    Builder newBuilder(int capacity) {
+        return new Builder(capacity);
+    }
+
+    static final class Builder extends CityRows.Builder {
+        private final int[] ids;
+        private final ByteBuffer[] chunks;
+        private final OffHeapStringArena strings;
+        private final Map<String, Integer> ownerCodes = new HashMap<>();
+        private final List<String> owners = new ArrayList<>();
+        private int size;
+
+        Builder(int capacity) {
+            ids = new int[capacity];
+            chunks = new ByteBuffer[(capacity + RECORDS_PER_CHUNK - 1) / RECORDS_PER_CHUNK];
+            for (int i = 0; i < chunks.length; i++) {
+                int records = Math.min(RECORDS_PER_CHUNK, capacity - i * RECORDS_PER_CHUNK);
+                chunks[i] = ByteBuffer.allocateDirect(records * RECORD_SIZE).order(ByteOrder.nativeOrder());
+            }
+            // Грубо по 32 байта строк на город, чтобы маленькая коллекция не занимала 64 МБ
+            strings = new OffHeapStringArena((int) Math.min(OffHeapStringArena.MAX_CHUNK_SIZE,
+                    Math.max(4096, capacity * 32L)));
+        }
+
+        @Override
+        void add(City city) {
+            int slot = size++;
+            ids[slot] = city.getId();
+            ByteBuffer chunk = chunks[slot / RECORDS_PER_CHUNK];
+            int offset = offset(slot);
+            int nullBits = 0;
+            Coordinates coordinates = city.getCoordinates();
+            if (coordinates == null) {
+                nullBits |= NULL_COORDINATES;
+            } else {
+                if (coordinates.getX() == null) {
+                    nullBits |= NULL_X;
+                } else {
+                    chunk.putInt(offset + X, coordinates.getX());
+                }
+                if (coordinates.getY() == null) {
+                    nullBits |= NULL_Y;
+                } else {
+                    chunk.putLong(offset + Y, coordinates.getY());
+                }
+            }
+            if (city.getCreationDate() == null) {
+                nullBits |= NULL_CREATION_DATE;
+            } else {
+                chunk.putLong(offset + CREATION_DATE, city.getCreationDate().getTime());
+            }
+            if (city.getArea() == null) {
+                nullBits |= NULL_AREA;
+            } else {
+                chunk.putInt(offset + AREA, city.getArea());
+            }
+            if (city.getPopulation() == null) {
+                nullBits |= NULL_POPULATION;
+            } else {
+                chunk.putLong(offset + POPULATION, city.getPopulation());
+            }
+            if (city.getMetersAboveSeaLevel() == null) {
+                nullBits |= NULL_METERS;
+            } else {
+                chunk.putFloat(offset + METERS, city.getMetersAboveSeaLevel());
+            }
+            chunk.put(offset + CLIMATE, CityColumns.Builder.ordinal(city.getClimate()));
+            chunk.put(offset + GOVERNMENT, CityColumns.Builder.ordinal(city.getGovernment()));
+            chunk.put(offset + STANDARD, CityColumns.Builder.ordinal(city.getStandardOfLiving()));
+            putString(chunk, offset, NAME_LENGTH, NAME_ADDRESS, city.getName());
+            if (city.getGovernor() == null) {
+                nullBits |= NULL_GOVERNOR;
+                chunk.putInt(offset + GOVERNOR_LENGTH, -1);
+            } else {
+                putString(chunk, offset, GOVERNOR_LENGTH, GOVERNOR_ADDRESS, city.getGovernor().getName());
+            }
+            chunk.putInt(offset + OWNER, ownerCode(city.getOwnerId()));
+            chunk.put(offset + NULLS, (byte) nullBits);
+        }
+
+        private void putString(ByteBuffer chunk, int offset, int lengthField, int addressField, String value) {
+            if (value == null) {
+                chunk.putInt(offset + lengthField, -1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            chunk.putInt(offset + lengthField, bytes.length);
+            chunk.putLong(offset + addressField, strings.add(bytes));
+        }
+
+        private int ownerCode(String owner) {
+            if (owner == null) {
+                return -1;
+            }
+            return ownerCodes.computeIfAbsent(owner, name -> {
+                owners.add(name);
+                return owners.size() - 1;
+            });
+        }
+
+        @Override
+        void copy(CityRows rows, int sourceSlot) {
+            if (!(rows instanceof OffHeapCityRecords)) {
+                add(rows.city(sourceSlot));
+                return;
+            }
+            OffHeapCityRecords source = (OffHeapCityRecords) rows;
+            int slot = size++;
+            ids[slot] = source.ids[sourceSlot];
+            ByteBuffer chunk = chunks[slot / RECORDS_PER_CHUNK];
+            int offset = offset(slot);
+            ByteBuffer sourceChunk = source.chunk(sourceSlot);
+            int sourceOffset = offset(sourceSlot);
+            chunk.put(offset, sourceChunk, sourceOffset, RECORD_SIZE);
+            // Строки и код владельца ссылаются на структуры старого набора - переносим
+            copyString(source, chunk, offset, NAME_LENGTH, NAME_ADDRESS);
+            copyString(source, chunk, offset, GOVERNOR_LENGTH, GOVERNOR_ADDRESS);
+            int owner = chunk.getInt(offset + OWNER);
+            chunk.putInt(offset + OWNER, owner < 0 ? -1 : ownerCode(source.owners[owner]));
+        }
+
+        private void copyString(OffHeapCityRecords source, ByteBuffer chunk, int offset, int lengthField, int addressField) {
+            int length = chunk.getInt(offset + lengthField);
+            if (length >= 0) {
+                chunk.putLong(offset + addressField, strings.add(source.strings.bytes(chunk.getLong(offset + addressField), length)));
+            }
+        }
+
+        @Override
+        OffHeapCityRecords build() {
+            if (size != ids.length) {
+                throw new IllegalStateException("Заполнено " + size + " строк из " + ids.length);
+            }
+            return new OffHeapCityRecords(this);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.database;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Строки в UTF-8 вне кучи: прямые (direct) буферы, заполняемые подряд кусками. Адрес строки -
+ * номер куска в старших 32 битах и смещение в младших; длину в байтах хранит вызывающий.
+ * Заполняется построителем {@link OffHeapCityRecords}, после публикации только читается.
+ * Память освобождается вместе с буферами, когда на арену не остаётся ссылок.
+ */
+final class OffHeapStringArena {
+    static final int MAX_CHUNK_SIZE = 64 << 20;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final int chunkSize;
+    private ByteBuffer current;
+
+    OffHeapStringArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    long add(byte[] bytes) {
+        if (current == null || current.remaining() < bytes.length) {
+            current = ByteBuffer.allocateDirect(Math.max(chunkSize, bytes.length));
+            chunks.add(current);
+        }
+        long address = ((long) (chunks.size() - 1) << 32) | current.position();
+        current.put(bytes);
+        return address;
+    }
+
+    byte[] bytes(long address, int length) {
+        byte[] bytes = new byte[length];
+        chunks.get((int) (address >>> 32)).get((int) address, bytes);
+        return bytes;
+    }
+
+    String get(long address, int length) {
+        return new String(bytes(address, length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Сравнивает начало строки с prefix в UTF-8 без декодирования.
+     */
+    boolean startsWith(long address, int length, byte[] prefix) {
+        if (prefix.length > length) {
+            return false;
+        }
+        ByteBuffer chunk = chunks.get((int) (address >>> 32));
+        int offset = (int) address;
+        for (int i = 0; i < prefix.length; i++) {
+            if (chunk.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
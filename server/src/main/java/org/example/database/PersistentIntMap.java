@@ -0,0 +1,286 @@
+package org.example.database;
+
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Неизменяемая упорядоченная по ключу карта int -> V с разделением структуры (декартово дерево).
+ * put и remove не трогают текущую карту, а возвращают новую, копируя только путь от корня
+ * до изменённого узла - O(log n) узлов. Поэтому старую версию можно читать из любого
+ * потока без блокировок, пока писатель строит следующую. headMap и tailMap так же
+ * за O(log n) отрезают диапазон ключей.
+ * <p>
+ * Приоритет узла - перемешанный ключ, так что форма дерева зависит только от набора ключей.
+ */
+public final class PersistentIntMap<V> {
+    private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(null);
+
+    private final Node<V> root;
+
+    private static final class Node<V> {
+        final int key;
+        final V value;
+        final int priority;
+        // Поля ниже меняются только при построении в fromSorted, до публикации карты
+        Node<V> left;
+        Node<V> right;
+        int size;
+
+        Node(int key, V value, Node<V> left, Node<V> right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority(key);
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+        }
+    }
+
+    private PersistentIntMap(Node<V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    /**
+     * Строит карту за O(n) из ключей, отсортированных по возрастанию без повторов.
+     */
+    public static <V> PersistentIntMap<V> fromSorted(int[] keys, V[] values, int count) {
+        // Правый край строящегося дерева; приоритеты на нём убывают сверху вниз
+        Deque<Node<V>> spine = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && keys[i] <= keys[i - 1]) {
+                throw new IllegalArgumentException("Ключи должны строго возрастать: " + keys[i - 1] + ", " + keys[i]);
+            }
+            Node<V> node = new Node<>(keys[i], values[i], null, null);
+            Node<V> last = null;
+            while (!spine.isEmpty() && spine.peekLast().priority < node.priority) {
+                last = spine.pollLast();
+            }
+            node.left = last;
+            if (!spine.isEmpty()) {
+                spine.peekLast().right = node;
+            }
+            spine.addLast(node);
+        }
+        Node<V> root = spine.peekFirst();
+        fixSizes(root);
+        return root == null ? empty() : new PersistentIntMap<>(root);
+    }
+
+    private static int fixSizes(Node<?> node) {
+        if (node == null) {
+            return 0;
+        }
+        node.size = 1 + fixSizes(node.left) + fixSizes(node.right);
+        return node.size;
+    }
+
+    private static int priority(int key) {
+        int h = key * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public V get(int key) {
+        Node<V> node = root;
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return новая карта, в которой key сопоставлен value.
+     */
+    public PersistentIntMap<V> put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Значение не может быть null");
+        }
+        return new PersistentIntMap<>(insert(root, key, value));
+    }
+
+    private static <V> Node<V> insert(Node<V> node, int key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        if (key < node.key) {
+            Node<V> left = insert(node.left, key, value);
+            if (left.priority > node.priority) {
+                // Поворот вправо: новый узел поднимается над текущим
+                return new Node<>(left.key, left.value, left.left, new Node<>(node.key, node.value, left.right, node.right));
+            }
+            return new Node<>(node.key, node.value, left, node.right);
+        }
+        if (key > node.key) {
+            Node<V> right = insert(node.right, key, value);
+            if (right.priority > node.priority) {
+                return new Node<>(right.key, right.value, new Node<>(node.key, node.value, node.left, right.left), right.right);
+            }
+            return new Node<>(node.key, node.value, node.left, right);
+        }
+        return new Node<>(key, value, node.left, node.right);
+    }
+
+    /**
+     * @return новая карта без key (или эта же, если ключа не было).
+     */
+    public PersistentIntMap<V> remove(int key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        Node<V> newRoot = delete(root, key);
+        return newRoot == null ? empty() : new PersistentIntMap<>(newRoot);
+    }
+
+    private static <V> Node<V> delete(Node<V> node, int key) {
+        if (key < node.key) {
+            return new Node<>(node.key, node.value, delete(node.left, key), node.right);
+        }
+        if (key > node.key) {
+            return new Node<>(node.key, node.value, node.left, delete(node.right, key));
+        }
+        return merge(node.left, node.right);
+    }
+
+    // Все ключи left меньше всех ключей right
+    private static <V> Node<V> merge(Node<V> left, Node<V> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return new Node<>(left.key, left.value, left.left, merge(left.right, right));
+        }
+        return new Node<>(right.key, right.value, merge(left, right.left), right.right);
+    }
+
+    /**
+     * Карта с ключами меньше toKey (или не больше, если inclusive). O(log n), исходная не меняется.
+     */
+    public PersistentIntMap<V> headMap(int toKey, boolean inclusive) {
+        return wrap(split(root, toKey, inclusive)[0]);
+    }
+
+    /**
+     * Карта с ключами больше fromKey (или не меньше, если inclusive). O(log n), исходная не меняется.
+     */
+    public PersistentIntMap<V> tailMap(int fromKey, boolean inclusive) {
+        return wrap(split(root, fromKey, !inclusive)[1]);
+    }
+
+    private PersistentIntMap<V> wrap(Node<V> newRoot) {
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentIntMap<>(newRoot);
+    }
+
+    /**
+     * Делит дерево по key: слева ключи меньше key (и равный key, если keyToLeft), справа остальные.
+     * Копируются только узлы на пути поиска key.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] split(Node<V> node, int key, boolean keyToLeft) {
+        if (node == null) {
+            return (Node<V>[]) new Node<?>[2];
+        }
+        if (node.key < key || (keyToLeft && node.key == key)) {
+            Node<V>[] parts = split(node.right, key, keyToLeft);
+            parts[0] = parts[0] == node.right ? node : new Node<>(node.key, node.value, node.left, parts[0]);
+            return parts;
+        }
+        Node<V>[] parts = split(node.left, key, keyToLeft);
+        parts[1] = parts[1] == node.left ? node : new Node<>(node.key, node.value, parts[1], node.right);
+        return parts;
+    }
+
+    /**
+     * Обходит значения по возрастанию ключа.
+     */
+    public void forEach(Consumer<? super V> action) {
+        for (V value : values()) {
+            action.accept(value);
+        }
+    }
+
+    /**
+     * Неизменяемое представление значений в порядке возрастания ключа.
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new InOrderIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return PersistentIntMap.this.size();
+            }
+        };
+    }
+
+    private static final class InOrderIterator<V> implements Iterator<V> {
+        private final Deque<Node<V>> stack = new ArrayDeque<>();
+
+        InOrderIterator(Node<V> root) {
+            pushLeft(root);
+        }
+
+        private void pushLeft(Node<V> node) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public V next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<V> node = stack.pop();
+            pushLeft(node.right);
+            return node.value;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.example.database;
+
+import org.example.database.models.City;
+
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Неизменяемый индекс городов в заданном порядке. Устроен как {@link PersistentIntMap}:
+ * декартово дерево с копированием пути, но упорядочено компаратором, а при равенстве - по ID,
+ * так что одинаковые значения ключа не мешают друг другу. Входит в снимок коллекции и
+ * обновляется вместе с ним за O(log n); обход по порядку не требует сортировки.
+ * <p>
+ * Опубликованные в индексе города не должны меняться, иначе нарушится порядок.
+ */
+public final class SortedCityIndex {
+    private final Comparator<City> order;
+    private final Node root;
+    private final int size;
+
+    private static final class Node {
+        final City city;
+        final int priority;
+        // Меняются только при построении в rebuild, до публикации индекса
+        Node left;
+        Node right;
+
+        Node(City city, Node left, Node right) {
+            this.city = city;
+            this.priority = priority(city.getId());
+            this.left = left;
+            this.right = right;
+        }
+
+        Node withChildren(Node newLeft, Node newRight) {
+            return new Node(city, newLeft, newRight);
+        }
+    }
+
+    private SortedCityIndex(Comparator<City> order, Node root, int size) {
+        this.order = order;
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Пустой индекс; к order добавляется сравнение по ID, чтобы порядок был строгим.
+     */
+    public static SortedCityIndex empty(Comparator<City> order) {
+        return new SortedCityIndex(order.thenComparingInt(City::getId), null, 0);
+    }
+
+    // ID в индексе не повторяются, так что перемешанный ID годится в приоритеты
+    private static int priority(int id) {
+        int h = id * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Строит индекс заново: O(n log n) на сортировку и O(n) на само дерево.
+     */
+    public SortedCityIndex rebuild(Collection<City> cities) {
+        List<City> sorted = new ArrayList<>(cities);
+        sorted.sort(order);
+        // Правый край строящегося дерева; приоритеты на нём убывают сверху вниз
+        Deque<Node> spine = new ArrayDeque<>();
+        for (City city : sorted) {
+            Node node = new Node(city, null, null);
+            Node last = null;
+            while (!spine.isEmpty() && spine.peekLast().priority < node.priority) {
+                last = spine.pollLast();
+            }
+            node.left = last;
+            if (!spine.isEmpty()) {
+                spine.peekLast().right = node;
+            }
+            spine.addLast(node);
+        }
+        return new SortedCityIndex(order, spine.peekFirst(), sorted.size());
+    }
+
+    /**
+     * Учитывает замену oldCity на newCity (любой из них может быть null).
+     */
+    public SortedCityIndex replaced(City oldCity, City newCity) {
+        Node newRoot = root;
+        int newSize = size;
+        if (oldCity != null && contains(oldCity)) {
+            newRoot = delete(newRoot, oldCity);
+            newSize--;
+        }
+        if (newCity != null) {
+            newRoot = insert(newRoot, new Node(newCity, null, null));
+            newSize++;
+        }
+        return new SortedCityIndex(order, newRoot, newSize);
+    }
+
+    private boolean contains(City city) {
+        Node node = root;
+        while (node != null) {
+            int cmp = order.compare(city, node.city);
+            if (cmp == 0) {
+                return true;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return false;
+    }
+
+    private Node insert(Node node, Node fresh) {
+        if (node == null) {
+            return fresh;
+        }
+        int cmp = order.compare(fresh.city, node.city);
+        if (cmp < 0) {
+            Node left = insert(node.left, fresh);
+            if (left.priority > node.priority) {
+                return left.withChildren(left.left, node.withChildren(left.right, node.right));
+            }
+            return node.withChildren(left, node.right);
+        }
+        if (cmp > 0) {
+            Node right = insert(node.right, fresh);
+            if (right.priority > node.priority) {
+                return right.withChildren(node.withChildren(node.left, right.left), right.right);
+            }
+            return node.withChildren(node.left, right);
+        }
+        return fresh.withChildren(node.left, node.right);
+    }
+
+    private Node delete(Node node, City city) {
+        int cmp = order.compare(city, node.city);
+        if (cmp < 0) {
+            return node.withChildren(delete(node.left, city), node.right);
+        }
+        if (cmp > 0) {
+            return node.withChildren(node.left, delete(node.right, city));
+        }
+        return merge(node.left, node.right);
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.withChildren(left.left, merge(left.right, right));
+        }
+        return right.withChildren(merge(left, right.left), right.right);
+    }
+
+    /**
+     * Неизменяемое представление всех городов индекса по порядку.
+     */
+    public Collection<City> values() {
+        return new AbstractCollection<City>() {
+            @Override
+            public Iterator<City> iterator() {
+                return from(city -> true);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Обход по порядку, начиная с первого города, для которого atOrAfter истинно.
+     * Условие должно быть монотонным: ложным для начала порядка и истинным для остатка.
+     * Поиск начала - O(log n).
+     */
+    public Iterator<City> from(Predicate<City> atOrAfter) {
+        return new InOrderIterator(root, atOrAfter);
+    }
+
+    private static final class InOrderIterator implements Iterator<City> {
+        // Узлы, которые ещё предстоит выдать, вместе с их правыми поддеревьями
+        private final Deque<Node> stack = new ArrayDeque<>();
+
+        InOrderIterator(Node root, Predicate<City> atOrAfter) {
+            Node node = root;
+            while (node != null) {
+                if (atOrAfter.test(node.city)) {
+                    stack.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public City next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack.pop();
+            for (Node child = node.right; child != null; child = child.left) {
+                stack.push(child);
+            }
+            return node.city;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package org.example.database;
+
+import org.example.database.interfaces.CityWriter;
+import org.example.database.models.City;
+import org.example.database.models.StandardOfLiving;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Отложенная запись в БД: изменение попадает в локальный журнал ({@link WriteJournal}) и считается
+ * выполненным, как только журнал на диске, а в БД его переносит фоновый поток пакетами по
+ * FLUSH_BATCH_SIZE записей в одной транзакции.
+ * <p>
+ * Права и состав изменения проверяются по текущему снимку коллекции, а не запросом в БД:
+ * {@link CollectionManager} вызывает методы под блокировкой владельца, а города владельца
+ * меняет только он, так что снимок для него точен. Удаления журналируются явным списком ID,
+ * поэтому в БД удаляется ровно то, что убрано из коллекции. ID новых городов берутся из блоков,
+ * заранее выданных последовательностью БД ({@link DatabaseManager#reserveCityIds}).
+ * <p>
+ * Вместе с каждым пакетом в БД пишется номер его последней записи
+ * ({@link DatabaseManager#getJournalCheckpoint()}), поэтому после сбоя {@link #open} применяет
+ * к БД только то, чего в ней ещё нет - до загрузки коллекции. После ошибки fsync журнал
+ * отвергает изменения до перезапуска; уже зафиксированные продолжают переноситься в БД.
+ * <p>
+ * Ограничения БД, которые может нарушить сам город (длина названия и имени губернатора), проверяются
+ * до записи в журнал - так же, как их проверила бы БД при прямой записи. Если БД всё же отвергла
+ * изменение окончательно (SQLState классов 22 и 23), пакет переносится по одной записи, а отвергнутая
+ * запись откладывается в файл REJECTED_SUFFIX рядом с журналом и пропускается: иначе она
+ * навсегда задержала бы все следующие, в том числе при перезапуске.
+ */
+public final class WriteBehindWriter implements CityWriter, AutoCloseable {
+    private static final Logger logger = Logger.getLogger(WriteBehindWriter.class.getName());
+    private static final int FLUSH_BATCH_SIZE = 1000;
+    // Сколько поток сброса ждёт новых записей, прежде чем проверить, не пора ли остановиться
+    private static final long FLUSH_WAIT_MILLIS = 50;
+    private static final long MAX_RETRY_DELAY_MILLIS = 10_000;
+    private static final int ID_BLOCK_SIZE = 1000;
+    // Как VARCHAR(255) у cities.name и governors.name
+    private static final int MAX_NAME_LENGTH = 255;
+    private static final String REJECTED_SUFFIX = ".rejected";
+
+    private final DatabaseManager databaseManager;
+    private final WriteJournal journal;
+    private final Path journalPath;
+    private final Supplier<CityStore> snapshot;
+    private final Thread flusher;
+    private volatile boolean running;
+
+    // Выданные, но ещё не назначенные ID
+    private final Object idLock = new Object();
+    private int[] reservedIds = new int[0];
+    private int nextReservedId;
+
+    private final AtomicLong flushedEntries = new AtomicLong();
+    private final AtomicLong flushedBatches = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+    private final AtomicLong rejectedEntries = new AtomicLong();
+
+    private WriteBehindWriter(DatabaseManager databaseManager, WriteJournal journal, Path journalPath,
+                              Supplier<CityStore> snapshot) {
+        this.databaseManager = databaseManager;
+        this.journal = journal;
+        this.journalPath = journalPath;
+        this.snapshot = snapshot;
+        this.flusher = new Thread(this::flushLoop, "collection-write-behind");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Открывает журнал и переносит в БД изменения, оставшиеся в нём с прошлого запуска.
+     * Вызывается до загрузки коллекции; поток сброса запускает {@link #start()}.
+     * @param snapshot текущий снимок коллекции
+     */
+    public static WriteBehindWriter open(DatabaseManager databaseManager, Path journalPath,
+                                         Supplier<CityStore> snapshot) throws IOException, SQLException {
+        WriteJournal journal = WriteJournal.open(journalPath, databaseManager.getJournalCheckpoint());
+        try {
+            WriteBehindWriter writer = new WriteBehindWriter(databaseManager, journal, journalPath, snapshot);
+            int recovered = journal.pendingCount();
+            if (recovered > 0) {
+                writer.flushPending();
+                logger.info("Из журнала " + journalPath + " перенесено в БД изменений: " + recovered);
+            }
+            return writer;
+        } catch (IOException | SQLException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    public void start() {
+        running = true;
+        flusher.start();
+    }
+
+    @Override
+    public int insertCity(City city, String ownerId) throws SQLException {
+        checkColumnLimits(city);
+        city.setId(nextIds(1)[0]);
+        city.setOwnerId(ownerId);
+        try {
+            journal.append(WriteJournal.Type.INSERT, ownerId, city, null);
+        } catch (IOException e) {
+            throw journalFailure(e);
+        }
+        return city.getId();
+    }
+
+    @Override
+    public int[] insertCities(List<City> cities, String ownerId) throws SQLException {
+        for (City city : cities) {
+            checkColumnLimits(city);
+        }
+        int[] ids = nextIds(cities.size());
+        for (int i = 0; i < ids.length; i++) {
+            cities.get(i).setId(ids[i]);
+            cities.get(i).setOwnerId(ownerId);
+        }
+        try {
+            journal.appendInserts(cities, ownerId);
+        } catch (IOException e) {
+            throw journalFailure(e);
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean updateCity(City city, String ownerId) throws SQLException {
+        checkColumnLimits(city);
+        City current = snapshot.get().get(city.getId());
+        if (current == null || !ownerId.equals(current.getOwnerId())) {
+            return false;
+        }
+        try {
+            journal.append(WriteJournal.Type.UPDATE, ownerId, city, null);
+        } catch (IOException e) {
+            throw journalFailure(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean deleteCity(int cityId, String ownerId) throws SQLException {
+        City current = snapshot.get().get(cityId);
+        if (current == null || !ownerId.equals(current.getOwnerId())) {
+            return false;
+        }
+        return delete(new int[]{cityId}, ownerId).length == 1;
+    }
+
+    @Override
+    public int[] clearCities(String ownerId) throws SQLException {
+        return delete(ownedIds(snapshot.get().values(), ownerId), ownerId);
+    }
+
+    @Override
+    public int[] deleteCitiesGreaterThanKey(Integer key, String ownerId) throws SQLException {
+        if (key == Integer.MAX_VALUE) {
+            return new int[0];
+        }
+        return delete(ownedIds(snapshot.get().range(key + 1, Integer.MAX_VALUE), ownerId), ownerId);
+    }
+
+    @Override
+    public int[] deleteCitiesLowerThanKey(Integer key, String ownerId) throws SQLException {
+        if (key == Integer.MIN_VALUE) {
+            return new int[0];
+        }
+        return delete(ownedIds(snapshot.get().range(Integer.MIN_VALUE, key - 1), ownerId), ownerId);
+    }
+
+    @Override
+    public int[] deleteCitiesByStandardOfLiving(StandardOfLiving standardOfLiving, String ownerId) throws SQLException {
+        return delete(ownedIds(snapshot.get().byStandardOfLiving(standardOfLiving), ownerId), ownerId);
+    }
+
+    private int[] delete(int[] ids, String ownerId) throws SQLException {
+        if (ids.length == 0) {
+            return ids;
+        }
+        try {
+            journal.append(WriteJournal.Type.DELETE, ownerId, null, ids);
+        } catch (IOException e) {
+            throw journalFailure(e);
+        }
+        return ids;
+    }
+
+    private static int[] ownedIds(Collection<City> cities, String ownerId) {
+        int[] ids = new int[cities.size()];
+        int count = 0;
+        for (City city : cities) {
+            if (ownerId.equals(city.getOwnerId())) {
+                ids[count++] = city.getId();
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * То, что при прямой записи отверг бы столбец БД; SQLState - как у такой ошибки PostgreSQL.
+     */
+    private static void checkColumnLimits(City city) throws SQLException {
+        if (city.getName().length() > MAX_NAME_LENGTH) {
+            throw new SQLException("Название города длиннее " + MAX_NAME_LENGTH + " символов", "22001");
+        }
+        if (city.getGovernor() != null && city.getGovernor().getName().length() > MAX_NAME_LENGTH) {
+            throw new SQLException("Имя губернатора длиннее " + MAX_NAME_LENGTH + " символов", "22001");
+        }
+    }
+
+    private SQLException journalFailure(IOException e) {
+        logger.log(Level.SEVERE, "Ошибка записи в журнал " + journalPath + ": " + e.getMessage(), e);
+        return new SQLException("Не удалось записать изменение в журнал: " + e.getMessage(), e);
+    }
+
+    /**
+     * ID для новых городов; когда выданный блок кончается, у БД берётся следующий.
+     */
+    private int[] nextIds(int count) throws SQLException {
+        int[] ids = new int[count];
+        synchronized (idLock) {
+            int filled = 0;
+            while (filled < count) {
+                if (nextReservedId == reservedIds.length) {
+                    reservedIds = databaseManager.reserveCityIds(Math.max(ID_BLOCK_SIZE, count - filled));
+                    nextReservedId = 0;
+                }
+                int taken = Math.min(count - filled, reservedIds.length - nextReservedId);
+                System.arraycopy(reservedIds, nextReservedId, ids, filled, taken);
+                nextReservedId += taken;
+                filled += taken;
+            }
+        }
+        return ids;
+    }
+
+    private void flushLoop() {
+        long retryDelay = FLUSH_WAIT_MILLIS;
+        while (running) {
+            try {
+                List<WriteJournal.Entry> entries = journal.durableEntries(FLUSH_BATCH_SIZE, FLUSH_WAIT_MILLIS);
+                if (!entries.isEmpty()) {
+                    flush(entries);
+                }
+                retryDelay = FLUSH_WAIT_MILLIS;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | SQLException | RuntimeException e) {
+                // Пакет остаётся в журнале и будет повторён целиком
+                flushFailures.incrementAndGet();
+                logger.log(Level.WARNING, "Не удалось перенести журнал в БД, повтор через " + retryDelay + " мс: "
+                        + e.getMessage(), e);
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private void flush(List<WriteJournal.Entry> entries) throws IOException, SQLException {
+        try {
+            databaseManager.applyJournal(entries);
+        } catch (SQLException e) {
+            if (!isPermanent(e)) {
+                throw e;
+            }
+            flushOneByOne(entries);
+            return;
+        }
+        journal.markFlushed(entries.get(entries.size() - 1).sequence);
+        flushedEntries.addAndGet(entries.size());
+        flushedBatches.incrementAndGet();
+    }
+
+    // Пакет отвергнут окончательно: ищем виновную запись, перенося остальные по одной
+    private void flushOneByOne(List<WriteJournal.Entry> entries) throws IOException, SQLException {
+        for (WriteJournal.Entry entry : entries) {
+            try {
+                databaseManager.applyJournal(List.of(entry));
+                flushedEntries.incrementAndGet();
+                flushedBatches.incrementAndGet();
+            } catch (SQLException e) {
+                if (!isPermanent(e)) {
+                    throw e;
+                }
+                reject(entry, e);
+            }
+            journal.markFlushed(entry.sequence);
+        }
+    }
+
+    /**
+     * Откладывает запись, которую БД не примет никогда, и сдвигает отметку журнала за неё.
+     * В коллекции изменение остаётся до перезапуска.
+     */
+    private void reject(WriteJournal.Entry entry, SQLException cause) throws IOException, SQLException {
+        String description = "№" + entry.sequence + " " + entry.type + " владелец " + entry.ownerId + ": "
+                + (entry.city != null ? entry.city : Arrays.toString(entry.ids));
+        Path rejectedPath = journalPath.resolveSibling(journalPath.getFileName() + REJECTED_SUFFIX);
+        Files.writeString(rejectedPath, description + " - " + cause.getMessage() + System.lineSeparator(),
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        databaseManager.saveJournalCheckpoint(entry.sequence);
+        rejectedEntries.incrementAndGet();
+        logger.severe("БД отвергла изменение из журнала, оно отложено в " + rejectedPath + ": " + description
+                + " - " + cause.getMessage());
+    }
+
+    // Данные или ограничения (классы SQLState 22 и 23): повтор того же пакета ничего не изменит
+    private static boolean isPermanent(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            String state = current.getSQLState();
+            if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Всё, что осталось в журнале, - в этом потоке; поток сброса к этому моменту не работает
+    private void flushPending() throws IOException, SQLException {
+        List<WriteJournal.Entry> pending = journal.pendingEntries();
+        for (int from = 0; from < pending.size(); from += FLUSH_BATCH_SIZE) {
+            flush(pending.subList(from, Math.min(pending.size(), from + FLUSH_BATCH_SIZE)));
+        }
+    }
+
+    public String getStats() {
+        return String.format("журнал %s: ждут переноса в БД %d, %d КБ; перенесено %d в %d пакетах, неудачных попыток %d, "
+                        + "отвергнуто БД %d",
+                journalPath, journal.pendingCount(), journal.fileBytes() >> 10,
+                flushedEntries.get(), flushedBatches.get(), flushFailures.get(), rejectedEntries.get());
+    }
+
+    /**
+     * Останавливает поток сброса и переносит в БД остаток журнала. Если БД недоступна,
+     * остаток остаётся в журнале до следующего запуска.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (flusher.isAlive()) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            flushPending();
+        } catch (IOException | SQLException e) {
+            logger.log(Level.SEVERE, "Журнал " + journalPath + " не перенесён в БД, изменений осталось "
+                    + journal.pendingCount() + ": " + e.getMessage(), e);
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ошибка при закрытии журнала: " + e.getMessage(), e);
+        }
+    }
+}
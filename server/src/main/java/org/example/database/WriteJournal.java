@@ -0,0 +1,406 @@
+package org.example.database;
+
+import org.example.database.models.City;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Локальный журнал изменений для режима отложенной записи ({@link WriteBehindWriter}).
+ * Запись - [длина][CRC32][номер, тип, владелец, город или ID]; номера идут подряд.
+ * {@link #append} возвращает управление, когда запись на диске (fsync): записи, пришедшие, пока шёл
+ * чужой fsync, фиксируются следующим одним fsync на всех. Записи остаются в очереди, пока
+ * {@link #markFlushed} не сообщит, что они в БД; когда в БД всё, файл обрезается до нуля.
+ * <p>
+ * При открытии журнал читается целиком; недописанная последняя запись (обрыв посреди записи)
+ * отбрасывается и отрезается от файла.
+ * <p>
+ * Если fsync не удался, записи, которые он должен был зафиксировать, отбрасываются (их append
+ * завершается ошибкой, так что и в коллекцию они не попадают), а журнал больше не принимает записей:
+ * после неудачного fsync неизвестно, что из страниц файла дошло до диска.
+ */
+final class WriteJournal implements AutoCloseable {
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 << 20;
+
+    enum Type { INSERT, UPDATE, DELETE }
+
+    /**
+     * Изменение: для INSERT и UPDATE - город (с ID), для DELETE - ID удаляемых городов.
+     */
+    static final class Entry {
+        final long sequence;
+        final Type type;
+        final String ownerId;
+        final City city;
+        final int[] ids;
+        // Логическое смещение конца записи: запись на диске, когда fsync дошёл до него
+        final long end;
+
+        Entry(long sequence, Type type, String ownerId, City city, int[] ids, long end) {
+            this.sequence = sequence;
+            this.type = type;
+            this.ownerId = ownerId;
+            this.city = city;
+            this.ids = ids;
+            this.end = end;
+        }
+    }
+
+    private final FileChannel channel;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition synced = appendLock.newCondition();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    // Записи, которых ещё нет в БД, по возрастанию номера; меняется под appendLock
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private long nextSequence;
+    // Логические смещения не сбрасываются при обрезке файла, так что сравнивать их можно всегда
+    private long writtenBytes;
+    private volatile long syncedBytes;
+    private long fileBytes;
+    // Ошибка fsync; после неё журнал отвергает новые записи
+    private volatile IOException failure;
+
+    private WriteJournal(FileChannel channel, List<Entry> recovered, long fileBytes, long nextSequence) {
+        this.channel = channel;
+        this.pending.addAll(recovered);
+        this.fileBytes = fileBytes;
+        this.writtenBytes = fileBytes;
+        this.syncedBytes = fileBytes;
+        this.nextSequence = nextSequence;
+    }
+
+    /**
+     * Открывает журнал; записи с номером не больше flushedSequence уже в БД и пропускаются.
+     */
+    static WriteJournal open(Path path, long flushedSequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            List<Entry> recovered = new ArrayList<>();
+            long size = channel.size();
+            long position = 0;
+            long lastSequence = flushedSequence;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (position + HEADER_BYTES <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + HEADER_BYTES);
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                payload.flip();
+                position += HEADER_BYTES + length;
+                Entry entry = decode(payload, position);
+                lastSequence = Math.max(lastSequence, entry.sequence);
+                if (entry.sequence > flushedSequence) {
+                    recovered.add(entry);
+                }
+            }
+            if (position < size) {
+                System.err.println("Журнал записи " + path + ": отброшен недописанный хвост, " + (size - position) + " байт.");
+                channel.truncate(position);
+                channel.force(true);
+            }
+            return new WriteJournal(channel, recovered, position, lastSequence + 1);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Журнал записи закончился посреди записи");
+            }
+        }
+    }
+
+    private static Entry decode(ByteBuffer payload, long end) {
+        long sequence = payload.getLong();
+        Type type = Type.values()[payload.get()];
+        String ownerId = CitySnapshotFile.readString(payload);
+        if (type == Type.DELETE) {
+            int[] ids = new int[payload.getInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = payload.getInt();
+            }
+            return new Entry(sequence, type, ownerId, null, ids, end);
+        }
+        return new Entry(sequence, type, ownerId, CitySnapshotFile.readCity(payload, ownerId), null, end);
+    }
+
+    /**
+     * Дописывает изменение и ждёт, пока оно окажется на диске.
+     */
+    Entry append(Type type, String ownerId, City city, int[] ids) throws IOException {
+        ByteBuffer record = encode(type, ownerId, city, ids);
+        Entry entry;
+        appendLock.lock();
+        try {
+            entry = write(record, type, ownerId, city, ids);
+        } finally {
+            appendLock.unlock();
+        }
+        syncTo(entry.end);
+        return entry;
+    }
+
+    /**
+     * Дописывает вставки городов подряд, с одним fsync на все.
+     */
+    List<Entry> appendInserts(List<City> cities, String ownerId) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>(cities.size());
+        for (City city : cities) {
+            records.add(encode(Type.INSERT, ownerId, city, null));
+        }
+        List<Entry> entries = new ArrayList<>(cities.size());
+        appendLock.lock();
+        try {
+            long start = fileBytes;
+            long startWritten = writtenBytes;
+            try {
+                for (int i = 0; i < cities.size(); i++) {
+                    entries.add(write(records.get(i), Type.INSERT, ownerId, cities.get(i), null));
+                }
+            } catch (IOException e) {
+                // Пакет вставляется целиком или никак: уже дописанные записи убираются
+                for (int i = 0; i < entries.size(); i++) {
+                    pending.pollLast();
+                }
+                fileBytes = start;
+                writtenBytes = startWritten;
+                channel.truncate(start);
+                throw e;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        if (!entries.isEmpty()) {
+            syncTo(entries.get(entries.size() - 1).end);
+        }
+        return entries;
+    }
+
+    // Запись без заголовка: номер и CRC32 проставляет write, когда номер известен
+    private static ByteBuffer encode(Type type, String ownerId, City city, int[] ids) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0);
+        out.writeByte(type.ordinal());
+        CitySnapshotFile.writeString(out, ownerId);
+        if (type == Type.DELETE) {
+            out.writeInt(ids.length);
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+        } else {
+            CitySnapshotFile.writeCity(out, city);
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + bytes.size());
+        record.position(HEADER_BYTES);
+        record.put(bytes.toByteArray());
+        return record;
+    }
+
+    // Под appendLock
+    private Entry write(ByteBuffer record, Type type, String ownerId, City city, int[] ids) throws IOException {
+        checkFailure();
+        int payloadBytes = record.capacity() - HEADER_BYTES;
+        long sequence = nextSequence++;
+        record.putLong(HEADER_BYTES, sequence);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_BYTES, payloadBytes);
+        record.putInt(0, payloadBytes);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        long start = fileBytes;
+        try {
+            while (record.hasRemaining()) {
+                fileBytes += channel.write(record, fileBytes);
+            }
+        } catch (IOException e) {
+            // Недописанная запись в середине файла спрятала бы от восстановления все следующие
+            fileBytes = start;
+            channel.truncate(start);
+            throw e;
+        }
+        writtenBytes += record.limit();
+        Entry entry = new Entry(sequence, type, ownerId, city, ids, writtenBytes);
+        pending.addLast(entry);
+        return entry;
+    }
+
+    // Групповой fsync: если чужой fsync уже покрыл нашу запись, второй не нужен
+    private void syncTo(long end) throws IOException {
+        if (syncedBytes >= end) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (syncedBytes >= end) {
+                return;
+            }
+            // Запись отброшена неудачным fsync другого потока
+            checkFailure();
+            long target;
+            appendLock.lock();
+            try {
+                target = writtenBytes;
+            } finally {
+                appendLock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            syncedBytes = target;
+        } finally {
+            syncLock.unlock();
+        }
+        appendLock.lock();
+        try {
+            synced.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Журнал записи неисправен после ошибки fsync: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Отбрасывает записи, не зафиксированные на диске: из очереди, чтобы поток сброса не перенёс
+     * в БД изменение, о котором клиенту сказали, что оно не выполнено, и из файла - насколько это
+     * ещё возможно. Под syncLock.
+     */
+    private void fail(IOException cause) {
+        appendLock.lock();
+        try {
+            failure = cause;
+            while (!pending.isEmpty() && pending.peekLast().end > syncedBytes) {
+                pending.pollLast();
+            }
+            fileBytes -= writtenBytes - syncedBytes;
+            writtenBytes = syncedBytes;
+            try {
+                channel.truncate(fileBytes);
+                channel.force(false);
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * До max записей, уже лежащих на диске, по возрастанию номера; из очереди не удаляются.
+     * Если таких нет, ждёт их не дольше timeoutMillis.
+     */
+    List<Entry> durableEntries(int max, long timeoutMillis) throws InterruptedException {
+        appendLock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (pending.isEmpty() || pending.peekFirst().end > syncedBytes) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return List.of();
+                }
+                synced.awaitNanos(left);
+            }
+            List<Entry> entries = new ArrayList<>(Math.min(max, pending.size()));
+            for (Entry entry : pending) {
+                if (entries.size() == max || entry.end > syncedBytes) {
+                    break;
+                }
+                entries.add(entry);
+            }
+            return entries;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Записи до flushedSequence включительно уже в БД. Если в очереди ничего не осталось,
+     * файл обрезается до нуля.
+     */
+    void markFlushed(long flushedSequence) throws IOException {
+        appendLock.lock();
+        try {
+            while (!pending.isEmpty() && pending.peekFirst().sequence <= flushedSequence) {
+                pending.pollFirst();
+            }
+            if (pending.isEmpty() && fileBytes > 0) {
+                channel.truncate(0);
+                channel.force(true);
+                fileBytes = 0;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Копия очереди изменений, которых ещё нет в БД.
+     */
+    List<Entry> pendingEntries() {
+        appendLock.lock();
+        try {
+            return new ArrayList<>(pending);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    int pendingCount() {
+        appendLock.lock();
+        try {
+            return pending.size();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    long fileBytes() {
+        appendLock.lock();
+        try {
+            return fileBytes;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
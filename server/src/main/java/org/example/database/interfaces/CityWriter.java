@@ -0,0 +1,42 @@
+package org.example.database.interfaces;
+
+import org.example.database.models.City;
+import org.example.database.models.StandardOfLiving;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Куда {@link org.example.database.CollectionManager} записывает изменения городов: сразу в БД
+ * ({@link org.example.database.DatabaseManager}) или в локальный журнал с отложенной записью в БД
+ * ({@link org.example.database.WriteBehindWriter}). Изменяются только города владельца ownerId.
+ */
+public interface CityWriter {
+    /**
+     * @return ID нового города.
+     */
+    int insertCity(City city, String ownerId) throws SQLException;
+
+    /**
+     * @return ID новых городов в порядке списка.
+     */
+    int[] insertCities(List<City> cities, String ownerId) throws SQLException;
+
+    /**
+     * @return false, если города с таким ID у владельца нет.
+     */
+    boolean updateCity(City city, String ownerId) throws SQLException;
+
+    boolean deleteCity(int cityId, String ownerId) throws SQLException;
+
+    /**
+     * Методы удаления возвращают ID удалённых городов.
+     */
+    int[] clearCities(String ownerId) throws SQLException;
+
+    int[] deleteCitiesGreaterThanKey(Integer key, String ownerId) throws SQLException;
+
+    int[] deleteCitiesLowerThanKey(Integer key, String ownerId) throws SQLException;
+
+    int[] deleteCitiesByStandardOfLiving(StandardOfLiving standardOfLiving, String ownerId) throws SQLException;
+}
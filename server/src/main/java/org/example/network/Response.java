@@ -7,14 +7,42 @@ public class Response implements Serializable {
 
     private final String message;
     private final Object data;
+    // Идентификатор запроса, на который это ответ; 0 - не задан
+    private final long requestId;
+    // Токен сессии, который сервер выдаёт в ответ на login и register
+    private final String sessionToken;
 
     public Response(String message) {
         this(message, null);
     }
 
     public Response(String message, Object data) {
+        this(message, data, 0);
+    }
+
+    public Response(String message, Object data, long requestId) {
+        this(message, data, requestId, null);
+    }
+
+    public Response(String message, Object data, long requestId, String sessionToken) {
         this.message = message;
         this.data = data;
+        this.requestId = requestId;
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Копия ответа, помеченная идентификатором запроса.
+     */
+    public Response withRequestId(long requestId) {
+        return requestId == this.requestId ? this : new Response(message, data, requestId, sessionToken);
+    }
+
+    /**
+     * Копия ответа с токеном открытой сессии.
+     */
+    public Response withSessionToken(String sessionToken) {
+        return new Response(message, data, requestId, sessionToken);
     }
 
     public String getMessage() {
@@ -25,11 +53,20 @@ public class Response implements Serializable {
         return data;
     }
 
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
     @Override
     public String toString() {
         String dataString = data == null ? "null" : data.toString();
         return "Response{" +
-                "message='" + message + '\'' +
+                "requestId=" + requestId +
+                ", message='" + message + '\'' +
                 ", data=" + dataString +
                 '}';
     }
@@ -0,0 +1,85 @@
+package org.example.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пул direct-буферов по классам размеров (64 Б, 256 Б, ... 16 МБ, шаг x4).
+ * Буфер берётся через {@link #lease(int)} и возвращается через {@link #release(ByteBuffer)},
+ * когда кадр прочитан или полностью отправлен. Lease и release можно вызывать из разных потоков.
+ */
+public class BufferPool {
+    private static final int MIN_CLASS_SIZE = 64;
+    private static final int CLASS_COUNT = 10;
+    // Сколько байт держим про запас в каждом классе; для мелких классов ограничено числом буферов
+    private static final int RETAINED_BYTES_PER_CLASS = 16 * 1024 * 1024;
+    private static final int MAX_RETAINED_BUFFERS = 1024;
+
+    private final Queue<ByteBuffer>[] free;
+    private final AtomicInteger[] freeCount;
+    private final int[] maxRetained;
+
+    @SuppressWarnings("unchecked")
+    public BufferPool() {
+        free = (Queue<ByteBuffer>[]) new Queue<?>[CLASS_COUNT];
+        freeCount = new AtomicInteger[CLASS_COUNT];
+        maxRetained = new int[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            freeCount[i] = new AtomicInteger();
+            maxRetained[i] = Math.max(2, Math.min(MAX_RETAINED_BUFFERS, RETAINED_BYTES_PER_CLASS / classSize(i)));
+        }
+    }
+
+    private static int classSize(int sizeClass) {
+        return MIN_CLASS_SIZE << (2 * sizeClass);
+    }
+
+    private static int sizeClassFor(int size) {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            if (size <= classSize(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Выдаёт очищенный direct-буфер с limit, равным size. Размеры больше
+     * старшего класса выделяются мимо пула.
+     */
+    public ByteBuffer lease(int size) {
+        int sizeClass = sizeClassFor(size);
+        if (sizeClass < 0) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer buffer = free[sizeClass].poll();
+        if (buffer != null) {
+            freeCount[sizeClass].decrementAndGet();
+        } else {
+            buffer = ByteBuffer.allocateDirect(classSize(sizeClass));
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Возвращает буфер в пул. Heap-буферы, буферы не из пула и излишки просто отпускаются сборщику.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int sizeClass = sizeClassFor(buffer.capacity());
+        if (sizeClass < 0 || classSize(sizeClass) != buffer.capacity()) {
+            return;
+        }
+        if (freeCount[sizeClass].incrementAndGet() > maxRetained[sizeClass]) {
+            freeCount[sizeClass].decrementAndGet();
+            return;
+        }
+        free[sizeClass].add(buffer);
+    }
+}
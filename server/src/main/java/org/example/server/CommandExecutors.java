@@ -0,0 +1,110 @@
+package org.example.server;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Фабрика исполнителей для обработки команд (аутентификация, выполнение, работа с БД).
+ * Режим выбирается при запуске сервера:
+ * <ul>
+ *     <li>{@code fjp} - ForkJoinPool, как раньше;</li>
+ *     <li>{@code virtual} - виртуальный поток на запрос с ограничением одновременно выполняемых задач.</li>
+ * </ul>
+ * Проект собирается под Java 17, поэтому виртуальные потоки берутся через reflection;
+ * на JVM старше 21 режим {@code virtual} откатывается на ForkJoinPool.
+ */
+public final class CommandExecutors {
+    private static final Logger logger = Logger.getLogger(CommandExecutors.class.getName());
+
+    public static final String MODE_FORK_JOIN = "fjp";
+    public static final String MODE_VIRTUAL = "virtual";
+    public static final int DEFAULT_MAX_CONCURRENT_TASKS = 1024;
+
+    private CommandExecutors() {
+    }
+
+    public static ExecutorService create(String mode, int maxConcurrentTasks) {
+        if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+            if (virtual != null) {
+                logger.info("Команды выполняются в виртуальных потоках, одновременно не больше " + maxConcurrentTasks);
+                return new BoundedExecutor(virtual, maxConcurrentTasks);
+            }
+            logger.warning("Виртуальные потоки недоступны на этой JVM (нужна Java 21+), используется ForkJoinPool.");
+        } else if (mode != null && !MODE_FORK_JOIN.equalsIgnoreCase(mode)) {
+            logger.warning("Неизвестный режим выполнения '" + mode + "', используется ForkJoinPool.");
+        }
+        return new ForkJoinPool();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            logger.log(Level.WARNING, "Не удалось создать исполнитель виртуальных потоков: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Пропускает к делегату не больше заданного числа задач одновременно.
+     * Разрешение берётся уже внутри задачи: виртуальному потоку ждать дёшево,
+     * а поток selector-а, отправивший задачу, не блокируется.
+     */
+    private static final class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int maxConcurrentTasks) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(Math.max(1, maxConcurrentTasks));
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            delegate.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
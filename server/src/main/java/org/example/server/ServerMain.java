@@ -1,10 +1,12 @@
 package org.example.server;
 
+import org.example.authentication.SessionManager;
 import org.example.authentication.UserManager;
 import org.example.database.DatabaseManager;
 import org.example.database.CollectionManager;
 import org.example.network.Request;
 import org.example.network.Response;
+import org.example.network.WireCodec;
 import org.example.server.commands.Command;
 import org.example.server.commands.*;
 import org.example.database.exceptions.ValidationException;
@@ -20,16 +22,18 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,42 +45,183 @@ public class ServerMain {
     private final CollectionManager collectionManager;
     private final Map<String, Command> commands;
     private volatile boolean isRunning;
-    private final ForkJoinPool commandExecutionPool;
-    private final ExecutorService responseSendingPool;
-    private final ReentrantLock collectionLock = new ReentrantLock();
+    private final ExecutorService commandExecutionPool;
+    private final Reactor[] reactors;
+    private final BufferPool bufferPool = new BufferPool();
+    private int nextReactor = 0;
+    // Сколько запросов одного соединения может ждать выполнения, прежде чем перестанем читать сокет
+    private static final int MAX_PIPELINED_REQUESTS = 256;
+    // Как часто перезаписывается снимок коллекции на диске, если задан COLLECTION_SNAPSHOT_PATH
+    private static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300;
+    // COLLECTION_WRITE_MODE=write-behind: изменения подтверждаются после fsync журнала, в БД - фоном
+    private static final String WRITE_MODE_WRITE_BEHIND = "write-behind";
+    private static final String DEFAULT_JOURNAL_PATH = "collection.journal";
     private final UserManager userManager;
+    private final SessionManager sessionManager = new SessionManager();
 
+    /**
+     * Состояние соединения. Принадлежит одному Reactor-у: поля чтения трогает только его поток,
+     * поэтому блокировки не нужны. Из потоков пула приходят лишь кадры в outbound.
+     */
     private static class ClientState {
-        ByteBuffer headerBuffer = ByteBuffer.allocate(4);
+        final Reactor reactor;
+        // Заголовок арендуется на всё соединение, тело - на один кадр
+        final ByteBuffer headerBuffer;
         ByteBuffer dataBuffer = null;
         boolean readingHeader = true;
-
-        ByteBuffer responseBufferToSend = null;
-        Response responseToSend = null;
-
-        private final ReentrantLock channelWriteLock = new ReentrantLock();
+        // -1 - рукопожатие ещё не состоялось, WireCodec.LEGACY_VERSION - Java-сериализация
+        byte protocolVersion = -1;
+
+        // Готовые кадры ответов; пишутся только из потока selector-а
+        final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        // Принятые, но ещё не выполненные запросы и признак того, что их разбирает задача пула
+        final Queue<Request> pendingRequests = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean executing = new AtomicBoolean();
+        // Запросы, на которые ещё не поставлен ответ
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        ClientState(Reactor reactor, ByteBuffer headerBuffer) {
+            this.reactor = reactor;
+            this.headerBuffer = headerBuffer;
+        }
 
         public void reset() {
-            headerBuffer.clear();
+            headerBuffer.clear().limit(4);
             readingHeader = true;
+        }
+
+        /**
+         * Возвращает в пул все буферы соединения. Вызывается при закрытии канала из потока Reactor-а.
+         */
+        void releaseBuffers(BufferPool pool) {
+            pool.release(headerBuffer);
+            pool.release(dataBuffer);
             dataBuffer = null;
-            responseBufferToSend = null;
-            responseToSend = null;
+            ByteBuffer frame;
+            while ((frame = outbound.poll()) != null) {
+                pool.release(frame);
+            }
+        }
+    }
+
+    /**
+     * Рабочий selector: читает запросы и пишет ответы для закреплённых за ним соединений.
+     */
+    private final class Reactor implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        // Ключи, у которых в очереди появились ответы; selector включает им OP_WRITE
+        private final Queue<SelectionKey> pendingWriteKeys = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+
+        Reactor(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "reactor-" + index);
         }
 
-        public ReentrantLock getChannelWriteLock() {
-            return channelWriteLock;
+        void assign(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
         }
+
+        void requestWrite(SelectionKey key) {
+            pendingWriteKeys.add(key);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                try {
+                    selector.select(500);
+                    if (!isRunning) {
+                        break;
+                    }
+                    registerNewChannels();
+                    enablePendingWrites();
+
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isReadable()) {
+                            readRequest(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flushOutbound(key);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Ошибка в " + thread.getName() + ": " + e.getMessage(), e);
+                }
+            }
+            close();
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, new ClientState(this, bufferPool.lease(4)));
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Не удалось зарегистрировать клиента: " + e.getMessage(), e);
+                    try { channel.close(); } catch (IOException ex) { logger.log(Level.SEVERE, "Ошибка закрытия канала: " + ex.getMessage()); }
+                }
+            }
+        }
+
+        private void enablePendingWrites() {
+            SelectionKey key;
+            while ((key = pendingWriteKeys.poll()) != null) {
+                if (key.isValid()) {
+                    ClientState clientState = (ClientState) key.attachment();
+                    int ops = key.interestOps() | SelectionKey.OP_WRITE;
+                    if (clientState.inFlight.get() < MAX_PIPELINED_REQUESTS) {
+                        ops |= SelectionKey.OP_READ;
+                    }
+                    key.interestOps(ops);
+                }
+            }
+        }
+
+        private void close() {
+            for (SelectionKey key : selector.keys()) {
+                closeConnection(key);
+            }
+            try { selector.close(); } catch (IOException ex) { logger.log(Level.SEVERE, "Ошибка закрытия selector-а: " + ex.getMessage()); }
+        }
+    }
+
+    public ServerMain(int port, CollectionManager collectionManager, Map<String, Command> commands, UserManager userManager) throws IOException {
+        this(port, collectionManager, commands, userManager, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ServerMain(int port, CollectionManager collectionManager, Map<String, Command> commands, UserManager userManager,
+                      int reactorCount) throws IOException {
+        this(port, collectionManager, commands, userManager, reactorCount,
+                CommandExecutors.create(CommandExecutors.MODE_FORK_JOIN, CommandExecutors.DEFAULT_MAX_CONCURRENT_TASKS));
     }
 
-    public ServerMain(int port, CollectionManager collectionManager, Map<String, Command> commands, UserManager userManager) {
+    /**
+     * @param commandExecutionPool исполнитель для аутентификации и выполнения команд, см. {@link CommandExecutors}.
+     */
+    public ServerMain(int port, CollectionManager collectionManager, Map<String, Command> commands, UserManager userManager,
+                      int reactorCount, ExecutorService commandExecutionPool) throws IOException {
         this.port = port;
         this.collectionManager = collectionManager;
         this.commands = commands;
         this.userManager = userManager;
         this.isRunning = true;
-        this.commandExecutionPool = new ForkJoinPool();
-        this.responseSendingPool = Executors.newCachedThreadPool();
+        this.commandExecutionPool = commandExecutionPool;
+        this.reactors = new Reactor[Math.max(1, reactorCount)];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+        }
         setupLogger();
     }
 
@@ -96,12 +241,26 @@ public class ServerMain {
         try {
             DatabaseManager databaseManager = new DatabaseManager();
             UserManager userManager = new UserManager(databaseManager);
-            CollectionManager collectionManager = new CollectionManager(databaseManager);
+            String snapshotPathEnv = System.getenv("COLLECTION_SNAPSHOT_PATH");
+            String snapshotIntervalEnv = System.getenv("COLLECTION_SNAPSHOT_INTERVAL_S");
+            String journalPathEnv = System.getenv("COLLECTION_JOURNAL_PATH");
+            Path journalPath = WRITE_MODE_WRITE_BEHIND.equalsIgnoreCase(System.getenv("COLLECTION_WRITE_MODE"))
+                    ? Path.of(journalPathEnv != null ? journalPathEnv : DEFAULT_JOURNAL_PATH) : null;
+            CollectionManager collectionManager = new CollectionManager(databaseManager, System.getenv("COLLECTION_STORAGE"),
+                    snapshotPathEnv != null ? Path.of(snapshotPathEnv) : null,
+                    snapshotIntervalEnv != null ? Long.parseLong(snapshotIntervalEnv) : DEFAULT_SNAPSHOT_INTERVAL_SECONDS,
+                    journalPath);
 
             Map<String, Command> commands = new HashMap<>();
             registerCommands(commands, collectionManager, userManager);
 
-            new ServerMain(12345, collectionManager, commands, userManager).start();
+            String reactorsEnv = System.getenv("SERVER_REACTORS");
+            int reactorCount = reactorsEnv != null ? Integer.parseInt(reactorsEnv) : Runtime.getRuntime().availableProcessors();
+            String maxTasksEnv = System.getenv("SERVER_MAX_CONCURRENT_TASKS");
+            int maxConcurrentTasks = maxTasksEnv != null ? Integer.parseInt(maxTasksEnv) : CommandExecutors.DEFAULT_MAX_CONCURRENT_TASKS;
+            ExecutorService commandExecutor = CommandExecutors.create(System.getenv("SERVER_EXECUTION_MODE"), maxConcurrentTasks);
+
+            new ServerMain(12345, collectionManager, commands, userManager, reactorCount, commandExecutor).start();
         } catch (SQLException e) {
             System.err.println("Не удалось запустить сервер: " + e.getMessage());
             e.printStackTrace();
@@ -121,7 +280,10 @@ public class ServerMain {
             serverChannel.configureBlocking(false);
             serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
-            logger.info("Сервер запущен на порту " + port);
+            for (Reactor reactor : reactors) {
+                reactor.thread.start();
+            }
+            logger.info("Сервер запущен на порту " + port + ", рабочих selector-ов: " + reactors.length);
 
             while (isRunning) {
                 selector.select(500);
@@ -136,26 +298,8 @@ public class ServerMain {
                     SelectionKey key = iterator.next();
                     iterator.remove();
 
-                    if (!key.isValid()) {
-                        continue;
-                    }
-
-                    if (key.isAcceptable()) {
-                        acceptConnection(key, selector);
-                    } else if (key.isReadable()) {
-                        readRequest(key);
-                    } else if (key.isWritable()) {
-                        ClientState clientState = (ClientState) key.attachment();
-                        if (clientState != null && clientState.responseBufferToSend != null) {
-                            responseSendingPool.submit(() -> {
-                                try {
-                                    sendResponse(
-                                            (SocketChannel) key.channel(), key, clientState, clientState.responseToSend);
-                                } catch (IOException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            });
-                        }
+                    if (key.isValid() && key.isAcceptable()) {
+                        acceptConnection(key);
                     }
                 }
             }
@@ -172,176 +316,293 @@ public class ServerMain {
         }
     }
 
-    private void acceptConnection(SelectionKey key, Selector selector) throws IOException {
+    /**
+     * Просит сервер остановиться; start() вернётся после завершения цикла приёма соединений.
+     */
+    public void stop() {
+        isRunning = false;
+    }
+
+    /**
+     * Принимает все ожидающие соединения и раздаёт их рабочим selector-ам по кругу.
+     */
+    private void acceptConnection(SelectionKey key) throws IOException {
         ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-        SocketChannel clientChannel = serverChannel.accept();
-        if (clientChannel != null) {
+        SocketChannel clientChannel;
+        while ((clientChannel = serverChannel.accept()) != null) {
             clientChannel.configureBlocking(false);
-            clientChannel.register(selector, SelectionKey.OP_READ, new ClientState());
-            logger.info("Клиент подключен: " + clientChannel.getRemoteAddress());
+            Reactor reactor = reactors[nextReactor];
+            nextReactor = (nextReactor + 1) % reactors.length;
+            reactor.assign(clientChannel);
+            logger.info("Клиент подключен: " + clientChannel.getRemoteAddress() + " -> " + reactor.thread.getName());
         }
     }
 
+    /**
+     * Читает все полностью пришедшие кадры. Соединение не ждёт ответа на предыдущий запрос:
+     * новые запросы ставятся в очередь клиента, пока их не больше MAX_PIPELINED_REQUESTS.
+     */
     private void readRequest(SelectionKey key) throws IOException {
         SocketChannel clientChannel = (SocketChannel) key.channel();
         ClientState clientState = (ClientState) key.attachment();
 
         try {
-            if (clientState.readingHeader) {
-                int bytesRead = clientChannel.read(clientState.headerBuffer);
+            while ((key.interestOps() & SelectionKey.OP_READ) != 0) {
+                if (clientState.readingHeader) {
+                    int bytesRead = clientChannel.read(clientState.headerBuffer);
+                    if (bytesRead == -1) {
+                        logger.info("Клиент " + clientChannel.getRemoteAddress() + " корректно отключился.");
+                        closeConnection(key);
+                        return;
+                    }
+                    if (clientState.headerBuffer.hasRemaining()) {
+                        return;
+                    }
+                    clientState.headerBuffer.flip();
+                    int requestLength = clientState.headerBuffer.getInt();
+
+                    if (requestLength <= 0 || requestLength > WireCodec.MAX_FRAME_LENGTH) {
+                        logger.warning("Получена неверная или чрезмерная длина запроса (" + requestLength + ") от " + clientChannel.getRemoteAddress() + ". Закрываем соединение.");
+                        closeConnection(key);
+                        return;
+                    }
+                    clientState.dataBuffer = bufferPool.lease(requestLength);
+                    clientState.readingHeader = false;
+                }
+
+                int bytesRead = clientChannel.read(clientState.dataBuffer);
                 if (bytesRead == -1) {
-                    logger.info("Клиент " + clientChannel.getRemoteAddress() + " корректно отключился.");
-                    clientChannel.close();
+                    logger.info("Клиент " + clientChannel.getRemoteAddress() + " отключился во время чтения данных.");
+                    closeConnection(key);
                     return;
                 }
-                if (clientState.headerBuffer.hasRemaining()) {
+                if (clientState.dataBuffer.hasRemaining()) {
                     return;
                 }
-                clientState.headerBuffer.flip();
-                int requestLength = clientState.headerBuffer.getInt();
 
-                if (requestLength <= 0 || requestLength > 10 * 1024 * 1024) {
-                    logger.warning("Получена неверная или чрезмерная длина запроса (" + requestLength + ") от " + clientChannel.getRemoteAddress() + ". Закрываем соединение.");
-                    clientChannel.close();
-                    return;
+                ByteBuffer payload = clientState.dataBuffer;
+                payload.flip();
+                Request request;
+                try {
+                    if (clientState.protocolVersion < 0) {
+                        if (WireCodec.isHandshake(payload)) {
+                            byte version = WireCodec.negotiate(WireCodec.decodeHandshake(payload));
+                            clientState.protocolVersion = version;
+                            logger.info("Клиент " + clientChannel.getRemoteAddress() + " согласовал протокол версии " + version);
+                            clientState.outbound.add(WireCodec.encodeHandshake(version));
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                            continue;
+                        }
+                        clientState.protocolVersion = WireCodec.LEGACY_VERSION;
+                        logger.info("Клиент " + clientChannel.getRemoteAddress() + " не прислал рукопожатие, используется Java-сериализация.");
+                    }
+                    request = decodeRequest(payload, clientState.protocolVersion);
+                } finally {
+                    clientState.dataBuffer = null;
+                    clientState.reset();
+                    bufferPool.release(payload);
                 }
-                clientState.dataBuffer = ByteBuffer.allocate(requestLength);
-                clientState.readingHeader = false;
-            }
+                logger.info("Получен запрос от " + clientChannel.getRemoteAddress() + ": " + request.getCommandName());
 
-            int bytesRead = clientChannel.read(clientState.dataBuffer);
-            if (bytesRead == -1) {
-                logger.info("Клиент " + clientChannel.getRemoteAddress() + " отключился во время чтения данных.");
-                clientChannel.close();
-                return;
+                enqueueRequest(key, clientState, request);
             }
-            if (clientState.dataBuffer.hasRemaining()) {
-                return;
-            }
-
-            clientState.dataBuffer.flip();
-            byte[] requestBytes = new byte[clientState.dataBuffer.remaining()];
-            clientState.dataBuffer.get(requestBytes);
-
-            Request request = deserializeRequest(requestBytes);
-            logger.info("Получен запрос от " + clientChannel.getRemoteAddress() + ": " + request.getCommandName());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ошибка чтения запроса от клиента " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
+            closeConnection(key);
+        } catch (ClassNotFoundException e) {
+            logger.log(Level.SEVERE, "Класс не найден во время десериализации запроса от клиента " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
+            closeConnection(key);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Неожиданная ошибка в readRequest для " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
+            closeConnection(key);
+        }
+    }
 
-            key.interestOps(0);
+    /**
+     * Ставит запрос в очередь соединения. Запросы одного клиента выполняются строго по очереди
+     * одной задачей пула, поэтому ответы уходят в порядке запросов, а скрипт видит свои же изменения.
+     * Вызывается из потока Reactor-а.
+     */
+    private void enqueueRequest(SelectionKey key, ClientState clientState, Request request) {
+        clientState.pendingRequests.add(request);
+        if (clientState.inFlight.incrementAndGet() >= MAX_PIPELINED_REQUESTS) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        if (clientState.executing.compareAndSet(false, true)) {
+            commandExecutionPool.submit(() -> drainRequests(key, clientState));
+        }
+    }
 
-            commandExecutionPool.submit(() -> {
+    private void drainRequests(SelectionKey key, ClientState clientState) {
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        do {
+            Request request;
+            while ((request = clientState.pendingRequests.poll()) != null) {
                 Response response;
-                String authenticatedUsername = null;
-
-                String username = request.getUsername();
-                String password = request.getPassword();
-
-                if ("register".equalsIgnoreCase(request.getCommandName())) {
-                    if (username != null && password != null && !username.isEmpty() && !password.isEmpty()) {
-                        if (userManager.registerUser(username, password)) {
-                            response = new Response("Успешная регистрация. Вы вошли в систему как " + username + ".");
-                            authenticatedUsername = username;
-                        } else {
-                            response = new Response("Ошибка регистрации: Пользователь с таким именем уже существует или внутренняя ошибка.");
-                        }
-                    } else {
-                        response = new Response("Ошибка: Для регистрации требуются имя пользователя и пароль.");
-                    }
-                } else if ("login".equalsIgnoreCase(request.getCommandName())) {
-                    if (username != null && password != null && !username.isEmpty() && !password.isEmpty()) {
-                        if (userManager.authenticateUser(username, password)) {
-                            response = new Response("Успешный вход. Добро пожаловать, " + username + "!");
-                            authenticatedUsername = username;
-                        } else {
-                            response = new Response("Ошибка входа: Неверное имя пользователя или пароль.");
-                        }
-                    } else {
-                        response = new Response("Ошибка: Для входа требуются имя пользователя и пароль.");
-                    }
-                } else {
-                    if (username == null || password == null || username.isEmpty() || password.isEmpty() || !userManager.authenticateUser(username, password)) {
-                        response = new Response("Ошибка: Для выполнения этой команды необходима аутентификация. Пожалуйста, используйте 'register' или 'login'.");
-                    } else {
-                        authenticatedUsername = username;
-                        try {
-                            collectionLock.lock();
-                            Command command = commands.get(request.getCommandName().toLowerCase());
-                            if (command == null) {
-                                response = new Response("Команда не найдена.");
-                                logger.warning("Команда не найдена от " + clientChannel.getRemoteAddress() + ": " + request.getCommandName());
-                            } else {
-                                response = command.execute(request, authenticatedUsername);
-                                logger.info("Выполнена команда '" + request.getCommandName() + "' для " + authenticatedUsername + " (" + clientChannel.getRemoteAddress() + ").");
-                            }
-                        } catch (Exception e) {
-                            response = new Response("Ошибка при выполнении команды: " + e.getMessage());
-                            try {
-                                logger.log(Level.SEVERE, "Ошибка при выполнении команды для " + authenticatedUsername + " (" + clientChannel.getRemoteAddress() + "): " + e.getMessage(), e);
-                            } catch (IOException ex) {
-                                throw new RuntimeException(ex);
-                            }
-                        } finally {
-                            collectionLock.unlock();
-                        }
-                    }
+                try {
+                    response = handleRequest(request, clientChannel, clientState.protocolVersion);
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "Ошибка при обработке запроса: " + e.getMessage(), e);
+                    response = new Response("Ошибка сервера при обработке запроса: " + e.getMessage());
                 }
                 try {
-                    sendResponse(clientChannel, key, clientState, response);
+                    sendResponse(clientChannel, key, clientState, response.withRequestId(request.getRequestId()));
                 } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    logger.log(Level.WARNING, "Не удалось поставить ответ в очередь: " + e.getMessage(), e);
                 }
-            });
+            }
+            clientState.executing.set(false);
+        } while (!clientState.pendingRequests.isEmpty() && clientState.executing.compareAndSet(false, true));
+    }
 
-        } catch (IOException e) {
-            logger.log(Level.WARNING, "Ошибка чтения запроса от клиента " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
-            try { clientChannel.close(); } catch (IOException ex) { logger.log(Level.SEVERE, "Ошибка закрытия канала: " + ex.getMessage()); }
-        } catch (ClassNotFoundException e) {
-            logger.log(Level.SEVERE, "Класс не найден во время десериализации запроса от клиента " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
-            try { clientChannel.close(); } catch (IOException ex) { logger.log(Level.SEVERE, "Ошибка закрытия канала: " + ex.getMessage()); }
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Неожиданная ошибка в readRequest для " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
-            try { clientChannel.close(); } catch (IOException ex) { logger.log(Level.SEVERE, "Ошибка закрытия канала: " + ex.getMessage()); }
+    /**
+     * Аутентифицирует пользователя и выполняет команду. Вызывается в потоке пула выполнения.
+     * Клиенты с протоколом версии 3 и выше получают при входе токен сессии и дальше предъявляют его,
+     * остальные по-прежнему присылают пароль с каждой командой.
+     */
+    private Response handleRequest(Request request, SocketChannel clientChannel, byte protocolVersion) throws IOException {
+        Response response;
+        String authenticatedUsername = null;
+
+        String username = request.getUsername();
+        String password = request.getPassword();
+
+        if ("register".equalsIgnoreCase(request.getCommandName())) {
+            if (username != null && password != null && !username.isEmpty() && !password.isEmpty()) {
+                if (userManager.registerUser(username, password)) {
+                    response = openSession(new Response("Успешная регистрация. Вы вошли в систему как " + username + "."),
+                            username, protocolVersion);
+                    authenticatedUsername = username;
+                } else {
+                    response = new Response("Ошибка регистрации: Пользователь с таким именем уже существует или внутренняя ошибка.");
+                }
+            } else {
+                response = new Response("Ошибка: Для регистрации требуются имя пользователя и пароль.");
+            }
+        } else if ("login".equalsIgnoreCase(request.getCommandName())) {
+            if (username != null && password != null && !username.isEmpty() && !password.isEmpty()) {
+                if (userManager.authenticateUser(username, password)) {
+                    response = openSession(new Response("Успешный вход. Добро пожаловать, " + username + "!"),
+                            username, protocolVersion);
+                    authenticatedUsername = username;
+                } else {
+                    response = new Response("Ошибка входа: Неверное имя пользователя или пароль.");
+                }
+            } else {
+                response = new Response("Ошибка: Для входа требуются имя пользователя и пароль.");
+            }
+        } else {
+            if (request.getSessionToken() != null) {
+                authenticatedUsername = sessionManager.resolve(request.getSessionToken());
+            } else if (username != null && password != null && !username.isEmpty() && !password.isEmpty()
+                    && userManager.authenticateUser(username, password)) {
+                authenticatedUsername = username;
+            }
+            if (authenticatedUsername == null) {
+                response = request.getSessionToken() != null
+                        ? new Response("Ошибка: Сессия истекла или недействительна. Пожалуйста, выполните 'login' заново.")
+                        : new Response("Ошибка: Для выполнения этой команды необходима аутентификация. Пожалуйста, используйте 'register' или 'login'.");
+            } else {
+                try {
+                    Command command = commands.get(request.getCommandName().toLowerCase());
+                    if (command == null) {
+                        response = new Response("Команда не найдена.");
+                        logger.warning("Команда не найдена от " + clientChannel.getRemoteAddress() + ": " + request.getCommandName());
+                    } else {
+                        // Читающие команды работают со снимком коллекции, изменяющие упорядочивает
+                        // сам CollectionManager - по владельцу, так что разные пользователи идут в БД параллельно
+                        response = command.execute(request, authenticatedUsername);
+                        logger.info("Выполнена команда '" + request.getCommandName() + "' для " + authenticatedUsername + " (" + clientChannel.getRemoteAddress() + ").");
+                    }
+                } catch (Exception e) {
+                    response = new Response("Ошибка при выполнении команды: " + e.getMessage());
+                    logger.log(Level.SEVERE, "Ошибка при выполнении команды для " + authenticatedUsername + " (" + clientChannel.getRemoteAddress() + "): " + e.getMessage(), e);
+                }
+            }
         }
+        return response;
+    }
+
+    // Токен выдаём только тем, кто сможет его прочитать и предъявить
+    private Response openSession(Response response, String username, byte protocolVersion) {
+        if (protocolVersion < WireCodec.VERSION_SESSIONS) {
+            return response;
+        }
+        return response.withSessionToken(sessionManager.createSession(username));
     }
 
     private void sendResponse(SocketChannel clientChannel, SelectionKey key, ClientState clientState, Response response) throws IOException {
-        clientState.getChannelWriteLock().lock();
+        ByteBuffer frame;
         try {
-            clientState.responseBufferToSend = ByteBuffer.wrap(serializeResponse(response));
+            frame = encodeResponse(response, clientState.protocolVersion);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Не удалось закодировать ответ для " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
+            frame = encodeResponse(new Response("Ошибка сервера: не удалось закодировать ответ."), clientState.protocolVersion);
+        }
+        sendFrame(key, clientState, frame);
+    }
+
+    /**
+     * Ставит кадр в исходящую очередь клиента и будит selector, чтобы тот включил OP_WRITE.
+     * Может вызываться из любого потока.
+     */
+    private void sendFrame(SelectionKey key, ClientState clientState, ByteBuffer frame) {
+        clientState.outbound.add(frame);
+        clientState.inFlight.decrementAndGet();
+        clientState.reactor.requestWrite(key);
+    }
 
-            while (clientState.responseBufferToSend.hasRemaining()) {
-                int bytesWritten = clientChannel.write(clientState.responseBufferToSend);
-                if (bytesWritten == 0) {
-                    TimeUnit.MILLISECONDS.sleep(1);
+    /**
+     * Пишет очередь ответов, пока сокет принимает данные. Частично записанный кадр
+     * остаётся в голове очереди и дописывается при следующем OP_WRITE.
+     */
+    private void flushOutbound(SelectionKey key) throws IOException {
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        ClientState clientState = (ClientState) key.attachment();
+        try {
+            ByteBuffer frame;
+            while ((frame = clientState.outbound.peek()) != null) {
+                clientChannel.write(frame);
+                if (frame.hasRemaining()) {
+                    return;
                 }
+                clientState.outbound.poll();
+                bufferPool.release(frame);
+                logger.info("Ответ отправлен клиенту " + clientChannel.getRemoteAddress());
             }
-            logger.info("Ответ отправлен клиенту " + clientChannel.getRemoteAddress());
-
-            clientState.reset();
-            key.selector().wakeup();
-            key.interestOps(SelectionKey.OP_READ);
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
         } catch (IOException e) {
             logger.log(Level.WARNING, "Ошибка отправки ответа клиенту " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
-            try { clientChannel.close(); } catch (IOException ex) { logger.log(Level.SEVERE, "Ошибка закрытия канала: " + ex.getMessage()); }
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Неожиданная ошибка в sendResponse для " + clientChannel.getRemoteAddress() + ": " + e.getMessage(), e);
-            try { clientChannel.close(); } catch (IOException ex) { logger.log(Level.SEVERE, "Ошибка закрытия канала: " + ex.getMessage()); }
-        } finally {
-            clientState.getChannelWriteLock().unlock();
+            closeConnection(key);
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        // Повторное закрытие не должно второй раз вернуть буферы в пул
+        if (!key.channel().isOpen()) {
+            return;
+        }
+        ClientState clientState = (ClientState) key.attachment();
+        try { key.channel().close(); } catch (IOException ex) { logger.log(Level.SEVERE, "Ошибка закрытия канала: " + ex.getMessage()); }
+        if (clientState != null) {
+            clientState.releaseBuffers(bufferPool);
         }
     }
 
     private void shutdownServer() {
+        isRunning = false;
+        for (Reactor reactor : reactors) {
+            reactor.selector.wakeup();
+        }
         try {
+            for (Reactor reactor : reactors) {
+                reactor.thread.join(TimeUnit.SECONDS.toMillis(10));
+            }
             commandExecutionPool.shutdown();
-            responseSendingPool.shutdown();
             if (!commandExecutionPool.awaitTermination(10, TimeUnit.SECONDS)) {
                 logger.warning("Пул выполнения команд не завершился вовремя, принудительное завершение.");
                 commandExecutionPool.shutdownNow();
             }
-            if (!responseSendingPool.awaitTermination(10, TimeUnit.SECONDS)) {
-                logger.warning("Пул отправки ответов не завершился вовремя, принудительное завершение.");
-                responseSendingPool.shutdownNow();
-            }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Ошибка при завершении пулов потоков: " + e.getMessage(), e);
         }
@@ -356,6 +617,7 @@ public class ServerMain {
         commands.put("info", new Info(collectionManager));
         commands.put("show", new Show(collectionManager));
         commands.put("insert", new Insert(collectionManager));
+        commands.put("insert_many", new InsertMany(collectionManager));
         commands.put("update", new Update(collectionManager));
         commands.put("remove_key", new RemoveKey(collectionManager));
         commands.put("clear", new Clear(collectionManager));
@@ -368,6 +630,26 @@ public class ServerMain {
                 new AverageOfMetersAboveSeaLevel(collectionManager));
         commands.put("filter_starts_with_name",
                 new FilterStartsWithName(collectionManager));
+        commands.put("count_by_standard_of_living",
+                new CountByStandardOfLiving(collectionManager));
+        commands.put("filter_by_standard_of_living",
+                new FilterByStandardOfLiving(collectionManager));
+    }
+
+    private ByteBuffer encodeResponse(Response response, byte protocolVersion) throws IOException {
+        if (protocolVersion >= WireCodec.VERSION_BINARY) {
+            return WireCodec.encodeResponse(response, protocolVersion, bufferPool::lease);
+        }
+        return ByteBuffer.wrap(serializeResponse(response));
+    }
+
+    private static Request decodeRequest(ByteBuffer payload, byte protocolVersion) throws IOException, ClassNotFoundException {
+        if (protocolVersion >= WireCodec.VERSION_BINARY) {
+            return WireCodec.decodeRequest(payload, protocolVersion);
+        }
+        byte[] requestBytes = new byte[payload.remaining()];
+        payload.get(requestBytes);
+        return deserializeRequest(requestBytes);
     }
 
     private static byte[] serializeResponse(Response response) throws IOException {
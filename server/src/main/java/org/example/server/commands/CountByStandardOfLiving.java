@@ -0,0 +1,38 @@
+package org.example.server.commands;
+
+import org.example.network.Request;
+import org.example.network.Response;
+import org.example.database.CollectionManager;
+import org.example.database.models.StandardOfLiving;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+public class CountByStandardOfLiving extends Command {
+    private final CollectionManager collectionManager;
+
+    public CountByStandardOfLiving(CollectionManager collectionManager) {
+        super("count_by_standard_of_living", "вывести количество элементов, значение поля standardOfLiving которых равно заданному");
+        this.collectionManager = collectionManager;
+    }
+
+    @Override
+    public Response execute(Request request, String authenticatedUsername) {
+        // Для этой команды аутентификация не требуется, так как это просмотр.
+        try {
+            Object[] args = (Object[]) request.getArguments();
+            if (args == null || args.length == 0) {
+                return new Response("а уровень жизни-то где?");
+            }
+            StandardOfLiving standard = StandardOfLiving.valueOf(args[0].toString().toUpperCase());
+            int count = collectionManager.countByStandardOfLiving(standard);
+            return new Response("городов с уровнем жизни " + standard + ": " + count);
+        } catch (IllegalArgumentException e) {
+            String availableValues = Arrays.stream(StandardOfLiving.values())
+                    .map(Enum::toString)
+                    .collect(Collectors.joining(", "));
+            return new Response("нет такого уровня жизни, вот доступные: " + availableValues + ". Ошибка: " + e.getMessage());
+        } catch (Exception e) {
+            return new Response("ошибка при подсчёте по уровню жизни: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.example.server.commands;
+
+import org.example.network.Request;
+import org.example.network.Response;
+import org.example.database.CollectionManager;
+import org.example.database.models.City;
+import org.example.database.models.StandardOfLiving;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class FilterByStandardOfLiving extends Command {
+    private final CollectionManager collectionManager;
+
+    public FilterByStandardOfLiving(CollectionManager collectionManager) {
+        super("filter_by_standard_of_living", "вывести элементы, значение поля standardOfLiving которых равно заданному");
+        this.collectionManager = collectionManager;
+    }
+
+    @Override
+    public Response execute(Request request, String authenticatedUsername) {
+        // Для этой команды аутентификация не требуется, так как это просмотр.
+        try {
+            Object[] args = (Object[]) request.getArguments();
+            if (args == null || args.length == 0) {
+                return new Response("а уровень жизни-то где?");
+            }
+            StandardOfLiving standard = StandardOfLiving.valueOf(args[0].toString().toUpperCase());
+            List<City> cities = collectionManager.filterByStandardOfLiving(standard);
+            if (cities.isEmpty()) {
+                return new Response("нет городов с уровнем жизни " + standard);
+            }
+            String data = cities.stream().map(City::toString).collect(Collectors.joining("\n"));
+            return new Response("города с уровнем жизни " + standard + ":\n" + data, cities);
+        } catch (IllegalArgumentException e) {
+            String availableValues = Arrays.stream(StandardOfLiving.values())
+                    .map(Enum::toString)
+                    .collect(Collectors.joining(", "));
+            return new Response("нет такого уровня жизни, вот доступные: " + availableValues + ". Ошибка: " + e.getMessage());
+        } catch (Exception e) {
+            return new Response("ошибка при фильтрации по уровню жизни: " + e.getMessage());
+        }
+    }
+}
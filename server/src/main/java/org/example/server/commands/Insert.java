@@ -22,8 +22,40 @@ public class Insert extends Command {
         }
 
         String[] args = (String[]) request.getArguments(); // Теперь аргументы - это String[]
+        try {
+            City newCity = parseCity(args);
+            collectionManager.addElement(newCity, authenticatedUsername);
+
+            return new Response("Город успешно добавлен.");
+
+        } catch (CityArgumentsException e) {
+            return new Response(e.getMessage());
+        } catch (ValidationException e) {
+            return new Response("Город у тебя какой-то неправильный: " + e.getMessage());
+        } catch (SQLException e) {
+            return new Response("Ошибка базы данных при добавлении города: " + e.getMessage());
+        } catch (Exception e) {
+            return new Response("Ой, что-то пошло не так при добавлении города: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Неверные аргументы города; сообщение готово для ответа клиенту.
+     */
+    static class CityArgumentsException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        CityArgumentsException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Собирает и проверяет город из аргументов insert (их же по одному городу принимает insert_many).
+     */
+    static City parseCity(String[] args) throws CityArgumentsException {
         if (args == null || args.length < 9 || args.length > 10) {
-            return new Response("Эй, полегче! Аргументов не хватает или ты лишнего накидал: название, x, y, площадь, население, высота, код_климата, код_правительства, код_уровня_жизни [, имя_губернатора].");
+            throw new CityArgumentsException("Эй, полегче! Аргументов не хватает или ты лишнего накидал: название, x, y, площадь, население, высота, код_климата, код_правительства, код_уровня_жизни [, имя_губернатора].");
         }
 
         try {
@@ -36,7 +68,7 @@ public class Insert extends Command {
 
             int climateCode = Integer.parseInt(args[6]);
             if (climateCode < 1 || climateCode > Climate.values().length) {
-                return new Response("Ты с климатом ошибся, коды от 1 до " + Climate.values().length + ":\n" +
+                throw new CityArgumentsException("Ты с климатом ошибся, коды от 1 до " + Climate.values().length + ":\n" +
                         "    1 - RAIN_FOREST,\n" +
                         "    2 - HUMIDSUBTROPICAL,\n" +
                         "    3 - HUMIDCONTINENTAL,\n" +
@@ -51,7 +83,7 @@ public class Insert extends Command {
                 if (governmentCode >= 1 && governmentCode <= Government.values().length) {
                     government = Government.values()[governmentCode - 1];
                 } else {
-                    return new Response("Правительство тоже не то, коды от 1 до " + Government.values().length + ":\n" +
+                    throw new CityArgumentsException("Правительство тоже не то, коды от 1 до " + Government.values().length + ":\n" +
                             "    1 - DESPOTISM,\n" +
                             "    2 - NOOCRACY,\n" +
                             "    3 - TECHNOCRACY,\n" +
@@ -62,7 +94,7 @@ public class Insert extends Command {
 
             int standardOfLivingCode = Integer.parseInt(args[8]);
             if (standardOfLivingCode < 1 || standardOfLivingCode > StandardOfLiving.values().length) {
-                return new Response("Ну и уровень жизни у тебя... коды от 1 до " + StandardOfLiving.values().length + ":\n" +
+                throw new CityArgumentsException("Ну и уровень жизни у тебя... коды от 1 до " + StandardOfLiving.values().length + ":\n" +
                         "    1 - ULTRA_HIGH,\n" +
                         "    2 - VERY_HIGH,\n" +
                         "    3 - LOW,\n" +
@@ -88,23 +120,14 @@ public class Insert extends Command {
             newCity.setGovernor(governor);
 
             newCity.validate(); // Валидация объекта City
-
-            collectionManager.addElement(newCity, authenticatedUsername);
-
-            return new Response("Город успешно добавлен.");
+            return newCity;
 
         } catch (NumberFormatException e) {
-            return new Response("Ты что-то не то с числами намудрил: " + e.getMessage());
+            throw new CityArgumentsException("Ты что-то не то с числами намудрил: " + e.getMessage());
         } catch (IllegalArgumentException e) {
-            return new Response("Аргументы какие-то кривые (возможно, неверные значения для ENUM): " + e.getMessage());
-        } catch (ValidationException e) {
-            return new Response("Город у тебя какой-то неправильный: " + e.getMessage());
+            throw new CityArgumentsException("Аргументы какие-то кривые (возможно, неверные значения для ENUM): " + e.getMessage());
         } catch (IndexOutOfBoundsException e) {
-            return new Response("Ты с кодами совсем запутался (выход за пределы массива ENUM): " + e.getMessage());
-        } catch (SQLException e) {
-            return new Response("Ошибка базы данных при добавлении города: " + e.getMessage());
-        } catch (Exception e) {
-            return new Response("Ой, что-то пошло не так при добавлении города: " + e.getMessage());
+            throw new CityArgumentsException("Ты с кодами совсем запутался (выход за пределы массива ENUM): " + e.getMessage());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package org.example.server.commands;
+
+import org.example.network.Request;
+import org.example.network.Response;
+import org.example.database.CollectionManager;
+import org.example.database.models.City;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Пакетная вставка: города в аргументах идут подряд, перед полями каждого - их число
+ * (9 или 10, как у insert). Город с неверными полями пропускается с отдельной ошибкой - как если бы
+ * его insert выполнялся сам по себе; остальные пишутся в БД одной транзакцией и попадают
+ * в коллекцию одним снимком. Так execute_script отправляет подряд идущие insert-ы.
+ */
+public class InsertMany extends Command {
+    private final CollectionManager collectionManager;
+
+    public InsertMany(CollectionManager collectionManager) {
+        super("insert_many", "добавить несколько городов одной транзакцией. Использование: insert_many <число_полей> <поля insert> [<число_полей> <поля insert> ...]");
+        this.collectionManager = collectionManager;
+    }
+
+    @Override
+    public Response execute(Request request, String authenticatedUsername) {
+        if (authenticatedUsername == null) {
+            return new Response("Ошибка: Для выполнения команды 'insert_many' требуется аутентификация. Пожалуйста, используйте 'register' или 'login'.");
+        }
+
+        String[] args = (String[]) request.getArguments();
+        if (args == null || args.length == 0) {
+            return new Response("Нечего добавлять: передай хотя бы один город.");
+        }
+
+        List<City> cities = new ArrayList<>();
+        StringBuilder errors = new StringBuilder();
+        int position = 0;
+        int number = 0;
+        while (position < args.length) {
+            number++;
+            int fieldCount;
+            try {
+                fieldCount = Integer.parseInt(args[position]);
+            } catch (NumberFormatException e) {
+                return new Response("Город №" + number + ": перед полями ожидалось их число, а пришло '" + args[position] + "'.");
+            }
+            if (fieldCount < 0 || position + 1 + fieldCount > args.length) {
+                return new Response("Город №" + number + ": заявлено " + fieldCount + " полей, а аргументов меньше.");
+            }
+            try {
+                cities.add(Insert.parseCity(Arrays.copyOfRange(args, position + 1, position + 1 + fieldCount)));
+            } catch (Insert.CityArgumentsException e) {
+                errors.append("\nГород №").append(number).append(" не добавлен: ").append(e.getMessage());
+            }
+            position += 1 + fieldCount;
+        }
+        if (cities.isEmpty()) {
+            return new Response("Добавлено городов: 0." + errors);
+        }
+
+        try {
+            collectionManager.addElements(cities, authenticatedUsername);
+            return new Response("Добавлено городов: " + cities.size() + "." + errors);
+        } catch (SQLException e) {
+            return new Response("Ошибка базы данных при добавлении городов, ни один не добавлен: " + e.getMessage() + errors);
+        } catch (Exception e) {
+            return new Response("Ой, что-то пошло не так при добавлении городов: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Колоночный движок против объектного: после каждой серии случайных изменений оба снимка
+ * должны отвечать на все запросы CityStore одинаково - и пока изменения лежат в слое поверх
+ * колонок, и после перепаковки.
+ */
+class ColumnarSnapshotTest {
+    private static final String[] NAMES = {"Москва", "Мурманск", "Омск", "Орёл", "Oslo", "Ob", "Самара", "Саратов"};
+    private static final String[] OWNERS = {"alice", "bob", "carol"};
+
+    private static City city(int id, String name, Float meters, Random random) {
+        StandardOfLiving[] standards = StandardOfLiving.values();
+        Government[] governments = Government.values();
+        return new City(id, name, new Coordinates(random.nextInt(1000) - 500, random.nextLong()),
+                new Date(random.nextInt(1_000_000) * 1000L), 1 + random.nextInt(10_000), 1L + random.nextInt(1 << 30),
+                meters, Climate.values()[random.nextInt(Climate.values().length)],
+                random.nextInt(5) == 0 ? null : governments[random.nextInt(governments.length)],
+                standards[random.nextInt(standards.length)],
+                random.nextInt(3) == 0 ? null : new Human("Губернатор " + random.nextInt(100)),
+                OWNERS[random.nextInt(OWNERS.length)]);
+    }
+
+    private static City randomCity(int id, Random random) {
+        String name = NAMES[random.nextInt(NAMES.length)] + (random.nextBoolean() ? "" : "-" + random.nextInt(50));
+        // Немного различных высот - чаще проверяется порядок по ID при равенстве
+        Float meters = random.nextInt(10) == 0 ? null : (random.nextInt(20) == 0 ? -0.0f : random.nextInt(30) - 15f);
+        return city(id, name, meters, random);
+    }
+
+    // У City нет equals, сравниваем все поля через toString
+    private static List<String> describe(Collection<City> cities) {
+        List<String> result = new ArrayList<>();
+        for (City city : cities) {
+            result.add(city.toString());
+        }
+        return result;
+    }
+
+    private static void assertSameAnswers(CityStore expected, CityStore actual, Random random) {
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        assertIterableEquals(describe(expected.values()), describe(actual.values()));
+        assertEquals(expected.values().size(), actual.values().size());
+        assertIterableEquals(describe(expected.sortedByMetersAboveSeaLevel()),
+                describe(actual.sortedByMetersAboveSeaLevel()));
+
+        for (int i = 0; i < 20; i++) {
+            int id = random.nextInt(6_000);
+            assertEquals(expected.containsKey(id), actual.containsKey(id));
+            City city = expected.get(id);
+            if (city == null) {
+                assertNull(actual.get(id));
+            } else {
+                assertEquals(city.toString(), actual.get(id).toString());
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            int from = random.nextInt(6_000);
+            int to = from + random.nextInt(500);
+            Collection<City> expectedRange = expected.range(from, to);
+            Collection<City> actualRange = actual.range(from, to);
+            assertIterableEquals(describe(expectedRange), describe(actualRange));
+            assertEquals(expectedRange.size(), actualRange.size());
+
+            String name = NAMES[random.nextInt(NAMES.length)];
+            String prefix = name.substring(0, random.nextInt(name.length() + 1));
+            assertIterableEquals(describe(expected.filterStartsWithName(prefix)),
+                    describe(actual.filterStartsWithName(prefix)));
+        }
+        for (StandardOfLiving standard : StandardOfLiving.values()) {
+            Collection<City> expectedBucket = expected.byStandardOfLiving(standard);
+            Collection<City> actualBucket = actual.byStandardOfLiving(standard);
+            assertIterableEquals(describe(expectedBucket), describe(actualBucket));
+            assertEquals(expectedBucket.size(), actualBucket.size());
+        }
+        assertEquals(expected.aggregates().getAreaSum(), actual.aggregates().getAreaSum());
+        assertEquals(expected.aggregates().getPopulationSum(), actual.aggregates().getPopulationSum());
+        assertEquals(expected.aggregates().getMetersAboveSeaLevelSum(),
+                actual.aggregates().getMetersAboveSeaLevelSum());
+    }
+
+    private static CityStore[] load(CityStore expected, CityStore actual, int count, int step, Random random) {
+        int[] ids = new int[count];
+        City[] cities = new City[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i * step;
+            cities[i] = randomCity(ids[i], random);
+        }
+        return new CityStore[]{expected.withAll(ids, cities, count), actual.withAll(ids, cities, count)};
+    }
+
+    /**
+     * Случайные вставки, замены, удаления и вырезание диапазонов. Слой изменений перепаковывается
+     * после 1024 изменений, так что за прогон перепаковка случается много раз, а проверки
+     * попадают и на снимки с большим слоем, и на только что перепакованные.
+     */
+    static void assertMatchesObjectEngine(ColumnarSnapshot empty, long seed) {
+        Random random = new Random(seed);
+        CityStore[] stores = load(CollectionSnapshot.EMPTY, empty, 3_000, 2, random);
+        CityStore expected = stores[0];
+        CityStore actual = stores[1];
+        assertSameAnswers(expected, actual, random);
+
+        for (int step = 0; step < 30_000; step++) {
+            int id = random.nextInt(6_000);
+            switch (random.nextInt(20)) {
+                case 0 -> {
+                    int to = id + random.nextInt(200);
+                    expected = expected.withoutRange(id, to);
+                    actual = actual.withoutRange(id, to);
+                }
+                case 1 -> {
+                    // Перезагрузка коллекции целиком сбрасывает слой изменений
+                    if (random.nextInt(20) == 0) {
+                        stores = load(expected, actual, random.nextInt(4_000), 1 + random.nextInt(3), random);
+                        expected = stores[0];
+                        actual = stores[1];
+                    }
+                }
+                case 2, 3, 4, 5, 6 -> {
+                    int[] ids = {id, random.nextInt(6_000), id + 1};
+                    expected = expected.withRemoved(ids);
+                    actual = actual.withRemoved(ids);
+                }
+                default -> {
+                    City city = randomCity(id, random);
+                    expected = expected.withPut(city);
+                    actual = actual.withPut(city);
+                }
+            }
+            if (step % 1_000 == 0) {
+                assertSameAnswers(expected, actual, random);
+            }
+        }
+        assertSameAnswers(expected, actual, random);
+    }
+
+    @Test
+    void columnarEngineMatchesObjectEngine() {
+        assertMatchesObjectEngine(ColumnarSnapshot.EMPTY, 16);
+    }
+
+    // Ключ сортировки для show строится из битов float: порядок должен совпасть с City.compareTo
+    @Test
+    void showOrderMatchesFloatCompare() {
+        Float[] heights = {null, Float.NEGATIVE_INFINITY, -Float.MAX_VALUE, -1.5f, -Float.MIN_VALUE, -0.0f, 0.0f,
+                Float.MIN_VALUE, 1.5f, Float.MAX_VALUE, Float.POSITIVE_INFINITY, Float.NaN};
+        Random random = new Random(161);
+        int[] ids = new int[heights.length * 2];
+        City[] cities = new City[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+            // Обратный порядок высот по ID, чтобы сортировка действительно что-то делала
+            cities[i] = city(i, "Город", heights[heights.length - 1 - i % heights.length], random);
+        }
+        CityStore expected = CollectionSnapshot.EMPTY.withAll(ids, cities, ids.length);
+        CityStore columnar = ColumnarSnapshot.EMPTY.withAll(ids, cities, ids.length);
+        assertIterableEquals(describe(expected.sortedByMetersAboveSeaLevel()),
+                describe(columnar.sortedByMetersAboveSeaLevel()));
+
+        // То же для городов из слоя изменений, ещё не перепакованных в колонки
+        for (int i = 0; i < ids.length; i++) {
+            City replaced = city(ids.length + i, "Город", heights[i % heights.length], random);
+            expected = expected.withPut(replaced);
+            columnar = columnar.withPut(replaced);
+        }
+        assertIterableEquals(describe(expected.sortedByMetersAboveSeaLevel()),
+                describe(columnar.sortedByMetersAboveSeaLevel()));
+    }
+}
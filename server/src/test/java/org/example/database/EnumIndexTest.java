@@ -0,0 +1,150 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.StandardOfLiving;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Индексы по enum-полям: перенос города между корзинами, пропуск null и согласованность
+ * с пересчётом по всей коллекции после случайных изменений снимка.
+ */
+class EnumIndexTest {
+
+    private static City city(int id, StandardOfLiving standard, Climate climate, Government government) {
+        return new City(id, "Город-" + id, new Coordinates(id, (long) id), new Date(0), 10, 100L, null,
+                climate, government, standard, null, "owner");
+    }
+
+    private static City randomCity(int id, Random random) {
+        StandardOfLiving[] standards = StandardOfLiving.values();
+        Climate[] climates = Climate.values();
+        Government[] governments = Government.values();
+        return city(id, standards[random.nextInt(standards.length)], climates[random.nextInt(climates.length)],
+                random.nextInt(4) == 0 ? null : governments[random.nextInt(governments.length)]);
+    }
+
+    private static List<Integer> ids(PersistentIntMap<City> bucket) {
+        List<Integer> ids = new ArrayList<>();
+        bucket.forEach(city -> ids.add(city.getId()));
+        return ids;
+    }
+
+    // Пересчёт корзины полным проходом по коллекции, упорядоченной по ID
+    private static <E extends Enum<E>> List<Integer> recount(TreeMap<Integer, City> cities, Function<City, E> field,
+                                                             E value) {
+        List<Integer> ids = new ArrayList<>();
+        for (City city : cities.values()) {
+            if (field.apply(city) == value) {
+                ids.add(city.getId());
+            }
+        }
+        return ids;
+    }
+
+    private static void assertMatchesRecount(TreeMap<Integer, City> expected, CollectionSnapshot snapshot) {
+        for (StandardOfLiving value : StandardOfLiving.values()) {
+            assertIterableEquals(recount(expected, City::getStandardOfLiving, value),
+                    ids(snapshot.byStandardOfLiving().get(value)));
+        }
+        for (Climate value : Climate.values()) {
+            assertIterableEquals(recount(expected, City::getClimate, value), ids(snapshot.byClimate().get(value)));
+        }
+        for (Government value : Government.values()) {
+            assertIterableEquals(recount(expected, City::getGovernment, value),
+                    ids(snapshot.byGovernment().get(value)));
+        }
+    }
+
+    @Test
+    void replacedMovesCityBetweenBuckets() {
+        EnumIndex<Climate> empty = EnumIndex.empty(Climate.class, City::getClimate);
+        Climate first = Climate.values()[0];
+        Climate second = Climate.values()[1];
+        City before = city(1, StandardOfLiving.values()[0], first, null);
+        City after = city(1, StandardOfLiving.values()[0], second, null);
+
+        EnumIndex<Climate> added = empty.replaced(null, before);
+        EnumIndex<Climate> moved = added.replaced(before, after);
+        EnumIndex<Climate> removed = moved.replaced(after, null);
+
+        assertEquals(1, added.count(first));
+        assertEquals(0, moved.count(first));
+        assertEquals(1, moved.count(second));
+        assertSame(after, moved.get(second).get(1));
+        assertEquals(0, removed.count(second));
+        // Прежние версии индекса не меняются
+        assertEquals(1, added.count(first));
+        assertEquals(0, empty.count(first));
+    }
+
+    @Test
+    void nullValuesAreNotIndexed() {
+        EnumIndex<Government> empty = EnumIndex.empty(Government.class, City::getGovernment);
+        City withoutGovernment = city(1, StandardOfLiving.values()[0], Climate.values()[0], null);
+        assertSame(empty, empty.replaced(null, withoutGovernment));
+
+        EnumIndex<Government> rebuilt = empty.rebuild(List.of(withoutGovernment,
+                city(2, StandardOfLiving.values()[0], Climate.values()[0], Government.values()[0])));
+        int total = 0;
+        for (Government value : Government.values()) {
+            total += rebuilt.count(value);
+        }
+        assertEquals(1, total);
+    }
+
+    @Test
+    void snapshotIndexesMatchRecountAfterRandomChanges() {
+        Random random = new Random(12);
+        TreeMap<Integer, City> expected = new TreeMap<>();
+        int[] ids = new int[500];
+        City[] cities = new City[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i * 2;
+            cities[i] = randomCity(ids[i], random);
+            expected.put(ids[i], cities[i]);
+        }
+        CollectionSnapshot snapshot = CollectionSnapshot.EMPTY.withAll(ids, cities, ids.length);
+        assertMatchesRecount(expected, snapshot);
+
+        for (int step = 0; step < 20_000; step++) {
+            int id = random.nextInt(2_000);
+            switch (random.nextInt(10)) {
+                case 0 -> {
+                    int to = id + random.nextInt(50);
+                    expected.subMap(id, true, to, true).clear();
+                    snapshot = snapshot.withoutRange(id, to);
+                }
+                case 1, 2, 3 -> {
+                    expected.remove(id);
+                    snapshot = snapshot.withRemoved(new int[]{id});
+                }
+                default -> {
+                    City city = randomCity(id, random);
+                    expected.put(id, city);
+                    snapshot = snapshot.withPut(city);
+                }
+            }
+            if (step % 500 == 0) {
+                assertMatchesRecount(expected, snapshot);
+            }
+        }
+        assertMatchesRecount(expected, snapshot);
+        assertEquals(expected.size(), snapshot.size());
+        assertTrue(snapshot.getVersion() > 20_000);
+    }
+}
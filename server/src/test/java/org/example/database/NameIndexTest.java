@@ -0,0 +1,119 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.StandardOfLiving;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Поиск по префиксу названия: порядок (название, ID), граничные префиксы и сравнение
+ * с полным перебором после случайных изменений.
+ */
+class NameIndexTest {
+    private static final String[] SYLLABLES = {"Но", "во", "Са", "ра", "Тверь", "ск", "a", "ab", "b", ""};
+
+    private static City city(int id, String name) {
+        return new City(id, name, new Coordinates(id, (long) id), new Date(0), 10, 100L, null,
+                Climate.values()[0], null, StandardOfLiving.values()[0], null, "owner");
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder name = new StringBuilder();
+        int parts = 1 + random.nextInt(3);
+        for (int i = 0; i < parts; i++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return name.length() == 0 ? "x" : name.toString();
+    }
+
+    private static List<Integer> ids(List<City> cities) {
+        List<Integer> ids = new ArrayList<>();
+        for (City city : cities) {
+            ids.add(city.getId());
+        }
+        return ids;
+    }
+
+    // Полный перебор, как до появления индекса, но с тем же порядком результата
+    private static List<Integer> scan(TreeMap<Integer, City> cities, String prefix) {
+        List<City> matches = new ArrayList<>();
+        for (City city : cities.values()) {
+            if (city.getName().startsWith(prefix)) {
+                matches.add(city);
+            }
+        }
+        matches.sort(Comparator.comparing(City::getName).thenComparingInt(City::getId));
+        return ids(matches);
+    }
+
+    @Test
+    void resultsComeInNameThenIdOrder() {
+        NameIndex index = NameIndex.EMPTY.rebuild(List.of(city(5, "Омск"), city(1, "Орёл"), city(3, "Омск"),
+                city(2, "Москва"), city(4, "Оренбург")));
+        // "е" (U+0435) идёт раньше "ё" (U+0451), как и в String.compareTo
+        assertIterableEquals(List.of(3, 5, 4, 1), ids(index.startingWith("О")));
+        assertIterableEquals(List.of(4, 1), ids(index.startingWith("Ор")));
+        assertIterableEquals(List.of(1), ids(index.startingWith("Орёл")));
+        assertEquals(5, index.startingWith("").size());
+        assertTrue(index.startingWith("Я").isEmpty());
+        assertTrue(index.startingWith("Омскй").isEmpty());
+    }
+
+    @Test
+    void renamedCityMovesInIndex() {
+        City before = city(1, "Царицын");
+        City after = city(1, "Волгоград");
+        NameIndex index = NameIndex.EMPTY.replaced(null, before);
+        NameIndex renamed = index.replaced(before, after);
+
+        assertIterableEquals(List.of(1), ids(index.startingWith("Цар")));
+        assertTrue(renamed.startingWith("Цар").isEmpty());
+        assertIterableEquals(List.of(1), ids(renamed.startingWith("Вол")));
+        assertEquals(1, renamed.size());
+        assertEquals(0, renamed.replaced(after, null).size());
+    }
+
+    @Test
+    void matchesFullScanAfterRandomChanges() {
+        Random random = new Random(13);
+        TreeMap<Integer, City> expected = new TreeMap<>();
+        NameIndex index = NameIndex.EMPTY;
+        for (int step = 0; step < 5_000; step++) {
+            int id = random.nextInt(800);
+            City old = expected.get(id);
+            City fresh = random.nextInt(4) == 0 ? null : city(id, randomName(random));
+            if (fresh == null) {
+                expected.remove(id);
+            } else {
+                expected.put(id, fresh);
+            }
+            index = index.replaced(old, fresh);
+
+            if (step % 250 == 0) {
+                assertEquals(expected.size(), index.size());
+                for (int i = 0; i < 10; i++) {
+                    String name = randomName(random);
+                    String prefix = name.substring(0, random.nextInt(name.length() + 1));
+                    assertIterableEquals(scan(expected, prefix), ids(index.startingWith(prefix)));
+                }
+                assertIterableEquals(scan(expected, ""), ids(index.startingWith("")));
+            }
+        }
+        NameIndex rebuilt = NameIndex.EMPTY.rebuild(expected.values());
+        for (String prefix : SYLLABLES) {
+            assertIterableEquals(ids(index.startingWith(prefix)), ids(rebuilt.startingWith(prefix)));
+        }
+    }
+}
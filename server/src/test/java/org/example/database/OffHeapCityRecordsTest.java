@@ -0,0 +1,114 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Записи вне кучи: сборка City обратно из записи, перенос записей в новый набор при перепаковке
+ * и фильтр по префиксу, сравнивающий байты UTF-8.
+ */
+class OffHeapCityRecordsTest {
+    // Кириллица, символы вне BMP (суррогатные пары) и пустое имя
+    private static final String[] NAMES = {"Москва", "Мос", "Мурманск", "Moscow", "𝔸𝔹𝔺", "𝔸x", "𝔹", "", "Ёлки-𝔸"};
+
+    private static City city(int id, String name, String owner, boolean withNulls) {
+        return new City(id, name, withNulls ? new Coordinates(null, null) : new Coordinates(-id, id * 1_000_000_007L),
+                withNulls ? null : new Date(id * 86_400_000L), withNulls ? null : id * 3,
+                withNulls ? null : id * 100_000L, withNulls ? null : id * -0.25f,
+                withNulls ? null : Climate.values()[id % Climate.values().length],
+                withNulls ? null : Government.values()[id % Government.values().length],
+                withNulls ? null : StandardOfLiving.values()[id % StandardOfLiving.values().length],
+                withNulls ? null : new Human("Губернатор 𝔸-" + id), owner);
+    }
+
+    private static OffHeapCityRecords records(int count) {
+        OffHeapCityRecords.Builder builder = new OffHeapCityRecords.Builder(count);
+        for (int i = 0; i < count; i++) {
+            builder.add(city(i + 1, NAMES[i % NAMES.length], i % 2 == 0 ? "alice" : "bob", i % 3 == 0));
+        }
+        return builder.build();
+    }
+
+    @Test
+    void recordsRestoreEveryField() {
+        OffHeapCityRecords records = records(30);
+        assertEquals(30, records.size);
+        for (int slot = 0; slot < records.size; slot++) {
+            assertEquals(city(slot + 1, NAMES[slot % NAMES.length], slot % 2 == 0 ? "alice" : "bob", slot % 3 == 0)
+                    .toString(), records.city(slot).toString());
+            assertEquals(slot, records.slotOf(slot + 1));
+        }
+    }
+
+    // Новый набор собирает свой словарь владельцев и свою область строк; старый остаётся цел
+    @Test
+    void copiedRecordsKeepTheirContent() {
+        OffHeapCityRecords source = records(30);
+        OffHeapCityRecords.Builder builder = new OffHeapCityRecords.Builder(1 + source.size);
+        builder.add(city(0, "Новый", "carol", false));
+        for (int slot = 0; slot < source.size; slot++) {
+            builder.copy(source, slot);
+        }
+        OffHeapCityRecords copy = builder.build();
+
+        assertEquals("carol", copy.city(0).getOwnerId());
+        for (int slot = 0; slot < source.size; slot++) {
+            assertEquals(source.city(slot).toString(), copy.city(slot + 1).toString());
+        }
+        assertEquals(city(1, NAMES[0], "alice", true).toString(), source.city(0).toString());
+    }
+
+    @Test
+    void copyFromHeapColumnsFallsBackToAdd() {
+        CityColumns.Builder columns = new CityColumns.Builder(2);
+        columns.add(city(1, "Тверь", "alice", false));
+        columns.add(city(2, "𝔸", "bob", true));
+        CityColumns source = columns.build();
+
+        OffHeapCityRecords.Builder builder = new OffHeapCityRecords.Builder(2);
+        builder.copy(source, 0);
+        builder.copy(source, 1);
+        OffHeapCityRecords copy = builder.build();
+        assertEquals(source.city(0).toString(), copy.city(0).toString());
+        assertEquals(source.city(1).toString(), copy.city(1).toString());
+    }
+
+    // Все префиксы всех имён по символам char, в том числе обрывающие суррогатную пару посередине
+    @Test
+    void nameFilterMatchesStartsWith() {
+        OffHeapCityRecords records = records(NAMES.length * 2);
+        Set<String> prefixes = new LinkedHashSet<>();
+        for (String name : NAMES) {
+            for (int end = 0; end <= name.length(); end++) {
+                prefixes.add(name.substring(0, end));
+            }
+            prefixes.add(name + "я");
+        }
+        prefixes.add("\uDD38");
+        prefixes.add("М\uD835");
+
+        for (String prefix : prefixes) {
+            IntPredicate filter = records.nameFilter(prefix);
+            for (int slot = 0; slot < records.size; slot++) {
+                assertEquals(records.city(slot).getName().startsWith(prefix), filter.test(slot));
+            }
+        }
+    }
+
+    @Test
+    void offHeapEngineMatchesObjectEngine() {
+        ColumnarSnapshotTest.assertMatchesObjectEngine(ColumnarSnapshot.OFF_HEAP_EMPTY, 17);
+    }
+}
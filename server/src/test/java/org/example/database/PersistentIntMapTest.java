@@ -0,0 +1,197 @@
+package org.example.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Персистентная карта: построение из отсортированных ключей, запись с копированием пути,
+ * отрезки headMap/tailMap и сравнение со стандартной TreeMap на случайных операциях.
+ */
+class PersistentIntMapTest {
+
+    private static PersistentIntMap<String> sequence(int from, int to) {
+        int count = to - from;
+        int[] keys = new int[count];
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = from + i;
+            values[i] = "v" + (from + i);
+        }
+        return PersistentIntMap.fromSorted(keys, values, count);
+    }
+
+    private static void assertSameContent(TreeMap<Integer, String> expected, PersistentIntMap<String> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        assertIterableEquals(expected.values(), actual.values());
+        List<String> visited = new ArrayList<>();
+        actual.forEach(visited::add);
+        assertIterableEquals(expected.values(), visited);
+    }
+
+    @Test
+    void fromSortedKeepsKeyOrder() {
+        PersistentIntMap<String> map = sequence(-500, 1500);
+        assertEquals(2000, map.size());
+        assertEquals("v-500", map.get(-500));
+        assertEquals("v1499", map.get(1499));
+        assertNull(map.get(1500));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(-501));
+
+        int expected = -500;
+        for (String value : map.values()) {
+            assertEquals("v" + expected++, value);
+        }
+    }
+
+    @Test
+    void fromSortedUsesOnlyCountKeys() {
+        int[] keys = {1, 2, 3, 4};
+        String[] values = {"a", "b", "c", "d"};
+        PersistentIntMap<String> map = PersistentIntMap.fromSorted(keys, values, 2);
+        assertEquals(2, map.size());
+        assertNull(map.get(3));
+        assertTrue(PersistentIntMap.fromSorted(keys, values, 0).isEmpty());
+    }
+
+    @Test
+    void fromSortedRejectsUnorderedKeys() {
+        assertThrows(IllegalArgumentException.class,
+                () -> PersistentIntMap.fromSorted(new int[]{1, 3, 2}, new String[]{"a", "b", "c"}, 3));
+        assertThrows(IllegalArgumentException.class,
+                () -> PersistentIntMap.fromSorted(new int[]{1, 1}, new String[]{"a", "b"}, 2));
+    }
+
+    @Test
+    void writesLeaveSourceMapUnchanged() {
+        PersistentIntMap<String> source = sequence(0, 100);
+        PersistentIntMap<String> replaced = source.put(50, "new");
+        PersistentIntMap<String> added = source.put(1000, "v1000");
+        PersistentIntMap<String> removed = source.remove(0);
+
+        assertEquals("v50", source.get(50));
+        assertEquals(100, source.size());
+        assertEquals("new", replaced.get(50));
+        assertEquals(100, replaced.size());
+        assertEquals(101, added.size());
+        assertNull(removed.get(0));
+        assertEquals(99, removed.size());
+        assertTrue(source.containsKey(0));
+    }
+
+    @Test
+    void removingMissingKeyReturnsSameMap() {
+        PersistentIntMap<String> map = sequence(0, 10);
+        assertSame(map, map.remove(42));
+        assertSame(PersistentIntMap.<String>empty(), PersistentIntMap.<String>empty().remove(1));
+    }
+
+    @Test
+    void nullValuesAreRejected() {
+        assertThrows(NullPointerException.class, () -> PersistentIntMap.<String>empty().put(1, null));
+    }
+
+    // Удаление из середины сливает поддеревья удалённого узла; порядок и размеры должны сохраниться
+    @Test
+    void matchesTreeMapOnRandomPutsAndRemoves() {
+        Random random = new Random(9);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        PersistentIntMap<String> map = PersistentIntMap.empty();
+        for (int step = 0; step < 20_000; step++) {
+            int key = random.nextInt(2_000) - 1_000;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                String value = "v" + step;
+                expected.put(key, value);
+                map = map.put(key, value);
+            }
+            assertEquals(expected.get(key), map.get(key));
+            if (step % 1_000 == 0) {
+                assertSameContent(expected, map);
+            }
+        }
+        assertSameContent(expected, map);
+
+        // Опустошение до конца возвращает пустую карту
+        for (int key : new ArrayList<>(expected.keySet())) {
+            map = map.remove(key);
+        }
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void headAndTailMapsHonourBounds() {
+        PersistentIntMap<String> map = sequence(0, 10);
+        assertIterableEquals(List.of("v0", "v1", "v2"), map.headMap(3, false).values());
+        assertIterableEquals(List.of("v0", "v1", "v2", "v3"), map.headMap(3, true).values());
+        assertIterableEquals(List.of("v8", "v9"), map.tailMap(7, false).values());
+        assertIterableEquals(List.of("v7", "v8", "v9"), map.tailMap(7, true).values());
+        assertTrue(map.headMap(0, false).isEmpty());
+        assertTrue(map.tailMap(9, false).isEmpty());
+        assertEquals(10, map.size());
+    }
+
+    @Test
+    void splitThatKeepsEverythingReturnsSameMap() {
+        PersistentIntMap<String> map = sequence(0, 10);
+        assertSame(map, map.headMap(100, false));
+        assertSame(map, map.headMap(9, true));
+        assertSame(map, map.tailMap(-1, false));
+        assertSame(map, map.tailMap(0, true));
+    }
+
+    // Отрезки должны оставаться полноценными картами: запись в них не задевает исходную
+    @Test
+    void headAndTailMapsMatchTreeMap() {
+        Random random = new Random(11);
+        for (int round = 0; round < 300; round++) {
+            TreeMap<Integer, String> expected = new TreeMap<>();
+            PersistentIntMap<String> map = PersistentIntMap.empty();
+            int count = random.nextInt(200);
+            for (int i = 0; i < count; i++) {
+                int key = random.nextInt(400);
+                expected.put(key, "v" + key);
+                map = map.put(key, "v" + key);
+            }
+            int bound = random.nextInt(420) - 10;
+            boolean inclusive = random.nextBoolean();
+
+            NavigableMap<Integer, String> expectedHead = expected.headMap(bound, inclusive);
+            NavigableMap<Integer, String> expectedTail = expected.tailMap(bound, inclusive);
+            PersistentIntMap<String> head = map.headMap(bound, inclusive);
+            PersistentIntMap<String> tail = map.tailMap(bound, inclusive);
+            assertSameContent(new TreeMap<>(expectedHead), head);
+            assertSameContent(new TreeMap<>(expectedTail), tail);
+            assertSameContent(expected, map);
+
+            int extra = random.nextInt(400);
+            TreeMap<Integer, String> changedHead = new TreeMap<>(expectedHead);
+            changedHead.remove(extra);
+            changedHead.put(-extra - 1, "x");
+            assertSameContent(changedHead, head.remove(extra).put(-extra - 1, "x"));
+            assertSameContent(new TreeMap<>(expectedHead), head);
+
+            int from = random.nextInt(420) - 10;
+            int to = from + random.nextInt(100);
+            assertSameContent(new TreeMap<>(expected.subMap(from, true, to, true)),
+                    map.tailMap(from, true).headMap(to, true));
+        }
+    }
+}
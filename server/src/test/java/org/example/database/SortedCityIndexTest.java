@@ -0,0 +1,103 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.StandardOfLiving;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Индекс по высоте для show: порядок как у City.compareTo с null в начале и ID при равенстве,
+ * поиск начала обхода и сравнение с сортировкой всей коллекции.
+ */
+class SortedCityIndexTest {
+    private static final Comparator<City> BY_METERS_THEN_ID =
+            Comparator.<City>naturalOrder().thenComparingInt(City::getId);
+
+    private static City city(int id, Float meters) {
+        return new City(id, "Город-" + id, new Coordinates(id, (long) id), new Date(0), 10, 100L, meters,
+                Climate.values()[0], null, StandardOfLiving.values()[0], null, "owner");
+    }
+
+    private static List<Integer> ids(Iterable<City> cities) {
+        List<Integer> ids = new ArrayList<>();
+        for (City city : cities) {
+            ids.add(city.getId());
+        }
+        return ids;
+    }
+
+    // Прежний show: копия коллекции и сортировка на каждый вызов
+    private static List<Integer> sorted(TreeMap<Integer, City> cities) {
+        List<City> copy = new ArrayList<>(cities.values());
+        copy.sort(BY_METERS_THEN_ID);
+        return ids(copy);
+    }
+
+    @Test
+    void nullHeightsComeFirstAndTiesGoById() {
+        SortedCityIndex index = SortedCityIndex.empty(City::compareTo)
+                .rebuild(List.of(city(4, 1.5f), city(2, null), city(3, -7f), city(1, 1.5f), city(5, null)));
+        assertIterableEquals(List.of(2, 5, 3, 1, 4), ids(index.values()));
+        assertEquals(5, index.values().size());
+    }
+
+    @Test
+    void fromStartsAtFirstMatchingCity() {
+        SortedCityIndex index = SortedCityIndex.empty(City::compareTo);
+        for (int id = 0; id < 100; id++) {
+            index = index.replaced(null, city(id, (float) (id % 10)));
+        }
+        Iterator<City> it = index.from(city -> city.getMetersAboveSeaLevel() >= 7f);
+        List<Integer> rest = new ArrayList<>();
+        it.forEachRemaining(city -> rest.add(city.getId()));
+        assertEquals(30, rest.size());
+        assertEquals(7, rest.get(0));
+        assertEquals(99, rest.get(rest.size() - 1));
+
+        Iterator<City> none = index.from(city -> false);
+        assertFalse(none.hasNext());
+        assertThrows(NoSuchElementException.class, none::next);
+    }
+
+    @Test
+    void matchesSortAfterRandomChanges() {
+        Random random = new Random(14);
+        TreeMap<Integer, City> expected = new TreeMap<>();
+        SortedCityIndex index = SortedCityIndex.empty(City::compareTo);
+        for (int step = 0; step < 10_000; step++) {
+            int id = random.nextInt(1_000);
+            City old = expected.get(id);
+            City fresh = null;
+            if (random.nextInt(4) != 0) {
+                // Мало различных высот, чтобы чаще проверялся порядок по ID при равенстве
+                fresh = city(id, random.nextInt(8) == 0 ? null : (float) (random.nextInt(40) - 20));
+                expected.put(id, fresh);
+            } else {
+                expected.remove(id);
+            }
+            index = index.replaced(old, fresh);
+            if (step % 500 == 0) {
+                assertEquals(expected.size(), index.size());
+                assertIterableEquals(sorted(expected), ids(index.values()));
+            }
+        }
+        assertIterableEquals(sorted(expected), ids(index.values()));
+        SortedCityIndex rebuilt = SortedCityIndex.empty(City::compareTo).rebuild(expected.values());
+        assertIterableEquals(ids(index.values()), ids(rebuilt.values()));
+    }
+}
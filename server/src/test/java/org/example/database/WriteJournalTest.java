@@ -0,0 +1,152 @@
+package org.example.database;
+
+import org.example.database.models.City;
+import org.example.database.models.Climate;
+import org.example.database.models.Coordinates;
+import org.example.database.models.Government;
+import org.example.database.models.Human;
+import org.example.database.models.StandardOfLiving;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Восстановление журнала отложенной записи при открытии: записи после отметки БД, обрыв
+ * последней записи и испорченная контрольная сумма.
+ */
+class WriteJournalTest {
+    @TempDir
+    Path directory;
+
+    private static City city(int id, boolean withOptionalFields) {
+        return new City(id, "Город-" + id, new Coordinates(id, id * 10L), new Date(1_000L * id), 10 + id, 100L + id,
+                withOptionalFields ? 5.5f : null, Climate.values()[id % Climate.values().length],
+                withOptionalFields ? Government.values()[id % Government.values().length] : null,
+                StandardOfLiving.values()[id % StandardOfLiving.values().length],
+                withOptionalFields ? new Human("Губернатор-" + id) : null, "owner");
+    }
+
+    // Три записи: вставка, обновление без необязательных полей, удаление
+    private Path writeJournal() throws IOException {
+        Path path = directory.resolve("collection.journal");
+        try (WriteJournal journal = WriteJournal.open(path, 0)) {
+            journal.append(WriteJournal.Type.INSERT, "owner", city(1, true), null);
+            journal.append(WriteJournal.Type.UPDATE, "owner", city(2, false), null);
+            journal.append(WriteJournal.Type.DELETE, "owner", null, new int[]{1, 2, 3});
+        }
+        return path;
+    }
+
+    // Смещения концов записей - по их длинам из заголовков
+    private static long[] recordEnds(Path path) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        long[] ends = new long[3];
+        for (int i = 0; i < ends.length; i++) {
+            bytes.position(bytes.position() + 8 + bytes.getInt(bytes.position()));
+            ends[i] = bytes.position();
+        }
+        return ends;
+    }
+
+    @Test
+    void reopenedJournalReturnsAllEntries() throws IOException {
+        Path path = writeJournal();
+        try (WriteJournal journal = WriteJournal.open(path, 0)) {
+            List<WriteJournal.Entry> entries = journal.pendingEntries();
+            assertEquals(3, entries.size());
+            assertEquals(WriteJournal.Type.INSERT, entries.get(0).type);
+            assertEquals("owner", entries.get(0).ownerId);
+            assertEquals("Город-1", entries.get(0).city.getName());
+            assertEquals("Губернатор-1", entries.get(0).city.getGovernor().getName());
+            assertEquals(1, entries.get(0).city.getId());
+
+            City updated = entries.get(1).city;
+            assertNull(updated.getMetersAboveSeaLevel());
+            assertNull(updated.getGovernment());
+            assertNull(updated.getGovernor());
+            assertEquals(20L, updated.getCoordinates().getY());
+
+            assertArrayEquals(new int[]{1, 2, 3}, entries.get(2).ids);
+            assertEquals(3, entries.get(2).sequence);
+        }
+    }
+
+    @Test
+    void entriesUpToCheckpointAreSkipped() throws IOException {
+        Path path = writeJournal();
+        try (WriteJournal journal = WriteJournal.open(path, 2)) {
+            List<WriteJournal.Entry> entries = journal.pendingEntries();
+            assertEquals(1, entries.size());
+            assertEquals(3, entries.get(0).sequence);
+            // Нумерация продолжается после последней записи файла, а не после отметки
+            assertEquals(4, journal.append(WriteJournal.Type.DELETE, "owner", null, new int[]{4}).sequence);
+        }
+    }
+
+    @Test
+    void tornTailIsDroppedAndCutOff() throws IOException {
+        Path path = writeJournal();
+        long[] ends = recordEnds(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(ends[2] - 3);
+        }
+
+        try (WriteJournal journal = WriteJournal.open(path, 0)) {
+            assertEquals(2, journal.pendingCount());
+            assertEquals(ends[1], Files.size(path));
+            assertEquals(3, journal.append(WriteJournal.Type.DELETE, "owner", null, new int[]{1}).sequence);
+        }
+        try (WriteJournal journal = WriteJournal.open(path, 0)) {
+            assertEquals(3, journal.pendingCount());
+        }
+    }
+
+    @Test
+    void corruptedRecordEndsRecovery() throws IOException {
+        Path path = writeJournal();
+        long[] ends = recordEnds(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Последний байт второй записи - внутри её полезной нагрузки
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, ends[1] - 1);
+            one.put(0, (byte) (one.get(0) ^ 0x5A));
+            one.rewind();
+            channel.write(one, ends[1] - 1);
+        }
+
+        try (WriteJournal journal = WriteJournal.open(path, 0)) {
+            List<WriteJournal.Entry> entries = journal.pendingEntries();
+            assertEquals(1, entries.size());
+            assertEquals(1, entries.get(0).sequence);
+            assertEquals(ends[0], Files.size(path));
+        }
+    }
+
+    @Test
+    void flushedJournalIsTruncated() throws IOException, InterruptedException {
+        Path path = writeJournal();
+        try (WriteJournal journal = WriteJournal.open(path, 0)) {
+            List<WriteJournal.Entry> durable = journal.durableEntries(2, 0);
+            assertEquals(2, durable.size());
+            journal.markFlushed(durable.get(1).sequence);
+            assertEquals(1, journal.pendingCount());
+            journal.markFlushed(3);
+            assertEquals(0, journal.pendingCount());
+            assertEquals(0, Files.size(path));
+            assertTrue(journal.durableEntries(10, 0).isEmpty());
+        }
+    }
+}